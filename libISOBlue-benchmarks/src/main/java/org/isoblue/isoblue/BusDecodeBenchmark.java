@@ -0,0 +1,136 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isobus.Filter;
+import org.isoblue.isobus.ISOBUSSocket;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.MessageListener;
+import org.isoblue.isobus.RawMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares giving an {@link ISOBlueBus} received MESG commands with
+ * {@link ISOBlueBus#handleCommand(ISOBlueCommand)}, which decodes each one on
+ * its own, against reading and decoding frames in place and handing over the
+ * {@link ISOBlueDecoder}, as the read thread does.
+ * <p>
+ * One listening socket receives every {@link Message}. Run with
+ * {@code -prof gc} to see the bytes allocated per command.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BusDecodeBenchmark {
+
+    private ISOBlueNetwork mNetwork;
+    private ISOBlueBus mBus;
+    private ISOBlueCommand mCommand;
+    private ISOBlueDecoder mTextDecoder;
+    private ISOBlueDecoder mBinaryDecoder;
+    private long mReceived;
+
+    @Setup
+    public void setup() throws IOException {
+        RawMessage message = new RawMessage();
+        byte data[] = new byte[] { 0x01, 0x23, 0x45, 0x67, (byte) 0x89,
+                (byte) 0xAB, (byte) 0xCD, (byte) 0xEF };
+        ISOBlueEncoder text = new ISOBlueEncoder();
+        ISOBlueEncoder binary = new ISOBlueEncoder();
+        String line;
+
+        message.set(0x1234, 0xFEF1, (short) 0xFF, (short) 0x80,
+                1409000000123456L);
+        message.setData(data, 0, data.length);
+        text.encodeMessage(ISOBlueCommand.OpCode.MESG, 0, message,
+                Framing.TEXT);
+        binary.encodeMessage(ISOBlueCommand.OpCode.MESG, 0, message,
+                Framing.BINARY);
+
+        line = new String(text.toByteArray()).trim();
+        mCommand = ISOBlueCommand.receiveCommand(line);
+        mTextDecoder = new ISOBlueDecoder(new RepeatingInputStream(
+                text.toByteArray()));
+        mBinaryDecoder = new ISOBlueDecoder(new RepeatingInputStream(
+                binary.toByteArray()));
+
+        mNetwork = new ISOBlueNetwork(new IdleTransport());
+        mBus = (ISOBlueBus) mNetwork.getEngineBus();
+        mBus.listen(Filter.ALL, new MessageListener() {
+            @Override
+            public void onMessage(ISOBUSSocket socket, Message message) {
+                mReceived++;
+            }
+
+            @Override
+            public void onEnd(ISOBUSSocket socket) {
+            }
+        }, null);
+        mReceived = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mNetwork.close();
+    }
+
+    @Benchmark
+    public long command() {
+        mBus.handleCommand(mCommand);
+
+        return mReceived;
+    }
+
+    @Benchmark
+    public long frameText() throws IOException {
+        mTextDecoder.readFrame();
+        mTextDecoder.decode();
+        mBus.handleFrame(mTextDecoder);
+
+        return mReceived;
+    }
+
+    @Benchmark
+    public long frameBinary() throws IOException {
+        mBinaryDecoder.readFrame();
+        mBinaryDecoder.decode();
+        mBus.handleFrame(mBinaryDecoder);
+
+        return mReceived;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isobus.Bus;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.PGN;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares encoding WRITE and FILT commands the way libISOBlue used to, with
+ * {@link String#format(String, Object...)}, against {@link ISOBlueEncoder}.
+ * <p>
+ * Run with {@code -prof gc} to see the bytes allocated per command.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CommandEncodeBenchmark {
+
+    private Message mMessage;
+    private Set<PGN> mPgnSet;
+    private int mPgns[];
+    private ISOBlueEncoder mEncoder;
+    private CountingOutputStream mOut;
+
+    @Setup
+    public void setup() {
+        mMessage = new Message((short) 0xFF, new PGN(0xEF00), new byte[] {
+                0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD,
+                (byte) 0xEF });
+
+        mPgnSet = new HashSet<PGN>();
+        mPgnSet.add(new PGN(0xF004));
+        mPgnSet.add(new PGN(0xFEF1));
+        mPgnSet.add(new PGN(0xFE48));
+        mPgnSet.add(new PGN(0xFE49));
+        mPgns = new int[mPgnSet.size()];
+        int i = 0;
+        for (PGN pgn : mPgnSet) {
+            mPgns[i++] = pgn.asInt();
+        }
+
+        mEncoder = new ISOBlueEncoder();
+        mOut = new CountingOutputStream();
+    }
+
+    @Benchmark
+    public long writeFormat() throws IOException {
+        ISOBlueCommand cmd;
+        byte data[];
+        StringBuilder s = new StringBuilder();
+
+        // What ISOBlueBus.passMessageOut used to do
+        data = mMessage.getData();
+        s.append(String.format("%5x%2x%4x", mMessage.getPgn().asInt(),
+                mMessage.getDestAddr(), data.length));
+        for (byte b : mMessage.getData()) {
+            s.append(String.format("%02x", b));
+        }
+        cmd = new ISOBlueCommand(ISOBlueCommand.OpCode.WRITE, (byte) 0,
+                (byte) 1, s.toString().getBytes());
+
+        sendFormat(cmd);
+
+        return mOut.mCount;
+    }
+
+    @Benchmark
+    public long writeEncoder() throws IOException {
+        mEncoder.encode(ISOBlueCommand.write((byte) 1, mMessage, Framing.TEXT));
+        mEncoder.writeTo(mOut);
+
+        return mOut.mCount;
+    }
+
+    @Benchmark
+    public long writeEncoderBinary() throws IOException {
+        mEncoder.encode(ISOBlueCommand
+                .write((byte) 1, mMessage, Framing.BINARY));
+        mEncoder.writeTo(mOut);
+
+        return mOut.mCount;
+    }
+
+    @Benchmark
+    public long filterFormat() throws IOException {
+        ISOBlueCommand cmd;
+        StringBuilder s = new StringBuilder();
+
+        // What ISOBlueBus.attach used to do
+        s.append(String.format("%05x", mPgnSet.size()));
+        for (PGN pgn : mPgnSet) {
+            s.append(String.format("%05x", pgn.asInt()));
+        }
+        cmd = new ISOBlueCommand(ISOBlueCommand.OpCode.FILT,
+                Bus.BusType.ENGINE, (byte) 0, s.toString().getBytes());
+
+        sendFormat(cmd);
+
+        return mOut.mCount;
+    }
+
+    @Benchmark
+    public long filterEncoder() throws IOException {
+        mEncoder.encode(ISOBlueCommand.filter(Bus.BusType.ENGINE, mPgns,
+                Framing.TEXT));
+        mEncoder.writeTo(mOut);
+
+        return mOut.mCount;
+    }
+
+    /**
+     * What {@link ISOBlueCommand#sendCommand(OutputStream)} used to do.
+     */
+    private void sendFormat(ISOBlueCommand cmd) throws IOException {
+        StringBuilder s = new StringBuilder();
+
+        s.append(cmd.getOpCode().val);
+        s.append(String.format("%1x", cmd.getBus()));
+        s.append(new String(cmd.getData()));
+
+        mOut.write((s.toString() + "\n").getBytes());
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte b[], int off, int len) {
+            mCount += len;
+        }
+    }
+}
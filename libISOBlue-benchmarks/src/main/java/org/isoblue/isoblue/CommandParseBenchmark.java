@@ -0,0 +1,109 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isobus.RawMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares parsing received MESG commands the way libISOBlue used to, reading
+ * a line and building an {@link ISOBlueCommand} from it, against reading
+ * frames straight out of the stream with {@link ISOBlueDecoder}, in both
+ * framings.
+ * <p>
+ * Run with {@code -prof gc} to see the bytes allocated per command.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CommandParseBenchmark {
+
+    private BufferedReader mReader;
+    private ISOBlueDecoder mLineDecoder;
+    private ISOBlueDecoder mTextDecoder;
+    private ISOBlueDecoder mBinaryDecoder;
+
+    @Setup
+    public void setup() {
+        RawMessage message = new RawMessage();
+        byte data[] = new byte[] { 0x01, 0x23, 0x45, 0x67, (byte) 0x89,
+                (byte) 0xAB, (byte) 0xCD, (byte) 0xEF };
+        ISOBlueEncoder text = new ISOBlueEncoder();
+        ISOBlueEncoder binary = new ISOBlueEncoder();
+
+        message.set(0x1234, 0xFEF1, (short) 0xFF, (short) 0x80,
+                1409000000123456L);
+        message.setData(data, 0, data.length);
+        text.encodeMessage(ISOBlueCommand.OpCode.MESG, 0, message,
+                Framing.TEXT);
+        binary.encodeMessage(ISOBlueCommand.OpCode.MESG, 0, message,
+                Framing.BINARY);
+
+        mReader = new BufferedReader(new InputStreamReader(
+                new RepeatingInputStream(text.toByteArray())));
+        mLineDecoder = new ISOBlueDecoder();
+        mTextDecoder = new ISOBlueDecoder(new RepeatingInputStream(
+                text.toByteArray()));
+        mBinaryDecoder = new ISOBlueDecoder(new RepeatingInputStream(
+                binary.toByteArray()));
+    }
+
+    @Benchmark
+    public int line() throws IOException {
+        // What ISOBlueDevice's read thread used to do
+        ISOBlueCommand cmd = ISOBlueCommand.receiveCommand(mReader.readLine());
+
+        mLineDecoder.decode(cmd);
+        return mLineDecoder.getPgn();
+    }
+
+    @Benchmark
+    public int decoderText() throws IOException {
+        mTextDecoder.readFrame();
+        mTextDecoder.decode();
+        return mTextDecoder.getPgn();
+    }
+
+    @Benchmark
+    public int decoderBinary() throws IOException {
+        mBinaryDecoder.readFrame();
+        mBinaryDecoder.decode();
+        return mBinaryDecoder.getPgn();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.isoblue.isobus.ISOBUSSocket;
+import org.isoblue.isobus.PGN;
+import org.isoblue.isobus.PGNIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the socket collection libISOBlue used to keep,
+ * {@link ConstantIndexVector}, against the {@link PGNIndex} each bus keeps
+ * now. Iterating is done for every received message, adding and removing
+ * whenever a socket opens or closes.
+ * <p>
+ * Run with {@code -prof gc} to see the bytes allocated per operation.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@SuppressWarnings("deprecation")
+public class ConstantIndexVectorBenchmark {
+
+    /**
+     * How many sockets are held
+     */
+    @Param({ "1", "16", "64" })
+    public int size;
+
+    private ISOBlueNetwork mNetwork;
+    private ConstantIndexVector<ISOBUSSocket> mVector;
+    private PGNIndex mIndex;
+    private ISOBUSSocket mChurn;
+
+    @Setup
+    public void setup() throws IOException {
+        Collection<PGN> pgns = Collections.singleton(PGN.valueOf(0xFEF1));
+
+        mNetwork = new ISOBlueNetwork(new IdleTransport());
+        mVector = new ConstantIndexVector<ISOBUSSocket>();
+        mIndex = new PGNIndex();
+        for (int i = 0; i < size; i++) {
+            ISOBUSSocket sock = new ISOBUSSocket(mNetwork.getEngineBus(),
+                    null, pgns);
+
+            mVector.add(sock);
+            mIndex.add(sock);
+        }
+        mChurn = new ISOBUSSocket(mNetwork.getEngineBus(), null, pgns);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mNetwork.close();
+    }
+
+    @Benchmark
+    public int iterateVector() {
+        int n = 0;
+
+        for (ISOBUSSocket sock : mVector) {
+            n += sock.hashCode();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int iterateIndex() {
+        int n = 0;
+
+        for (ISOBUSSocket sock : mIndex.getSockets()) {
+            n += sock.hashCode();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public boolean addRemoveVector() {
+        mVector.add(mChurn);
+        return mVector.remove(mChurn);
+    }
+
+    @Benchmark
+    public boolean addRemoveIndex() {
+        mIndex.add(mChurn);
+        return mIndex.remove(mChurn);
+    }
+}
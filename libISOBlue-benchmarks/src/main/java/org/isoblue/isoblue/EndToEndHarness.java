@@ -0,0 +1,493 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isobus.ISOBUSSocket;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.PGN;
+
+/**
+ * Drives an {@link ISOBlueNetwork}'s read path with a synthetic MESG feed,
+ * stepping through a list of rates, to find the sustained rate its sockets
+ * keep up with and the latency of getting each {@link Message} out of
+ * {@link ISOBUSSocket#read(long, TimeUnit)}.
+ * <p>
+ * An {@link ISOBlueEmulator} sends the feed over TCP on the loopback
+ * interface, as an ISOBlue would over Bluetooth. Each {@link Message} carries
+ * the {@link System#nanoTime()} it was due to be sent at, so its latency
+ * covers encoding, the transport, decoding, dispatch and the socket's queue,
+ * as well as any time the feed fell behind its schedule. The latencies are
+ * recorded in an HdrHistogram.
+ * <p>
+ * A rate is sustained when the feed keeps up with it, every socket receives
+ * every {@link Message} without dropping any, and the 99.9th percentile
+ * latency is within the limit. The results are written as a JSON report, for
+ * comparing between releases.
+ * <p>
+ * Options, all optional:
+ * <dl>
+ * <dt>{@code --rates 1000,5000,...}</dt>
+ * <dd>frames per second to step through</dd>
+ * <dt>{@code --duration ms}</dt>
+ * <dd>how long to feed at each rate</dd>
+ * <dt>{@code --warmup ms}</dt>
+ * <dd>how long to feed at the first rate before measuring</dd>
+ * <dt>{@code --sockets n}</dt>
+ * <dd>how many sockets read the feed, each on its own thread</dd>
+ * <dt>{@code --mix F004:50,FEF1:30,...}</dt>
+ * <dd>PGNs in the feed, in hex, with their weights</dd>
+ * <dt>{@code --framing TEXT|BINARY}</dt>
+ * <dd>framing to ask the emulator for</dd>
+ * <dt>{@code --max-latency us}</dt>
+ * <dd>highest 99.9th percentile latency of a sustained rate</dd>
+ * <dt>{@code --out file}</dt>
+ * <dd>where to write the report, instead of standard output</dd>
+ * </dl>
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+public class EndToEndHarness {
+
+    /**
+     * Highest latency the histogram tracks, in &micro;s
+     */
+    private static final long MAX_TRACKED_LATENCY = TimeUnit.MINUTES
+            .toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * Time between checks on the feed and socket backlogs
+     */
+    private static final long PACE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Longest wait for the sockets to catch up after each rate
+     */
+    private static final long DRAIN_MILLIS = 5000;
+
+    /**
+     * How much of the target rate the feed must reach to count
+     */
+    private static final double RATE_TOLERANCE = 0.99;
+
+    private int mRates[] = { 1000, 2000, 5000, 10000, 20000, 50000, 100000 };
+    private long mDurationMillis = 5000;
+    private long mWarmupMillis = 2000;
+    private int mSocketCount = 1;
+    private int mMixPgns[] = { 0xF004, 0xFEF1, 0xFE48, 0xFE49 };
+    private int mMixWeights[] = { 50, 20, 20, 10 };
+    private Framing mFraming = Framing.BINARY;
+    private long mMaxLatencyMicros = 10000;
+    private String mOut = null;
+
+    /**
+     * PGN of each {@link Message} of the feed, in turn
+     */
+    private int mCycle[];
+
+    private ISOBlueEmulator mEmulator;
+    private ISOBlueNetwork mNetwork;
+    private ISOBUSSocket mSockets[];
+    private Thread mReaders[];
+    private AtomicLongArray mReceived;
+    private Recorder mLatency;
+    private volatile boolean mStopped;
+
+    public static void main(String args[]) throws Exception {
+        EndToEndHarness harness = new EndToEndHarness();
+
+        harness.parse(args);
+        harness.run();
+        System.exit(0);
+    }
+
+    private void parse(String args[]) {
+        for (int i = 0; i < args.length; i++) {
+            String opt = args[i];
+
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + opt);
+            }
+            String val = args[++i];
+
+            if (opt.equals("--rates")) {
+                String rates[] = val.split(",");
+
+                mRates = new int[rates.length];
+                for (int j = 0; j < rates.length; j++) {
+                    mRates[j] = Integer.parseInt(rates[j].trim());
+                }
+            } else if (opt.equals("--duration")) {
+                mDurationMillis = Long.parseLong(val);
+            } else if (opt.equals("--warmup")) {
+                mWarmupMillis = Long.parseLong(val);
+            } else if (opt.equals("--sockets")) {
+                mSocketCount = Integer.parseInt(val);
+            } else if (opt.equals("--mix")) {
+                String mix[] = val.split(",");
+
+                mMixPgns = new int[mix.length];
+                mMixWeights = new int[mix.length];
+                for (int j = 0; j < mix.length; j++) {
+                    String pgnWeight[] = mix[j].trim().split(":");
+
+                    mMixPgns[j] = Integer.parseInt(pgnWeight[0], 16);
+                    mMixWeights[j] = pgnWeight.length > 1 ? Integer
+                            .parseInt(pgnWeight[1]) : 1;
+                }
+            } else if (opt.equals("--framing")) {
+                mFraming = Framing.valueOf(val.toUpperCase(Locale.US));
+            } else if (opt.equals("--max-latency")) {
+                mMaxLatencyMicros = Long.parseLong(val);
+            } else if (opt.equals("--out")) {
+                mOut = val;
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + opt);
+            }
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        List<Step> steps = new ArrayList<Step>();
+        Set<PGN> pgns = new HashSet<PGN>();
+        int total = 0;
+
+        // Spread the PGNs through the cycle by weight
+        for (int weight : mMixWeights) {
+            total += weight;
+        }
+        mCycle = new int[total];
+        for (int i = 0, j = 0; i < mMixPgns.length; i++) {
+            pgns.add(PGN.valueOf(mMixPgns[i]));
+            for (int k = 0; k < mMixWeights[i]; k++) {
+                mCycle[j++] = mMixPgns[i];
+            }
+        }
+
+        mEmulator = new ISOBlueEmulator();
+        mEmulator.setAutoFlush(false);
+        mNetwork = new ISOBlueNetwork(new SocketTransport("localhost",
+                mEmulator.listen(0)), mFraming);
+
+        mLatency = new Recorder(MAX_TRACKED_LATENCY, SIGNIFICANT_DIGITS);
+        mReceived = new AtomicLongArray(mSocketCount);
+        mSockets = new ISOBUSSocket[mSocketCount];
+        mReaders = new Thread[mSocketCount];
+        for (int i = 0; i < mSocketCount; i++) {
+            mSockets[i] = new ISOBUSSocket(mNetwork.getEngineBus(), null,
+                    pgns);
+            mReaders[i] = new Reader(i);
+            mReaders[i].start();
+        }
+
+        // Also gives the filter time to reach the emulator
+        feed(mRates[0], mWarmupMillis);
+        mLatency.getIntervalHistogram();
+
+        for (int rate : mRates) {
+            Step step = feed(rate, mDurationMillis);
+
+            steps.add(step);
+            System.err.println(step);
+        }
+
+        mStopped = true;
+        for (Thread reader : mReaders) {
+            reader.interrupt();
+            reader.join();
+        }
+        mNetwork.close();
+        mEmulator.close();
+
+        report(steps);
+    }
+
+    /**
+     * Send the feed at {@code rate} frames per second for {@code millis},
+     * then wait for the sockets to catch up.
+     */
+    private Step feed(int rate, long millis) throws InterruptedException {
+        Step step = new Step(rate);
+        long received = received();
+        long dropped = dropped();
+        byte data[] = new byte[8];
+        long start, end, now, next, sent;
+
+        start = System.nanoTime();
+        end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        next = start;
+        sent = 0;
+        while ((now = System.nanoTime()) < end) {
+            long due = (long) ((now - start) * (rate / 1e9));
+
+            if (sent < due) {
+                while (sent < due) {
+                    // When it should have gone, so falling behind counts
+                    putLong(data, start + (long) (sent * 1e9 / rate));
+                    mEmulator.send(0, mCycle[(int) (sent % mCycle.length)],
+                            0xFF, 0x80, data);
+                    sent++;
+                }
+                mEmulator.flush();
+            } else {
+                LockSupport.parkNanos(PACE_NANOS);
+            }
+
+            if (now >= next) {
+                step.sampleBacklog(mSockets);
+                next = now + SAMPLE_NANOS;
+            }
+        }
+        step.mSent = sent;
+        step.mSendNanos = System.nanoTime() - start;
+
+        // Every socket should get every frame sent
+        long expected = received + sent * mSocketCount;
+        long drainStart = System.nanoTime();
+        long deadline = drainStart
+                + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+        while (received() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        step.mDrainNanos = System.nanoTime() - drainStart;
+        step.mReceived = received() - received;
+        step.mDropped = dropped() - dropped;
+        step.mHistogram = mLatency.getIntervalHistogram();
+
+        return step;
+    }
+
+    private long received() {
+        long n = 0;
+
+        for (int i = 0; i < mReceived.length(); i++) {
+            n += mReceived.get(i);
+        }
+        return n;
+    }
+
+    private long dropped() {
+        long n = 0;
+
+        for (ISOBUSSocket socket : mSockets) {
+            n += socket.getDroppedCount();
+        }
+        return n;
+    }
+
+    private static void putLong(byte data[], long val) {
+        for (int i = 7; i >= 0; i--) {
+            data[i] = (byte) val;
+            val >>>= 8;
+        }
+    }
+
+    private static long getLong(byte data[]) {
+        long val = 0;
+
+        for (int i = 0; i < 8; i++) {
+            val = (val << 8) | (data[i] & 0xFF);
+        }
+        return val;
+    }
+
+    private void report(List<Step> steps) throws IOException {
+        OutputStream os = mOut == null ? System.out : new FileOutputStream(
+                mOut);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(os, "UTF-8"));
+        String version = EndToEndHarness.class.getPackage()
+                .getImplementationVersion();
+        int sustained = 0;
+
+        for (Step step : steps) {
+            if (step.isSustained() && step.mRate > sustained) {
+                sustained = step.mRate;
+            }
+        }
+
+        out.println("{");
+        out.printf(Locale.US, "  \"version\": %s,%n", version == null ? "null"
+                : "\"" + version + "\"");
+        out.printf(Locale.US, "  \"java\": \"%s\",%n",
+                System.getProperty("java.version"));
+        out.printf(Locale.US, "  \"framing\": \"%s\",%n", mNetwork.getFraming());
+        out.printf(Locale.US, "  \"sockets\": %d,%n", mSocketCount);
+        out.printf(Locale.US, "  \"durationMillis\": %d,%n", mDurationMillis);
+        out.printf(Locale.US, "  \"maxLatencyMicros\": %d,%n",
+                mMaxLatencyMicros);
+        out.print("  \"mix\": {");
+        for (int i = 0; i < mMixPgns.length; i++) {
+            out.printf(Locale.US, "%s\"%X\": %d", i == 0 ? "" : ", ",
+                    mMixPgns[i], mMixWeights[i]);
+        }
+        out.println("},");
+        out.printf(Locale.US, "  \"maxSustainedRate\": %d,%n", sustained);
+        out.println("  \"steps\": [");
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            Histogram h = step.mHistogram;
+
+            out.println("    {");
+            out.printf(Locale.US, "      \"rate\": %d,%n", step.mRate);
+            out.printf(Locale.US, "      \"sent\": %d,%n", step.mSent);
+            out.printf(Locale.US, "      \"sendRate\": %.1f,%n",
+                    step.getSendRate());
+            out.printf(Locale.US, "      \"received\": %d,%n", step.mReceived);
+            out.printf(Locale.US, "      \"receiveRate\": %.1f,%n",
+                    step.getReceiveRate());
+            out.printf(Locale.US, "      \"drainMillis\": %.1f,%n",
+                    step.mDrainNanos / 1e6);
+            out.printf(Locale.US, "      \"maxBacklog\": %d,%n",
+                    step.mMaxBacklog);
+            out.printf(Locale.US, "      \"dropped\": %d,%n", step.mDropped);
+            out.printf(Locale.US, "      \"latencyMicros\": {\"mean\": %.1f, "
+                    + "\"p50\": %d, \"p99\": %d, \"p999\": %d, "
+                    + "\"max\": %d},%n", h.getMean(),
+                    h.getValueAtPercentile(50), h.getValueAtPercentile(99),
+                    h.getValueAtPercentile(99.9), h.getMaxValue());
+            out.printf(Locale.US, "      \"sustained\": %b%n",
+                    step.isSustained());
+            out.println(i + 1 < steps.size() ? "    }," : "    }");
+        }
+        out.println("  ]");
+        out.println("}");
+
+        out.flush();
+        if (os != System.out) {
+            out.close();
+        }
+    }
+
+    /**
+     * Results of feeding at one rate.
+     */
+    private final class Step {
+
+        private final int mRate;
+        private long mSent;
+        private long mSendNanos;
+        private long mDrainNanos;
+        private long mReceived;
+        private long mDropped;
+        private int mMaxBacklog;
+        private Histogram mHistogram;
+
+        private Step(int rate) {
+            mRate = rate;
+        }
+
+        private void sampleBacklog(ISOBUSSocket sockets[]) {
+            for (ISOBUSSocket socket : sockets) {
+                mMaxBacklog = Math.max(mMaxBacklog, socket.available());
+            }
+        }
+
+        private double getSendRate() {
+            return mSent / (mSendNanos / 1e9);
+        }
+
+        /**
+         * @return frames per second received by each socket
+         */
+        private double getReceiveRate() {
+            return mReceived / (double) mSocketCount
+                    / ((mSendNanos + mDrainNanos) / 1e9);
+        }
+
+        private boolean isSustained() {
+            return getSendRate() >= mRate * RATE_TOLERANCE
+                    && mReceived == mSent * mSocketCount && mDropped == 0
+                    && mHistogram.getValueAtPercentile(99.9)
+                        <= mMaxLatencyMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%7d/s: sent %.0f/s, received "
+                    + "%.0f/s, p99.9 %d us, max backlog %d, %s", mRate,
+                    getSendRate(), getReceiveRate(),
+                    mHistogram.getValueAtPercentile(99.9), mMaxBacklog,
+                    isSustained() ? "sustained" : "fell behind");
+        }
+    }
+
+    /**
+     * Reads one socket, recording the latency of each {@link Message}.
+     */
+    private final class Reader extends Thread {
+
+        private final int mIndex;
+
+        private Reader(int index) {
+            super("EndToEndHarness reader " + index);
+            setDaemon(true);
+
+            mIndex = index;
+        }
+
+        @Override
+        public void run() {
+            ISOBUSSocket socket = mSockets[mIndex];
+
+            while (!mStopped) {
+                Message message;
+
+                try {
+                    message = socket.read(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    return;
+                }
+                if (message == null || message.getData().length < 8) {
+                    continue;
+                }
+
+                long latency = System.nanoTime() - getLong(message.getData());
+                mLatency.recordValue(Math.min(MAX_TRACKED_LATENCY,
+                        TimeUnit.NANOSECONDS.toMicros(latency)));
+                mReceived.incrementAndGet(mIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+/**
+ * An {@link ISOBlueTransport} which never receives anything and throws away
+ * what is written, so an {@link ISOBlueNetwork} can be built for feeding its
+ * buses by hand.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+final class IdleTransport implements ISOBlueTransport {
+
+    private final PipedInputStream mIn;
+    private final PipedOutputStream mInSource;
+    private final OutputStream mOut;
+
+    IdleTransport() throws IOException {
+        // Reads block until closed, since nothing writes to the pipe
+        mIn = new PipedInputStream();
+        mInSource = new PipedOutputStream(mIn);
+        mOut = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte b[], int off, int len) {
+            }
+        };
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return mIn;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mOut;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mInSource.close();
+        } finally {
+            mIn.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.PGN;
+import org.isoblue.isobus.RawMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares turning decoded MESG frames into {@link Message}s against filling
+ * one reused {@link RawMessage}.
+ * <p>
+ * Run with {@code -prof gc} to see the bytes allocated per message.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MessageDecodeBenchmark {
+
+    private static final byte FRAME[] = ("M000001234" + "0fef1ff0008"
+            + "0123456789abcdef" + "5437a2f701234" + "80\n").getBytes();
+
+    private ISOBlueDecoder mDecoder;
+    private RawMessage mRawMessage;
+
+    @Setup
+    public void setup() {
+        mDecoder = new ISOBlueDecoder(new RepeatingInputStream(FRAME));
+        mRawMessage = new RawMessage();
+    }
+
+    @Benchmark
+    public Message message() throws IOException {
+        nextFrame();
+
+        // What ISOBlueBus.handleFrame used to do
+        return new Message(mDecoder.getId(), mDecoder.getDestAddr(),
+                mDecoder.getSrcAddr(), new PGN(mDecoder.getPgn()),
+                mDecoder.getData(), mDecoder.getTimeStamp());
+    }
+
+    @Benchmark
+    public Message rawToMessage() throws IOException {
+        nextFrame();
+
+        return mDecoder.getMessage(mRawMessage).toMessage();
+    }
+
+    @Benchmark
+    public RawMessage raw() throws IOException {
+        nextFrame();
+
+        return mDecoder.getMessage(mRawMessage);
+    }
+
+    private void nextFrame() throws IOException {
+        mDecoder.readFrame();
+        mDecoder.decode();
+    }
+}
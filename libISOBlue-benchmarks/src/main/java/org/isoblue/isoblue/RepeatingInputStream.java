@@ -1,7 +1,7 @@
 /*
- * Author: Alex Layton <awlayton@purdue.edu>
+ * Author: Alex Layton <alex@layton.in>
  * 
- * Copyright (c) 2013 Purdue University
+ * Copyright (c) 2014 Purdue University
  * 
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -22,50 +22,39 @@
  * SOFTWARE.
  */
 
-package org.isoblue.isobus;
+package org.isoblue.isoblue;
 
-import java.util.Collection;
+import java.io.InputStream;
 
-public abstract class Bus {
-
-    public enum BusType {
-        ENGINE,
-        IMPLEMENT,
-    }
-
-    private ISOBUSNetwork mNetwork;
-    private BusType mType;
-    private Collection<ISOBUSSocket> mSocks;
-
-    public Bus(ISOBUSNetwork network, BusType type) {
-        mNetwork = network;
-        mType = type;
-
-        mSocks = initSocks();
-    }
+/**
+ * Gives the same bytes over and over, without allocating.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+final class RepeatingInputStream extends InputStream {
 
-    protected abstract Collection<ISOBUSSocket> initSocks();
+    private final byte mBytes[];
+    private int mPos;
 
-    protected void passMessageIn(ISOBUSSocket socket, Message message) {
-        socket.receive(message);
+    RepeatingInputStream(byte bytes[]) {
+        mBytes = bytes;
+        mPos = 0;
     }
 
-    protected abstract void passMessageOut(Message message)
-            throws InterruptedException;
+    @Override
+    public int read() {
+        int b = mBytes[mPos] & 0xFF;
 
-    protected boolean attach(ISOBUSSocket sock) {
-        return mSocks.add(sock);
+        mPos = (mPos + 1) % mBytes.length;
+        return b;
     }
 
-    protected boolean detach(ISOBUSSocket sock) {
-        return mSocks.remove(sock);
-    }
-
-    public ISOBUSNetwork getNetwork() {
-        return mNetwork;
-    }
+    @Override
+    public int read(byte b[], int off, int len) {
+        int n = Math.min(len, mBytes.length - mPos);
 
-    public BusType getType() {
-        return mType;
+        System.arraycopy(mBytes, mPos, b, off, n);
+        mPos = (mPos + n) % mBytes.length;
+        return n;
     }
 }
@@ -0,0 +1,153 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isobus.Filter;
+import org.isoblue.isobus.ISOBUSSocket;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.MessageListener;
+import org.isoblue.isobus.PGN;
+import org.isoblue.isobus.RawMessage;
+import org.isoblue.isobus.WaitStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures giving each received {@link Message} to 1 to 64 sockets which all
+ * want it, and reading it from every one of them.
+ * <p>
+ * Sockets are either listeners, called on the dispatching thread, queues,
+ * each given their own copy, or read from the {@link ISOBlueBus}'s ring
+ * buffer, which is published to once. Run with {@code -prof gc} to see the
+ * bytes allocated per {@link Message}.
+ *
+ * @see org.isoblue.isobus.Bus#setRingDispatch(int, WaitStrategy)
+ * @author Alex Layton <alex@layton.in>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SocketFanoutBenchmark {
+
+    private static final int RING_SIZE = 1024;
+
+    /**
+     * How many sockets receive each {@link Message}
+     */
+    @Param({ "1", "4", "16", "64" })
+    public int subscribers;
+
+    /**
+     * How the sockets receive: LISTENER, QUEUE or RING
+     */
+    @Param({ "LISTENER", "QUEUE", "RING" })
+    public String delivery;
+
+    private ISOBlueNetwork mNetwork;
+    private ISOBlueBus mBus;
+    private ISOBlueDecoder mDecoder;
+    private ISOBUSSocket mSockets[];
+    private List<Message> mSink;
+    private long mReceived;
+
+    @Setup
+    public void setup() throws IOException {
+        RawMessage message = new RawMessage();
+        byte data[] = new byte[8];
+        ISOBlueEncoder frame = new ISOBlueEncoder();
+        MessageListener listener;
+
+        message.set(0x1234, 0xFEF1, (short) 0xFF, (short) 0x80,
+                1409000000123456L);
+        message.setData(data, 0, data.length);
+        frame.encodeMessage(ISOBlueCommand.OpCode.MESG, 0, message,
+                Framing.BINARY);
+        mDecoder = new ISOBlueDecoder(new RepeatingInputStream(
+                frame.toByteArray()));
+
+        mNetwork = new ISOBlueNetwork(new IdleTransport());
+        mBus = (ISOBlueBus) mNetwork.getEngineBus();
+        if ("RING".equals(delivery)) {
+            mBus.setRingDispatch(RING_SIZE, WaitStrategy.BUSY_SPIN);
+        }
+
+        listener = new MessageListener() {
+            @Override
+            public void onMessage(ISOBUSSocket socket, Message message) {
+                mReceived++;
+            }
+
+            @Override
+            public void onEnd(ISOBUSSocket socket) {
+            }
+        };
+        mSockets = new ISOBUSSocket[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            if ("LISTENER".equals(delivery)) {
+                mSockets[i] = mBus.listen(Filter.ALL, listener, null);
+            } else {
+                mSockets[i] = new ISOBUSSocket(mBus, null,
+                        Collections.singleton(PGN.valueOf(0xFEF1)));
+            }
+        }
+        mSink = new ArrayList<Message>(RING_SIZE);
+        mReceived = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mNetwork.close();
+    }
+
+    @Benchmark
+    public long fanout() throws IOException {
+        mDecoder.readFrame();
+        mDecoder.decode();
+        mBus.handleFrame(mDecoder);
+
+        if (!"LISTENER".equals(delivery)) {
+            for (ISOBUSSocket socket : mSockets) {
+                mReceived += socket.drainTo(mSink, RING_SIZE);
+                mSink.clear();
+            }
+        }
+
+        return mReceived;
+    }
+}
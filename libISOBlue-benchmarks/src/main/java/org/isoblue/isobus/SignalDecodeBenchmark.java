@@ -0,0 +1,113 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares decoding every signal of EEC1 with a {@link SignalDecoder} against
+ * pulling each one out bit by bit, as applications used to.
+ * <p>
+ * Run with {@code -prof gc} to see the bytes allocated per message.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SignalDecodeBenchmark {
+
+    private static final SPN EEC1[] = {
+            new SPN(899, "Engine Torque Mode", 0xF004, 0, 4, 1, 0, null),
+            new SPN(512, "Driver's Demand Engine - Percent Torque", 0xF004,
+                    8, 8, 1, -125, "%"),
+            new SPN(513, "Actual Engine - Percent Torque", 0xF004, 16, 8, 1,
+                    -125, "%"),
+            SPN.ENGINE_SPEED,
+            new SPN(1483, "Source Address of Controlling Device", 0xF004,
+                    40, 8, 1, 0, null),
+            new SPN(1675, "Engine Starter Mode", 0xF004, 48, 4, 1, 0, null),
+            new SPN(2432, "Engine Demand - Percent Torque", 0xF004, 56, 8, 1,
+                    -125, "%"), };
+
+    private static final byte DATA[] = { (byte) 0xF3, (byte) 0x91,
+            (byte) 0x96, 0x40, 0x1F, 0x00, (byte) 0xF3, (byte) 0x96 };
+
+    private SignalDecoder mDecoder;
+    private byte mData[];
+    private double mValues[];
+
+    @Setup
+    public void setup() {
+        mDecoder = SignalDecoder.compile(EEC1);
+        mData = DATA.clone();
+        mValues = new double[EEC1.length];
+    }
+
+    @Benchmark
+    public double[] compiled() {
+        mDecoder.decode(mData, mData.length, mValues);
+
+        return mValues;
+    }
+
+    @Benchmark
+    public double[] naive() {
+        for (int i = 0; i < EEC1.length; i++) {
+            mValues[i] = naive(EEC1[i], mData);
+        }
+
+        return mValues;
+    }
+
+    /**
+     * Pull out one little endian signal a bit at a time.
+     */
+    private static double naive(SPN spn, byte data[]) {
+        long v = 0;
+
+        for (int bit = spn.getLength() - 1; bit >= 0; bit--) {
+            int pos = spn.getStartBit() + bit;
+
+            if (pos / 8 >= data.length) {
+                return Double.NaN;
+            }
+            v = (v << 1) | ((data[pos / 8] >> (pos % 8)) & 1);
+        }
+
+        if (spn.getError() != SPN.NONE && v >= spn.getError()) {
+            return Double.NaN;
+        }
+        return v * spn.getScale() + spn.getOffset();
+    }
+}
@@ -0,0 +1,211 @@
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.isoblue.isobus.ISOBUSSocket;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.NAME;
+import org.isoblue.isobus.PGN;
+
+public class BufferedISOBUSSocket extends ISOBUSSocket {
+
+    private final Serializable mFromId, mToId;
+
+    /**
+     * Set once {@link ISOBlueBus#MESSAGE_NONE} has been read.
+     */
+    private volatile boolean mEnded;
+
+    protected BufferedISOBUSSocket(Serializable fromId, Serializable toId,
+            ISOBlueBus bus, NAME name, Collection<PGN> pgns) throws IOException {
+        super(bus, name, pgns);
+
+        mFromId = fromId;
+        mToId = toId;
+        mEnded = false;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.ISOBUSSocket#connect()
+     */
+    @Override
+    protected boolean connect() {
+        return ((ISOBlueBus) getBus()).attach(this);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.ISOBUSSocket#receive(org.isoblue.isobus.Message)
+     */
+    @Override
+    protected boolean receive(Message message) {
+        if (message == ISOBlueBus.MESSAGE_NONE) {
+            // A listener is told instead of given the marker
+            if (!end()) {
+                // Never drop the end of the data, or read would wait forever
+                super.receiveAlways(message);
+            }
+            return true;
+        }
+
+        return super.receive(message);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.ISOBUSSocket#end()
+     */
+    @Override
+    protected boolean end() {
+        // Overridden so ISOBlueBus can end buffered sockets
+        return super.end();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.ISOBUSSocket#read()
+     */
+    @Override
+    public Message read() throws InterruptedException, IOException {
+        Message message;
+
+        checkEnded();
+        message = super.read();
+
+        if (message == ISOBlueBus.MESSAGE_NONE) {
+            mEnded = true;
+            throw new ClosedChannelException();
+        }
+
+        return message;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.ISOBUSSocket#read(long,
+     * java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public Message read(long timeout, TimeUnit unit)
+            throws InterruptedException, IOException {
+        Message message;
+
+        checkEnded();
+        message = super.read(timeout, unit);
+
+        if (message == ISOBlueBus.MESSAGE_NONE) {
+            mEnded = true;
+            throw new ClosedChannelException();
+        }
+
+        return message;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.ISOBUSSocket#drainTo(java.util.Collection, int)
+     */
+    @Override
+    public int drainTo(Collection<? super Message> c, int max)
+            throws IOException {
+        List<Message> batch = new ArrayList<Message>();
+
+        checkEnded();
+        super.drainTo(batch, max);
+
+        return endBatch(batch, c);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.ISOBUSSocket#drainTo(java.util.Collection, int,
+     * long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public int drainTo(Collection<? super Message> c, int max, long timeout,
+            TimeUnit unit) throws InterruptedException, IOException {
+        List<Message> batch = new ArrayList<Message>();
+
+        checkEnded();
+        super.drainTo(batch, max, timeout, unit);
+
+        return endBatch(batch, c);
+    }
+
+    /**
+     * Pass on the {@link Message}s of a batch which come before
+     * {@link ISOBlueBus#MESSAGE_NONE}. If that is first, the data has ended.
+     *
+     * @return how many {@link Message}s were passed on
+     * @throws ClosedChannelException
+     *             if the batch starts with the end of the data
+     */
+    private int endBatch(List<Message> batch, Collection<? super Message> c)
+            throws ClosedChannelException {
+        int n = batch.indexOf(ISOBlueBus.MESSAGE_NONE);
+
+        if (n < 0) {
+            n = batch.size();
+        } else {
+            mEnded = true;
+            if (n == 0) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        c.addAll(batch.subList(0, n));
+        return n;
+    }
+
+    /**
+     * @throws ClosedChannelException
+     *             if all the data has been read
+     */
+    private void checkEnded() throws ClosedChannelException {
+        if (mEnded) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * @return the {@link Message} ID after which this
+     *         {@link BufferedISOBUSSocket}'s data begins.
+     */
+    public Serializable getFromId() {
+        return mFromId;
+    }
+
+    /**
+     * @return the {@link Message} ID after which this
+     *         {@link BufferedISOBUSSocket}'s data stops.
+     */
+    public Serializable getToId() {
+        return mToId;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.ISOBUSSocket#write(org.isoblue.isobus.Message)
+     */
+    @Override
+    public void write(Message message) throws InterruptedException {
+        // Buffered sockets are read only
+        throw new UnsupportedOperationException(
+                "Cannot write to a buffered ISOBUSSocket");
+    }
+}
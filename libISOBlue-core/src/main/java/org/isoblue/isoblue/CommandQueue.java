@@ -0,0 +1,243 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.isoblue.isobus.Message;
+
+/**
+ * Unbounded queue of {@link ISOBlueCommand}s waiting to be sent, split into
+ * lanes by priority.
+ * <p>
+ * Control commands (START, FILT, PAST, ACK, ...) go in {@link #LANE_CONTROL}
+ * and are taken before any WRITE. WRITE commands go in one lane per
+ * {@link Message} priority, and lower priority values are taken first. Within
+ * a lane commands stay in order. So that a steady stream of more important
+ * commands cannot hold back the rest forever, a waiting lane which has been
+ * passed over {@code starvationLimit} times is served next.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+final class CommandQueue {
+
+    /**
+     * Lane of the control commands.
+     */
+    static final int LANE_CONTROL = 0;
+
+    /**
+     * Number of lanes, the control lane plus one for each {@link Message}
+     * priority.
+     */
+    static final int LANES = 1 + Message.MAX_PRIORITY + 1;
+
+    static final int DEFAULT_STARVATION_LIMIT = 16;
+
+    private final ReentrantLock mLock;
+    private final Condition mNotEmpty;
+    private final ArrayDeque<ISOBlueCommand> mLanes[];
+    private final int mPassedOver[];
+    private final int mMaxDepths[];
+    private final int mStarvationLimit;
+    private int mSize;
+
+    CommandQueue() {
+        this(DEFAULT_STARVATION_LIMIT);
+    }
+
+    /**
+     * @param starvationLimit
+     *            how many times a waiting lane can be passed over before it is
+     *            served anyway
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    CommandQueue(int starvationLimit) {
+        mLock = new ReentrantLock();
+        mNotEmpty = mLock.newCondition();
+        mLanes = new ArrayDeque[LANES];
+        for (int i = 0; i < LANES; i++) {
+            mLanes[i] = new ArrayDeque<ISOBlueCommand>();
+        }
+        mPassedOver = new int[LANES];
+        mMaxDepths = new int[LANES];
+        mStarvationLimit = starvationLimit;
+        mSize = 0;
+    }
+
+    /**
+     * Get the lane a command belongs in.
+     *
+     * @param cmd
+     *            the command
+     * @return the lane of {@code cmd}
+     */
+    static int lane(ISOBlueCommand cmd) {
+        if (cmd.getOpCode() != ISOBlueCommand.OpCode.WRITE) {
+            return LANE_CONTROL;
+        }
+
+        return laneForPriority(cmd.getPriority());
+    }
+
+    /**
+     * Get the lane of WRITE commands with the given {@link Message} priority.
+     *
+     * @param priority
+     *            the priority
+     * @return the lane of {@code priority}
+     */
+    static int laneForPriority(int priority) {
+        return 1 + priority;
+    }
+
+    void put(ISOBlueCommand cmd) {
+        int lane = lane(cmd);
+
+        mLock.lock();
+        try {
+            mLanes[lane].addLast(cmd);
+            mMaxDepths[lane] = Math.max(mMaxDepths[lane], mLanes[lane].size());
+            mSize++;
+            mNotEmpty.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    ISOBlueCommand take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0) {
+                mNotEmpty.await();
+            }
+
+            return next();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    ISOBlueCommand poll() {
+        mLock.lock();
+        try {
+            return mSize == 0 ? null : next();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    ISOBlueCommand poll(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+
+            return next();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the command which should go next. Must hold {@link #mLock} and
+     * the queue must not be empty.
+     */
+    private ISOBlueCommand next() {
+        int lane = -1;
+
+        for (int i = 0; i < LANES; i++) {
+            if (mLanes[i].isEmpty()) {
+                continue;
+            }
+
+            if (lane < 0) {
+                // Most important waiting lane
+                lane = i;
+            } else if (mPassedOver[i] >= mStarvationLimit) {
+                // Less important lane which has waited long enough
+                lane = i;
+                break;
+            }
+        }
+
+        for (int i = 0; i < LANES; i++) {
+            if (i != lane && !mLanes[i].isEmpty()) {
+                mPassedOver[i]++;
+            }
+        }
+        mPassedOver[lane] = 0;
+        mSize--;
+
+        return mLanes[lane].pollFirst();
+    }
+
+    int size() {
+        mLock.lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @param lane
+     *            the lane
+     * @return how many commands are waiting in {@code lane}
+     */
+    int size(int lane) {
+        mLock.lock();
+        try {
+            return mLanes[lane].size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @param lane
+     *            the lane
+     * @return the most commands which have been waiting in {@code lane}
+     */
+    int maxSize(int lane) {
+        mLock.lock();
+        try {
+            return mMaxDepths[lane];
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
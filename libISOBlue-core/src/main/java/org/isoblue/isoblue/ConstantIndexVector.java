@@ -32,7 +32,10 @@ import java.util.Vector;
 /**
  * @author awlayton
  * 
+ * @deprecated Use {@link org.isoblue.isobus.PGNIndex}, which does not lock
+ *             while iterating.
  */
+@Deprecated
 public class ConstantIndexVector<E> implements Collection<E>, RandomAccess {
 
     private Vector<E> mVector;
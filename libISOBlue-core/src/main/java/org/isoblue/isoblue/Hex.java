@@ -0,0 +1,104 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.util.Arrays;
+
+/**
+ * Table driven conversion of ASCII hexadecimal digits.
+ * <p>
+ * Used by the ISOBlue codec so that the fields of an {@link ISOBlueCommand}
+ * can be parsed and formatted without creating {@link String}s.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+final class Hex {
+
+    /**
+     * ASCII hexadecimal digit for each value from 0 to 15.
+     */
+    static final byte DIGITS[] = { '0', '1', '2', '3', '4', '5', '6', '7',
+            '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    /**
+     * Value of each ASCII character as a hexadecimal digit, or -1 if it is not
+     * one.
+     */
+    private static final byte VALUES[] = new byte[256];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            VALUES['a' + i] = (byte) (10 + i);
+            VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private Hex() {
+    }
+
+    /**
+     * Get the value of an ASCII hexadecimal digit.
+     *
+     * @param b
+     *            the ASCII character
+     * @return the value of {@code b}, or -1 if it is not a hexadecimal digit
+     */
+    static int digit(byte b) {
+        return VALUES[b & 0xFF];
+    }
+
+    /**
+     * Parse a run of ASCII hexadecimal digits as an unsigned number.
+     *
+     * @param buf
+     *            buffer containing the digits
+     * @param off
+     *            index of the first (most significant) digit
+     * @param len
+     *            number of digits, at most 16
+     * @return the parsed value
+     * @throws NumberFormatException
+     *             if any of the characters is not a hexadecimal digit
+     */
+    static long parse(byte buf[], int off, int len) {
+        long val = 0;
+
+        for (int i = off; i < off + len; i++) {
+            int d = VALUES[buf[i] & 0xFF];
+
+            if (d < 0) {
+                throw new NumberFormatException("Invalid hex digit '"
+                        + (char) (buf[i] & 0xFF) + "' at index " + (i - off));
+            }
+            val = (val << 4) | d;
+        }
+
+        return val;
+    }
+}
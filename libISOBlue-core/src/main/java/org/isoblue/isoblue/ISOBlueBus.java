@@ -0,0 +1,327 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2013 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.util.Arrays;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.isoblue.isobus.Bus;
+import org.isoblue.isobus.ISOBUSSocket;
+import org.isoblue.isobus.LatencyHistogram;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.PGN;
+import org.isoblue.isobus.PGNIndex;
+import org.isoblue.isobus.RawMessage;
+
+public class ISOBlueBus extends Bus {
+
+    private static final Logger CMD_OUT = Logger.getLogger("CMD-OUT");
+
+    private final PGNIndex mBufferedSocks = new PGNIndex();
+
+    /**
+     * Reused by the read thread to build each received {@link Message}
+     */
+    private final RawMessage mRawMessage;
+
+    /**
+     * Time from a traced frame being parsed until its {@link Message} is
+     * handed to sockets
+     */
+    private final LatencyHistogram mTraceDecode;
+
+    private final Object mFilterLock;
+    private boolean mFilterScheduled;
+    /**
+     * PGNs of the last FILT sent for this bus, {@code null} before the first
+     */
+    private int mFilterPgns[];
+
+    protected static final Message MESSAGE_NONE = new Message((short) 0, PGN.valueOf(0),
+            new byte[0]) {
+
+        private static final long serialVersionUID = -4975954908492457312L;
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see org.isoblue.isobus.Message#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+    };
+
+    public ISOBlueBus(ISOBlueNetwork network, BusType type) {
+        super(network, type);
+
+        mRawMessage = new RawMessage();
+        mTraceDecode = network.getMetrics().histogram("trace.decode");
+        mFilterLock = new Object();
+        mFilterScheduled = false;
+        mFilterPgns = null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isobus.Bus#attach(org.isoblue.isobus.ISOBUSSocket)
+     */
+    @Override
+    protected boolean attach(ISOBUSSocket sock) {
+        if (!super.attach(sock)) {
+            return false;
+        }
+
+        filterChanged();
+        return true;
+    }
+
+    /**
+     * Update the ISOBlue's PGN filter for this bus, after waiting for other
+     * changes to come along with this one.
+     *
+     * @see ISOBlueNetwork#setFilterDebounce(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    protected void filterChanged() {
+        synchronized (mFilterLock) {
+            if (mFilterScheduled) {
+                return;
+            }
+            mFilterScheduled = true;
+        }
+
+        if (!getDevice().scheduleFilter(new TimerTask() {
+            @Override
+            public void run() {
+                sendFilter();
+            }
+        })) {
+            // Closed, so let a later change try again rather than wait
+            synchronized (mFilterLock) {
+                mFilterScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Send the filter again, e.g. to a new connection, even if it has not
+     * changed.
+     */
+    void resendFilter() {
+        synchronized (mFilterLock) {
+            mFilterPgns = null;
+        }
+
+        filterChanged();
+    }
+
+    /**
+     * Send a FILT command for the PGNs this bus needs, unless it is what the
+     * ISOBlue already has.
+     *
+     * @see #getPgnUnion()
+     */
+    private void sendFilter() {
+        int pgns[];
+        ISOBlueCommand cmd;
+
+        synchronized (mFilterLock) {
+            mFilterScheduled = false;
+
+            if (getIndex().getSockets().length == 0) {
+                // FILT cannot ask for nothing, leave the last one in place
+                return;
+            }
+
+            pgns = getPgnUnion();
+            if (pgns == null) {
+                // Some socket takes everything, which is an empty FILT
+                pgns = new int[0];
+            }
+            if (Arrays.equals(pgns, mFilterPgns)) {
+                return;
+            }
+
+            cmd = ISOBlueCommand.filter(getType(), pgns);
+            try {
+                getDevice().sendCommand(cmd);
+            } catch (InterruptedException e) {
+                // Not sent, so the next change sends it instead
+                Thread.currentThread().interrupt();
+                if (CMD_OUT.isLoggable(Level.FINE)) {
+                    CMD_OUT.log(Level.FINE, "FILT not sent", e);
+                }
+                return;
+            }
+            mFilterPgns = pgns;
+        }
+    }
+
+    protected boolean attach(BufferedISOBUSSocket sock) {
+        mBufferedSocks.add(sock);
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isobus.Bus#detach(org.isoblue.isobus.ISOBUSSocket)
+     */
+    @Override
+    protected boolean detach(ISOBUSSocket sock) {
+        if (sock instanceof BufferedISOBUSSocket) {
+            return mBufferedSocks.remove(sock);
+        }
+
+        if (!super.detach(sock)) {
+            return false;
+        }
+
+        filterChanged();
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.isoblue.isobus.Bus#endSockets()
+     */
+    @Override
+    protected void endSockets() {
+        super.endSockets();
+
+        for (ISOBUSSocket socket : mBufferedSocks.getSockets()) {
+            ((BufferedISOBUSSocket) socket).end();
+        }
+    }
+
+    protected void handleCommand(ISOBlueCommand cmd) {
+        ISOBlueDecoder frame = new ISOBlueDecoder();
+
+        frame.decode(cmd);
+        handleFrame(frame);
+    }
+
+    /**
+     * Deliver the {@link Message} in a decoded MESG or OLD_MESG frame to the
+     * sockets attached to this {@link ISOBlueBus}.
+     *
+     * @param frame
+     *            {@link ISOBlueDecoder} holding the decoded frame
+     */
+    protected void handleFrame(ISOBlueDecoder frame) {
+        handleFrame(frame, 0);
+    }
+
+    /**
+     * Deliver the {@link Message} in a decoded MESG or OLD_MESG frame to the
+     * sockets attached to this {@link ISOBlueBus}, tracing it if it was
+     * sampled.
+     *
+     * @param frame
+     *            {@link ISOBlueDecoder} holding the decoded frame
+     * @param parsed
+     *            when the frame was parsed, from {@link System#nanoTime()},
+     *            or 0 if it is not traced
+     *
+     * @see ISOBlueNetwork#setTraceSampling(int)
+     */
+    protected void handleFrame(ISOBlueDecoder frame, long parsed) {
+        boolean buffered;
+        Message message;
+
+        switch (frame.getOpCode()) {
+        case MESG:
+            buffered = false;
+            break;
+
+        case OLD_MESG:
+            buffered = true;
+            break;
+
+        default:
+            return;
+        }
+
+        if (frame.getId() == 0) {
+            // End of data goes to every socket, whatever its PGNs
+            if (buffered) {
+                for (ISOBUSSocket socket : mBufferedSocks.getSockets()) {
+                    super.passMessageIn(socket, MESSAGE_NONE);
+                }
+            } else {
+                passMessageInAll(MESSAGE_NONE);
+            }
+            return;
+        }
+
+        message = frame.getMessage(mRawMessage).toMessage();
+        if (parsed != 0) {
+            mTraceDecode.record(trace(message) - parsed);
+        }
+
+        if (buffered) {
+            for (ISOBUSSocket socket : mBufferedSocks.lookup(message
+                    .getPgn())) {
+                super.passMessageIn(socket, message);
+            }
+        } else {
+            super.dispatch(message);
+        }
+    }
+
+    @Override
+    protected void passMessageOut(Message message) throws InterruptedException {
+        ISOBlueCommand cmd;
+        byte bus;
+
+        switch (super.getType()) {
+        case ENGINE:
+            bus = 0;
+            break;
+
+        case IMPLEMENT:
+            bus = 1;
+            break;
+
+        default:
+            bus = -1;
+            break;
+        }
+
+        // Fields are laid out by the write thread's ISOBlueEncoder
+        cmd = ISOBlueCommand.write(bus, message);
+        getDevice().sendCommand(cmd);
+    }
+
+    private ISOBlueNetwork getDevice() {
+        return (ISOBlueNetwork) super.getNetwork();
+    }
+}
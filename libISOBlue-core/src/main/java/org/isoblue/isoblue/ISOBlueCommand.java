@@ -0,0 +1,438 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2013 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.isoblue.isobus.Bus;
+import org.isoblue.isobus.Message;
+
+public final class ISOBlueCommand {
+
+    public enum OpCode {
+        FILT('F'),
+        WRITE('W'),
+        MESG('M'),
+        ACK('A'),
+        PAST('P'),
+        OLD_MESG('O'),
+        START('S');
+
+        public final char val;
+
+        OpCode(char val) {
+            this.val = val;
+        }
+
+        // Indexed by val, so looking up an OpCode does not box anything
+        private static final OpCode valTable[] = new OpCode[128];
+
+        static {
+            for (OpCode op : OpCode.values()) {
+                valTable[op.val] = op;
+            }
+        }
+
+        public static OpCode fromVal(char val) {
+            return val < valTable.length ? valTable[val] : null;
+        }
+    }
+
+    /**
+     * How a command is laid out on the wire.
+     * <p>
+     * {@link #TEXT} commands are a line of ASCII: the opcode, the bus as one
+     * hex digit, then each field in hex. {@link #BINARY} commands start with
+     * the opcode with its top bit set, then the bus, then the length of the
+     * data as a big endian {@code short}, followed by the data. Each field of
+     * the data is the big endian value of the same field in a {@link #TEXT}
+     * command, in half as many bytes as it has hex digits (rounded up).
+     * <p>
+     * The top bit tells the two apart, so both can be mixed on a connection.
+     */
+    public enum Framing {
+        TEXT,
+        BINARY,
+    }
+
+    /*
+     * Widths of the fields of commands, in hex digits
+     */
+    static final int ID_DIGITS = 8;
+    static final int PGN_DIGITS = 5;
+    static final int ADDR_DIGITS = 2;
+    static final int LEN_DIGITS = 4;
+    static final int BYTE_DIGITS = 2;
+    static final int SEC_DIGITS = 8;
+    static final int USEC_DIGITS = 5;
+    static final int COUNT_DIGITS = 5;
+
+    /**
+     * Set in the first byte of a {@link Framing#BINARY} command.
+     */
+    static final int BINARY_FLAG = 0x80;
+
+    /**
+     * Length of the header of a {@link Framing#BINARY} command.
+     */
+    static final int BINARY_HEADER_LEN = 4;
+
+    /**
+     * Data of a START command offering {@link Framing#BINARY}. An ISOBlue
+     * which accepts includes it in the data of its START reply.
+     */
+    static final byte BINARY_FRAMING_OFFER[] = { ':', 'B' };
+
+    /**
+     * Encoder for {@link #sendCommand(OutputStream)}, one per thread so it is
+     * not allocated for every command.
+     */
+    private static final ThreadLocal<ISOBlueEncoder> ENCODER =
+            new ThreadLocal<ISOBlueEncoder>() {
+                @Override
+                protected ISOBlueEncoder initialValue() {
+                    return new ISOBlueEncoder();
+                }
+            };
+
+    private final OpCode mOpCode;
+    private final byte mBus;
+    private final byte mSock;
+    /**
+     * Data already laid out, {@code null} if the fields are only laid out
+     * when encoded.
+     */
+    private final byte mData[];
+    private final Framing mFraming;
+
+    /**
+     * {@link Message} to send, if this is a WRITE built by
+     * {@link #write(byte, Message, Framing)}.
+     */
+    private final Message mMessage;
+
+    /**
+     * PGNs to filter on, if this is a FILT built by
+     * {@link #filter(Bus.BusType, int[], Framing)}.
+     */
+    private final int mPgns[];
+
+    /**
+     * First and last IDs, if this is a PAST built by
+     * {@link #past(long, long)}.
+     */
+    private final long mIds[];
+
+    public static ISOBlueCommand receiveCommand(String line) {
+        OpCode opCode;
+        byte bus;
+        byte sock;
+        String data;
+
+        opCode = OpCode.fromVal(line.charAt(0));
+        sock = bus = (byte) Integer.parseInt(line.substring(1, 2), 16);
+        data = line.substring(2, line.length());
+
+        return new ISOBlueCommand(opCode, bus, sock, data.getBytes());
+    }
+
+    /**
+     * Create a WRITE command for the given {@link Message}. Its fields are
+     * only laid out when the command is encoded, in the {@link Framing} of
+     * the connection it is sent on.
+     *
+     * @param bus
+     *            the bus to write to
+     * @param message
+     *            the {@link Message} to write
+     * @return the WRITE command
+     */
+    public static ISOBlueCommand write(byte bus, Message message) {
+        return write(bus, message, Framing.TEXT);
+    }
+
+    /**
+     * Create a WRITE command for the given {@link Message}. Its fields are
+     * only laid out when the command is encoded.
+     *
+     * @param bus
+     *            the bus to write to
+     * @param message
+     *            the {@link Message} to write
+     * @param framing
+     *            how to send the command when encoded on its own, an
+     *            {@link ISOBlueNetwork} uses that of its connection
+     * @return the WRITE command
+     */
+    public static ISOBlueCommand write(byte bus, Message message,
+            Framing framing) {
+        return new ISOBlueCommand(OpCode.WRITE, bus, (byte) 0, framing,
+                null, message, null, null);
+    }
+
+    /**
+     * Create a FILT command for the given PGNs. Its fields are only laid out
+     * when the command is encoded, in the {@link Framing} of the connection
+     * it is sent on.
+     *
+     * @param bus
+     *            the bus to filter
+     * @param pgns
+     *            {@code int} representations of the PGNs to pass, empty to
+     *            pass everything
+     * @return the FILT command
+     */
+    public static ISOBlueCommand filter(Bus.BusType bus, int pgns[]) {
+        return filter(bus, pgns, Framing.TEXT);
+    }
+
+    /**
+     * Create a FILT command for the given PGNs. Its fields are only laid out
+     * when the command is encoded.
+     *
+     * @param bus
+     *            the bus to filter
+     * @param pgns
+     *            {@code int} representations of the PGNs to pass, empty to
+     *            pass everything
+     * @param framing
+     *            how to send the command when encoded on its own, an
+     *            {@link ISOBlueNetwork} uses that of its connection
+     * @return the FILT command
+     */
+    public static ISOBlueCommand filter(Bus.BusType bus, int pgns[],
+            Framing framing) {
+        return new ISOBlueCommand(OpCode.FILT, busByte(bus), (byte) 0,
+                framing, null, null, pgns.clone(), null);
+    }
+
+    /**
+     * Create a PAST command asking for the stored messages between two IDs.
+     * Its fields are only laid out when the command is encoded, in the
+     * {@link Framing} of the connection it is sent on.
+     *
+     * @param fromId
+     *            unsigned ID of the message after which to start
+     * @param toId
+     *            unsigned ID of the message at which to stop
+     * @return the PAST command
+     */
+    public static ISOBlueCommand past(long fromId, long toId) {
+        return new ISOBlueCommand(OpCode.PAST, (byte) -1, (byte) -1,
+                Framing.TEXT, null, null, null, new long[] { fromId, toId });
+    }
+
+    public void sendCommand(OutputStream os) throws IOException {
+        ISOBlueEncoder encoder = ENCODER.get();
+
+        // Drop anything left by a command which failed to encode
+        encoder.reset();
+        encoder.encode(this);
+        encoder.writeTo(os);
+    }
+
+    public ISOBlueCommand(OpCode opCode, byte bus, byte sock, byte data[]) {
+        this(opCode, bus, sock, data, Framing.TEXT);
+    }
+
+    /**
+     * Construct a new {@link ISOBlueCommand} whose data is laid out according
+     * to the given {@link Framing}.
+     *
+     * @param opCode
+     *            the {@link OpCode}
+     * @param bus
+     *            the bus, must fit in one nibble
+     * @param sock
+     *            the socket
+     * @param data
+     *            the data, already in the layout of {@code framing}
+     * @param framing
+     *            how to send this command
+     */
+    public ISOBlueCommand(OpCode opCode, byte bus, byte sock, byte data[],
+            Framing framing) {
+        this(opCode, bus, sock, framing, data.clone(), null, null, null);
+    }
+
+    private ISOBlueCommand(OpCode opCode, byte bus, byte sock,
+            Framing framing, byte data[], Message message, int pgns[],
+            long ids[]) {
+        if (framing == Framing.BINARY && data != null && data.length > 0xFFFF) {
+            throw new IllegalArgumentException("data too long for binary "
+                    + "framing, given " + data.length + " bytes");
+        }
+
+        mOpCode = opCode;
+        // Check bus fits into one nibble
+        if(bus > 15 || bus < -8) {
+            throw new IllegalArgumentException("bus must only be one nibble, given " + bus);
+        }
+        mBus = (byte) (bus & 0x0F);
+        mSock = sock;
+        mFraming = framing;
+        mData = data;
+        mMessage = message;
+        mPgns = pgns;
+        mIds = ids;
+    }
+
+    public ISOBlueCommand(OpCode opCode, Bus.BusType bus, byte sock,
+            byte data[]) {
+        this(opCode, busByte(bus), sock, data);
+    }
+
+    public ISOBlueCommand(OpCode opCode, Bus.BusType bus, byte sock,
+            byte data[], Framing framing) {
+        this(opCode, busByte(bus), sock, data, framing);
+    }
+
+    private static byte busByte(Bus.BusType bus) {
+        switch (bus) {
+        case ENGINE:
+            return 0;
+
+        case IMPLEMENT:
+            return 1;
+
+        default:
+            return -1;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder s;
+
+        s = new StringBuilder();
+
+        s.append(this.mOpCode.val);
+        s.append(Integer.toHexString(this.mBus));
+        if (mFraming == Framing.BINARY) {
+            // Show binary data as hex, so it looks like the TEXT equivalent
+            for (byte b : getData()) {
+                s.append((char) Hex.DIGITS[(b >> 4) & 0xF]);
+                s.append((char) Hex.DIGITS[b & 0xF]);
+            }
+        } else {
+            s.append(new String(getData()));
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * @return the mOpCode
+     */
+    public OpCode getOpCode() {
+        return mOpCode;
+    }
+
+    /**
+     * @return the mBus
+     */
+    public short getBus() {
+        return mBus;
+    }
+
+    /**
+     * @return the mSock
+     */
+    public short getSock() {
+        return mSock;
+    }
+
+    /**
+     * Get the data of this command. If its fields are only laid out when
+     * encoded, they are laid out again in its own {@link Framing} on each
+     * call.
+     *
+     * @return the Data
+     */
+    public byte[] getData() {
+        if (mData == null) {
+            // Not kept, only needed outside of encoding
+            return ISOBlueEncoder.encodeData(this);
+        }
+
+        return mData;
+    }
+
+    /**
+     * @return the {@link Message} of a WRITE command created by
+     *         {@link #write(byte, Message, Framing)}, otherwise {@code null}
+     */
+    Message getMessage() {
+        return mMessage;
+    }
+
+    /**
+     * @return the PGNs of a FILT command created by
+     *         {@link #filter(Bus.BusType, int[], Framing)}, otherwise
+     *         {@code null}
+     */
+    int[] getPgns() {
+        return mPgns;
+    }
+
+    /**
+     * @return the first and last IDs of a PAST command created by
+     *         {@link #past(long, long)}, otherwise {@code null}
+     */
+    long[] getIds() {
+        return mIds;
+    }
+
+    /**
+     * @return whether the fields of this command are laid out when it is
+     *         encoded, so it can be sent in any {@link Framing}
+     */
+    boolean isLaidOutLate() {
+        return mMessage != null || mPgns != null || mIds != null;
+    }
+
+    /**
+     * @return the priority of the {@link Message} of a WRITE command,
+     *         otherwise {@link Message#DEFAULT_PRIORITY}
+     */
+    int getPriority() {
+        return mMessage == null ? Message.DEFAULT_PRIORITY : mMessage
+                .getPriority();
+    }
+
+    /**
+     * @return the {@link Framing} of the data, or the default one of a
+     *         command whose fields are laid out when encoded
+     */
+    public Framing getFraming() {
+        return mFraming;
+    }
+}
@@ -0,0 +1,608 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.RawMessage;
+
+/**
+ * Streaming decoder for the commands ISOBlue sends over its connection.
+ * <p>
+ * Commands are split out of a reusable byte buffer and their fields are parsed
+ * in place, so reading and decoding a frame creates no garbage. Both
+ * {@link Framing}s are understood, even when mixed on one stream. The fields of
+ * the current frame are only valid until the next call to {@link #readFrame()}
+ * and one {@link ISOBlueDecoder} must not be shared between threads.
+ * <p>
+ * Typical use is:
+ *
+ * <pre>
+ * while (decoder.readFrame()) {
+ *     decoder.decode();
+ *     // Use decoder.getOpCode(), decoder.getPgn(), ...
+ * }
+ * </pre>
+ *
+ * @see ISOBlueCommand
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class ISOBlueDecoder {
+
+    private static final int DEFAULT_CAPACITY = 512;
+
+    /**
+     * Longest frame accepted, anything longer means the stream is garbled.
+     */
+    private static final int MAX_CAPACITY = 1 << 18;
+
+    /**
+     * Payloads up to this length are decoded into reused arrays.
+     */
+    private static final int MAX_SCRATCH_LEN = 8;
+
+    private InputStream mIn;
+
+    /**
+     * Bytes read from {@link #mIn}, valid from {@link #mPos} to
+     * {@link #mLimit}.
+     */
+    private byte mBuf[];
+    private int mPos, mLimit;
+
+    /**
+     * Index from which to continue looking for the end of the current frame.
+     */
+    private int mScan;
+
+    /**
+     * Location in {@link #mBuf} of the current frame.
+     */
+    private int mFrameStart, mFrameEnd;
+    private Framing mFraming;
+
+    /**
+     * Bytes the current frame took up in the stream, with its line ending.
+     */
+    private int mFrameLength;
+
+    /**
+     * Whether to time reads from {@link #mIn}, and when the last one started
+     * and returned, from {@link System#nanoTime()}.
+     */
+    private boolean mTimed;
+    private long mReadStart, mReadEnd;
+
+    /**
+     * Command the current frame was taken from, if it was not read from
+     * {@link #mIn}.
+     */
+    private ISOBlueCommand mCommand;
+
+    /**
+     * Cursor over the fields of the current frame.
+     */
+    private byte mFields[];
+    private int mCursor, mFieldsEnd;
+    private boolean mBinaryFields;
+
+    private ISOBlueCommand.OpCode mOpCode;
+    private int mBus;
+    private Framing mPeerFraming;
+    private boolean mHasId;
+    private int mId;
+    private int mPgn;
+    private short mDestAddr;
+    private short mSrcAddr;
+    private byte mData[];
+    private long mTimeStamp;
+
+    private final byte mScratch[][];
+
+    public ISOBlueDecoder() {
+        this(null);
+    }
+
+    /**
+     * Construct a new {@link ISOBlueDecoder} which reads frames from the given
+     * {@link InputStream}.
+     *
+     * @param in
+     *            where to read frames from
+     */
+    public ISOBlueDecoder(InputStream in) {
+        mBuf = new byte[DEFAULT_CAPACITY];
+        mScratch = new byte[MAX_SCRATCH_LEN + 1][];
+        for (int i = 0; i <= MAX_SCRATCH_LEN; i++) {
+            mScratch[i] = new byte[i];
+        }
+
+        reset(in);
+    }
+
+    /**
+     * Discard anything buffered and start reading frames from the given
+     * {@link InputStream}.
+     *
+     * @param in
+     *            where to read frames from
+     */
+    public void reset(InputStream in) {
+        mIn = in;
+        mPos = mLimit = mScan = 0;
+        mFrameStart = mFrameEnd = 0;
+        mFraming = Framing.TEXT;
+        mCommand = null;
+        mOpCode = null;
+    }
+
+    /**
+     * Read the next frame, blocking until a whole one is available. The frame
+     * must then be parsed with {@link #decode()}.
+     *
+     * @return {@code false} if the end of the stream was reached
+     * @throws IOException
+     *             if reading fails or the stream is garbled
+     */
+    public boolean readFrame() throws IOException {
+        if (!require(1)) {
+            return false;
+        }
+
+        if ((mBuf[mPos] & ISOBlueCommand.BINARY_FLAG) != 0) {
+            int len;
+
+            if (!require(ISOBlueCommand.BINARY_HEADER_LEN)) {
+                return false;
+            }
+            len = ((mBuf[mPos + 2] & 0xFF) << 8) | (mBuf[mPos + 3] & 0xFF);
+            if (!require(ISOBlueCommand.BINARY_HEADER_LEN + len)) {
+                return false;
+            }
+
+            mFrameStart = mPos;
+            mFrameEnd = mPos + ISOBlueCommand.BINARY_HEADER_LEN + len;
+            mFrameLength = mFrameEnd - mFrameStart;
+            mPos = mScan = mFrameEnd;
+            mFraming = Framing.BINARY;
+        } else {
+            int eol;
+
+            while ((eol = findNewline()) < 0) {
+                if (!fill()) {
+                    return false;
+                }
+            }
+
+            mFrameStart = mPos;
+            mFrameEnd = eol;
+            mFrameLength = eol + 1 - mFrameStart;
+            // Tolerate CRLF line endings
+            if (mFrameEnd > mFrameStart && mBuf[mFrameEnd - 1] == '\r') {
+                mFrameEnd--;
+            }
+            mPos = mScan = eol + 1;
+            mFraming = Framing.TEXT;
+        }
+        mCommand = null;
+        mOpCode = null;
+
+        return true;
+    }
+
+    /**
+     * Parse the fields of the frame last returned by {@link #readFrame()}.
+     *
+     * @throws IllegalArgumentException
+     *             if the frame is malformed
+     */
+    public void decode() {
+        int len = mFrameEnd - mFrameStart;
+        ISOBlueCommand.OpCode opCode;
+        int bus;
+
+        if (mFraming == Framing.BINARY) {
+            opCode = ISOBlueCommand.OpCode
+                    .fromVal((char) (mBuf[mFrameStart] & 0x7F));
+            if (opCode == null) {
+                throw new IllegalArgumentException("Unknown opcode: "
+                        + (char) (mBuf[mFrameStart] & 0x7F));
+            }
+            bus = mBuf[mFrameStart + 1] & 0x0F;
+
+            decodeFields(opCode, bus, true, mBuf, mFrameStart
+                    + ISOBlueCommand.BINARY_HEADER_LEN, mFrameEnd);
+            return;
+        }
+
+        if (len < 2) {
+            throw new IllegalArgumentException("Command too short: " + len);
+        }
+        opCode = ISOBlueCommand.OpCode
+                .fromVal((char) (mBuf[mFrameStart] & 0xFF));
+        if (opCode == null) {
+            throw new IllegalArgumentException("Unknown opcode: "
+                    + (char) (mBuf[mFrameStart] & 0xFF));
+        }
+        bus = Hex.digit(mBuf[mFrameStart + 1]);
+        if (bus < 0) {
+            throw new NumberFormatException("Invalid bus: "
+                    + (char) (mBuf[mFrameStart + 1] & 0xFF));
+        }
+
+        decodeFields(opCode, bus, false, mBuf, mFrameStart + 2, mFrameEnd);
+    }
+
+    /**
+     * Parse the fields of an already received {@link ISOBlueCommand}, as if it
+     * had been read by this {@link ISOBlueDecoder}.
+     *
+     * @param cmd
+     *            the command to decode
+     * @throws IllegalArgumentException
+     *             if the command is malformed
+     */
+    public void decode(ISOBlueCommand cmd) {
+        byte data[] = cmd.getData();
+
+        decodeFields(cmd.getOpCode(), cmd.getBus(),
+                cmd.getFraming() == Framing.BINARY, data, 0, data.length);
+        mCommand = cmd;
+    }
+
+    private void decodeFields(ISOBlueCommand.OpCode opCode, int bus,
+            boolean binary, byte fields[], int start, int end) {
+        mOpCode = opCode;
+        mBus = bus;
+        mBinaryFields = binary;
+        mFields = fields;
+        mCursor = start;
+        mFieldsEnd = end;
+
+        mHasId = false;
+        mPeerFraming = Framing.TEXT;
+        mData = mScratch[0];
+
+        switch (opCode) {
+        case MESG:
+        case OLD_MESG:
+            decodeMessage();
+            break;
+
+        case START:
+            if (mFieldsEnd - mCursor >= fieldLength(ISOBlueCommand.ID_DIGITS)) {
+                mId = (int) field(ISOBlueCommand.ID_DIGITS);
+                mHasId = true;
+            }
+            if (binary || contains(ISOBlueCommand.BINARY_FRAMING_OFFER)) {
+                mPeerFraming = Framing.BINARY;
+            }
+            break;
+
+        default:
+            break;
+        }
+    }
+
+    private void decodeMessage() {
+        int len;
+
+        mId = (int) field(ISOBlueCommand.ID_DIGITS);
+        mHasId = true;
+        if (mId == 0) {
+            // No message, just marks the end of the buffered data
+            return;
+        }
+
+        mPgn = (int) field(ISOBlueCommand.PGN_DIGITS);
+        mDestAddr = (short) field(ISOBlueCommand.ADDR_DIGITS);
+        len = (int) field(ISOBlueCommand.LEN_DIGITS);
+        mData = len <= MAX_SCRATCH_LEN ? mScratch[len] : new byte[len];
+        for (int i = 0; i < len; i++) {
+            mData[i] = (byte) field(ISOBlueCommand.BYTE_DIGITS);
+        }
+        mTimeStamp = field(ISOBlueCommand.SEC_DIGITS) * 1000000
+                + field(ISOBlueCommand.USEC_DIGITS);
+        mSrcAddr = (short) field(ISOBlueCommand.ADDR_DIGITS);
+    }
+
+    private int fieldLength(int digits) {
+        return mBinaryFields ? (digits + 1) / 2 : digits;
+    }
+
+    /**
+     * Parse the next field of the current frame, for commands whose fields
+     * are not parsed by {@link #decode()}.
+     *
+     * @param digits
+     *            width of the field in hex digits
+     * @return value of the field
+     * @throws IllegalArgumentException
+     *             if the frame has no more fields
+     */
+    long field(int digits) {
+        int len = fieldLength(digits);
+        long val;
+
+        if (mFieldsEnd - mCursor < len) {
+            throw new IllegalArgumentException("Command truncated");
+        }
+        if (mBinaryFields) {
+            val = 0;
+            for (int i = mCursor; i < mCursor + len; i++) {
+                val = (val << 8) | (mFields[i] & 0xFF);
+            }
+        } else {
+            val = Hex.parse(mFields, mCursor, len);
+        }
+        mCursor += len;
+
+        return val;
+    }
+
+    private boolean contains(byte token[]) {
+        search: for (int i = mCursor; i <= mFieldsEnd - token.length; i++) {
+            for (int j = 0; j < token.length; j++) {
+                if (mFields[i + j] != token[j]) {
+                    continue search;
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean require(int n) throws IOException {
+        while (mLimit - mPos < n) {
+            if (!fill()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int findNewline() {
+        for (int i = mScan; i < mLimit; i++) {
+            if (mBuf[i] == '\n') {
+                return i;
+            }
+        }
+        mScan = mLimit;
+
+        return -1;
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+
+        // Move what is left of the current frame to the front
+        if (mPos > 0) {
+            System.arraycopy(mBuf, mPos, mBuf, 0, mLimit - mPos);
+            mLimit -= mPos;
+            mScan -= mPos;
+            mPos = 0;
+        }
+        if (mLimit == mBuf.length) {
+            if (mBuf.length >= MAX_CAPACITY) {
+                mPos = mLimit = mScan = 0;
+                throw new IOException("Frame longer than " + MAX_CAPACITY
+                        + " bytes");
+            }
+            mBuf = Arrays.copyOf(mBuf, mBuf.length * 2);
+        }
+
+        if (mTimed) {
+            mReadStart = System.nanoTime();
+            n = mIn.read(mBuf, mLimit, mBuf.length - mLimit);
+            mReadEnd = System.nanoTime();
+        } else {
+            n = mIn.read(mBuf, mLimit, mBuf.length - mLimit);
+        }
+        if (n < 0) {
+            return false;
+        }
+        mLimit += n;
+
+        return true;
+    }
+
+    /**
+     * @return the {@link ISOBlueCommand.OpCode} of the current frame
+     */
+    public ISOBlueCommand.OpCode getOpCode() {
+        return mOpCode;
+    }
+
+    /**
+     * @return the bus nibble of the current frame
+     */
+    public int getBus() {
+        return mBus;
+    }
+
+    /**
+     * @return how many bytes of the stream the frame last read took up
+     */
+    public int getFrameLength() {
+        return mFrameLength;
+    }
+
+    /**
+     * Time each read from the {@link InputStream}, for
+     * {@link #getReadNanos()} and {@link #getReadEnd()}. Off by default.
+     *
+     * @param timed
+     *            whether to time reads
+     */
+    public void setTimed(boolean timed) {
+        mTimed = timed;
+    }
+
+    /**
+     * Get how long the read which completed the frame last read took,
+     * including any wait for data to arrive. Only valid if reads are timed.
+     *
+     * @return the time in the read, in ns
+     *
+     * @see #setTimed(boolean)
+     */
+    public long getReadNanos() {
+        return mReadEnd - mReadStart;
+    }
+
+    /**
+     * Get when the read which completed the frame last read returned. Only
+     * valid if reads are timed.
+     *
+     * @return the time, from {@link System#nanoTime()}
+     *
+     * @see #setTimed(boolean)
+     */
+    public long getReadEnd() {
+        return mReadEnd;
+    }
+
+    /**
+     * @return the {@link Framing} of the current frame
+     */
+    public Framing getFraming() {
+        return mCommand != null ? mCommand.getFraming() : mFraming;
+    }
+
+    /**
+     * Get the {@link Framing} the ISOBlue agreed to in the current START
+     * frame.
+     *
+     * @return {@link Framing#BINARY} if it was accepted, otherwise
+     *         {@link Framing#TEXT}
+     */
+    public Framing getPeerFraming() {
+        return mPeerFraming;
+    }
+
+    /**
+     * @return whether the current frame carries a {@link Message} ID
+     */
+    public boolean hasId() {
+        return mHasId;
+    }
+
+    /**
+     * @return the {@link Message} ID of the current frame, 0 if it marks the
+     *         end of buffered data
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return the {@code int} representation of the PGN of the current frame
+     */
+    public int getPgn() {
+        return mPgn;
+    }
+
+    /**
+     * @return the destination address of the current frame
+     */
+    public short getDestAddr() {
+        return mDestAddr;
+    }
+
+    /**
+     * @return the source address of the current frame
+     */
+    public short getSrcAddr() {
+        return mSrcAddr;
+    }
+
+    /**
+     * Get the payload of the current frame. The returned array is reused and
+     * must be copied if it is to be kept past the next frame.
+     *
+     * @return the payload {@code bytes}
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * @return the timestamp of the current frame, in &micros since the epoch
+     */
+    public long getTimeStamp() {
+        return mTimeStamp;
+    }
+
+    /**
+     * Copy the {@link Message} of the current MESG or OLD_MESG frame into a
+     * {@link RawMessage}, without allocating.
+     *
+     * @param into
+     *            the {@link RawMessage} to fill
+     * @return {@code into}
+     */
+    public RawMessage getMessage(RawMessage into) {
+        byte data[] = mId == 0 || mData == null ? mScratch[0] : mData;
+
+        into.set(mId & 0xFFFFFFFFL, mPgn, mDestAddr, mSrcAddr, mTimeStamp);
+
+        return into.setData(data, 0, data.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        if (mCommand != null) {
+            return mCommand.toString();
+        }
+
+        if (mFraming == Framing.BINARY) {
+            StringBuilder s = new StringBuilder();
+            int start = mFrameStart + ISOBlueCommand.BINARY_HEADER_LEN;
+
+            // Show binary frames as hex, so they look like TEXT ones
+            s.append((char) (mBuf[mFrameStart] & 0x7F));
+            s.append(Integer.toHexString(mBuf[mFrameStart + 1] & 0x0F));
+            for (int i = start; i < mFrameEnd; i++) {
+                s.append(String.format("%02x", mBuf[i]));
+            }
+
+            return s.toString();
+        }
+
+        return new String(mBuf, mFrameStart, mFrameEnd - mFrameStart);
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isoblue.ISOBlueCommand.OpCode;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.RawMessage;
+
+/**
+ * A stand-in for an ISOBlue, in plain Java, for testing and benchmarking an
+ * {@link ISOBlueNetwork} off-device.
+ * <p>
+ * It speaks the same protocol: START (including binary framing), FILT, PAST
+ * and WRITE from the host, MESG and OLD_MESG to it. {@link Message}s put on
+ * its buses with {@link #send(int, int, int, int, byte[])} are numbered,
+ * kept for PAST, and sent to every started connection whose filter passes
+ * them. WRITEs are counted, and can be looped back onto the bus.
+ * <p>
+ * Connections are made over TCP, see {@link #listen(int)} and
+ * {@link SocketTransport}, or over any pair of streams with
+ * {@link #serve(InputStream, OutputStream)}.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+public class ISOBlueEmulator implements Closeable {
+
+    /**
+     * Default number of {@link Message}s kept for PAST
+     */
+    public static final int DEFAULT_HISTORY = 1 << 16;
+
+    /**
+     * Default source address of looped back WRITEs
+     */
+    public static final short DEFAULT_SRC_ADDR = 0x80;
+
+    /**
+     * Bytes of frames collected before writing them to a connection
+     */
+    private static final int FLUSH_SIZE = 990;
+
+    private static final Logger LOG = Logger.getLogger("EMULATOR");
+
+    private final RawMessage mHistory[];
+    private final byte mHistoryBus[];
+    private long mNextId;
+
+    private final List<Connection> mConnections;
+    private ServerSocket mServer;
+    private volatile boolean mClosed;
+
+    private volatile boolean mAutoFlush;
+    private volatile boolean mLoopback;
+    private volatile short mSrcAddr;
+    private volatile long mWriteCount;
+
+    public ISOBlueEmulator() {
+        this(DEFAULT_HISTORY);
+    }
+
+    /**
+     * @param history
+     *            how many {@link Message}s to keep for PAST
+     */
+    public ISOBlueEmulator(int history) {
+        if (history < 1) {
+            throw new IllegalArgumentException("history must be positive, "
+                    + "given " + history);
+        }
+
+        mHistory = new RawMessage[history];
+        mHistoryBus = new byte[history];
+        mNextId = 1;
+
+        mConnections = new CopyOnWriteArrayList<Connection>();
+        mClosed = false;
+        mAutoFlush = true;
+        mLoopback = false;
+        mSrcAddr = DEFAULT_SRC_ADDR;
+        mWriteCount = 0;
+    }
+
+    /**
+     * Accept TCP connections on the loopback interface.
+     *
+     * @param port
+     *            the port, or 0 for any free one
+     * @return the port listened on
+     * @throws IOException
+     *             if the port cannot be listened on
+     */
+    public synchronized int listen(int port) throws IOException {
+        if (mServer != null) {
+            throw new IllegalStateException("Already listening");
+        }
+
+        mServer = new ServerSocket(port, 50, InetAddress.getByName(null));
+        final ServerSocket server = mServer;
+        Thread accept = new Thread("ISOBlueEmulator accept") {
+            @Override
+            public void run() {
+                while (!mClosed) {
+                    try {
+                        Socket socket = server.accept();
+
+                        socket.setTcpNoDelay(true);
+                        serve(socket.getInputStream(),
+                                socket.getOutputStream());
+                    } catch (IOException e) {
+                        if (!mClosed && LOG.isLoggable(Level.WARNING)) {
+                            LOG.log(Level.WARNING, "Stopped accepting", e);
+                        }
+                        return;
+                    }
+                }
+            }
+        };
+        accept.setDaemon(true);
+        accept.start();
+
+        return server.getLocalPort();
+    }
+
+    /**
+     * Talk to a host over a pair of streams, until they fail or this
+     * {@link ISOBlueEmulator} is closed.
+     *
+     * @param in
+     *            the stream from the host
+     * @param out
+     *            the stream to the host
+     */
+    public void serve(InputStream in, OutputStream out) {
+        Connection connection = new Connection(in, out);
+
+        mConnections.add(connection);
+        connection.start();
+    }
+
+    /**
+     * Put a {@link Message} on one of the buses.
+     *
+     * @param bus
+     *            0 for the engine bus, 1 for the implement bus
+     * @param pgn
+     *            {@code int} representation of its PGN
+     * @param destAddr
+     *            its destination address
+     * @param srcAddr
+     *            its source address
+     * @param data
+     *            its data
+     * @return the ID given to it
+     */
+    public long send(int bus, int pgn, int destAddr, int srcAddr,
+            byte data[]) {
+        RawMessage message;
+
+        synchronized (mHistory) {
+            long id = mNextId++;
+            int slot = (int) (id % mHistory.length);
+
+            if (mHistory[slot] == null) {
+                mHistory[slot] = new RawMessage();
+            }
+            message = mHistory[slot];
+            message.set(id, pgn, (short) destAddr, (short) srcAddr,
+                    System.currentTimeMillis() * 1000);
+            message.setData(data, 0, data.length);
+            mHistoryBus[slot] = (byte) bus;
+
+            // Sent while holding the history, so the slot is not reused
+            for (Connection connection : mConnections) {
+                connection.send(OpCode.MESG, bus, message);
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * Put a {@link Message} on one of the buses.
+     *
+     * @param bus
+     *            0 for the engine bus, 1 for the implement bus
+     * @param message
+     *            the {@link Message}
+     * @return the ID given to it
+     */
+    public long send(int bus, Message message) {
+        return send(bus, message.getPgn().asInt(), message.getDestAddr(),
+                message.getSrcAddr(), message.getData());
+    }
+
+    /**
+     * Write out frames collected while auto flush is off.
+     *
+     * @see #setAutoFlush(boolean)
+     */
+    public void flush() {
+        for (Connection connection : mConnections) {
+            connection.flush();
+        }
+    }
+
+    /**
+     * Set whether each {@link Message} is written out as soon as it is sent.
+     * When off, frames are collected and written in batches, or by
+     * {@link #flush()}, which is much quicker at high rates.
+     *
+     * @param autoFlush
+     *            whether to write each {@link Message} at once, default
+     *            {@code true}
+     */
+    public void setAutoFlush(boolean autoFlush) {
+        mAutoFlush = autoFlush;
+        if (autoFlush) {
+            flush();
+        }
+    }
+
+    /**
+     * Set whether WRITEs from a host are put on the bus they were written
+     * to, as if another ECU sent them.
+     *
+     * @param loopback
+     *            whether to loop back WRITEs, default {@code false}
+     * @param srcAddr
+     *            the source address to give them
+     */
+    public void setLoopback(boolean loopback, short srcAddr) {
+        mSrcAddr = srcAddr;
+        mLoopback = loopback;
+    }
+
+    /**
+     * @return how many WRITEs have been received
+     */
+    public long getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * @return how many connections are open
+     */
+    public int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    /**
+     * @return the ID of the last {@link Message} sent, 0 if none
+     */
+    public long getLastId() {
+        synchronized (mHistory) {
+            return mNextId - 1;
+        }
+    }
+
+    /**
+     * Drop every connection, as if the link went down, but keep listening.
+     */
+    public void disconnect() {
+        for (Connection connection : mConnections) {
+            connection.close();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        synchronized (this) {
+            if (mServer != null) {
+                mServer.close();
+            }
+        }
+        disconnect();
+    }
+
+    /**
+     * Send the kept {@link Message}s with IDs after {@code fromId} up to
+     * {@code toId}, then the end of the buffered data on each bus.
+     */
+    private void past(Connection connection, long fromId, long toId) {
+        RawMessage end = new RawMessage();
+
+        synchronized (mHistory) {
+            long first = Math.max(fromId + 1, mNextId - mHistory.length);
+            long last = Math.min(toId, mNextId - 1);
+
+            for (long id = Math.max(first, 1); id <= last; id++) {
+                int slot = (int) (id % mHistory.length);
+
+                connection.send(OpCode.OLD_MESG, mHistoryBus[slot],
+                        mHistory[slot]);
+            }
+        }
+
+        connection.send(OpCode.OLD_MESG, 0, end);
+        connection.send(OpCode.OLD_MESG, 1, end);
+        connection.flush();
+    }
+
+    /**
+     * One host connected to this {@link ISOBlueEmulator}.
+     */
+    private final class Connection extends Thread {
+
+        private final InputStream mIn;
+        private final OutputStream mOut;
+        private final ISOBlueDecoder mDecoder;
+        private final ISOBlueEncoder mEncoder;
+        private Framing mFraming;
+        private volatile boolean mStarted;
+
+        /**
+         * PGNs to pass on each bus, sorted, {@code null} for all
+         */
+        private final int mFilters[][];
+
+        private Connection(InputStream in, OutputStream out) {
+            super("ISOBlueEmulator connection");
+            setDaemon(true);
+
+            mIn = in;
+            mOut = new BufferedOutputStream(out, FLUSH_SIZE * 2);
+            mDecoder = new ISOBlueDecoder(in);
+            mEncoder = new ISOBlueEncoder();
+            mFraming = Framing.TEXT;
+            mStarted = false;
+            mFilters = new int[2][];
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!mClosed && mDecoder.readFrame()) {
+                    try {
+                        mDecoder.decode();
+                        handle();
+                    } catch (IllegalArgumentException e) {
+                        // Garbled command, skip it like an ISOBlue would
+                        if (LOG.isLoggable(Level.WARNING)) {
+                            LOG.log(Level.WARNING, "Bad command: "
+                                    + mDecoder, e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Host went away
+            } finally {
+                close();
+            }
+        }
+
+        private void handle() {
+            int bus = mDecoder.getBus();
+
+            switch (mDecoder.getOpCode()) {
+            case START:
+                reply();
+                break;
+
+            case FILT:
+                if (bus == 0 || bus == 1) {
+                    int pgns[] = new int[(int) mDecoder
+                            .field(ISOBlueCommand.COUNT_DIGITS)];
+
+                    for (int i = 0; i < pgns.length; i++) {
+                        pgns[i] = (int) mDecoder
+                                .field(ISOBlueCommand.PGN_DIGITS);
+                    }
+                    Arrays.sort(pgns);
+                    synchronized (this) {
+                        mFilters[bus] = pgns.length == 0 ? null : pgns;
+                    }
+                }
+                break;
+
+            case PAST:
+                past(this, mDecoder.field(ISOBlueCommand.ID_DIGITS),
+                        mDecoder.field(ISOBlueCommand.ID_DIGITS));
+                break;
+
+            case WRITE:
+                mWriteCount++;
+                if (mLoopback) {
+                    int pgn = (int) mDecoder.field(ISOBlueCommand.PGN_DIGITS);
+                    int dest = (int) mDecoder
+                            .field(ISOBlueCommand.ADDR_DIGITS);
+                    byte data[] = new byte[(int) mDecoder
+                            .field(ISOBlueCommand.LEN_DIGITS)];
+
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = (byte) mDecoder
+                                .field(ISOBlueCommand.BYTE_DIGITS);
+                    }
+                    ISOBlueEmulator.this.send(bus, pgn, dest, mSrcAddr, data);
+                }
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        /**
+         * Reply to START with the last ID, accepting binary framing if
+         * offered. The history is held throughout, taken before this
+         * connection like {@link ISOBlueEmulator#send(int, int, int, int,
+         * byte[])} does, so no {@link Message} falls between the ID and
+         * being started.
+         */
+        private void reply() {
+            Framing framing = mDecoder.getPeerFraming();
+
+            synchronized (mHistory) {
+                byte id[] = new ISOBlueEncoder(Framing.TEXT).field(
+                        mNextId - 1, ISOBlueCommand.ID_DIGITS).toByteArray();
+                byte data[] = id;
+
+                if (framing == Framing.BINARY) {
+                    byte offer[] = ISOBlueCommand.BINARY_FRAMING_OFFER;
+
+                    data = Arrays.copyOf(id, id.length + offer.length);
+                    System.arraycopy(offer, 0, data, id.length, offer.length);
+                }
+
+                synchronized (this) {
+                    mEncoder.encode(new ISOBlueCommand(OpCode.START,
+                            (byte) -1, (byte) -1, data, Framing.TEXT));
+                    flush();
+
+                    // Everything after the reply uses the accepted framing
+                    mFraming = framing;
+                    mStarted = true;
+                }
+            }
+        }
+
+        /**
+         * Send a frame, if started and it passes the filter.
+         */
+        private synchronized void send(OpCode opCode, int bus,
+                RawMessage message) {
+            if (!mStarted) {
+                return;
+            }
+            if (opCode == OpCode.MESG && mFilters[bus & 1] != null
+                    && Arrays.binarySearch(mFilters[bus & 1],
+                            message.getPgn()) < 0) {
+                return;
+            }
+
+            mEncoder.encodeMessage(opCode, bus, message, mFraming);
+            if (mAutoFlush || mEncoder.size() >= FLUSH_SIZE) {
+                flush();
+            }
+        }
+
+        private synchronized void flush() {
+            if (mEncoder.size() == 0) {
+                return;
+            }
+
+            try {
+                mEncoder.writeTo(mOut);
+                mOut.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            mStarted = false;
+            mConnections.remove(this);
+
+            try {
+                mIn.close();
+            } catch (IOException e) {
+            }
+            try {
+                mOut.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.RawMessage;
+
+/**
+ * Encodes {@link ISOBlueCommand}s into a reusable byte buffer.
+ * <p>
+ * Fields are written straight into the buffer, using a lookup table for
+ * {@link Framing#TEXT}, so encoding a command creates no garbage. The fields of
+ * commands made by {@link ISOBlueCommand#write(byte, Message, Framing)},
+ * {@link ISOBlueCommand#filter(org.isoblue.isobus.Bus.BusType, int[], Framing)}
+ * and {@link ISOBlueCommand#past(long, long)} are only laid out here. Any
+ * number of commands can be encoded before the buffer is written out with
+ * {@link #writeTo(OutputStream)}.
+ * <p>
+ * One {@link ISOBlueEncoder} must not be shared between threads.
+ *
+ * @see ISOBlueDecoder
+ * @author Alex Layton <alex@layton.in>
+ */
+final class ISOBlueEncoder {
+
+    private static final int DEFAULT_CAPACITY = 512;
+
+    private Framing mFraming;
+    private byte mBuf[];
+    private int mLen;
+
+    /**
+     * Construct a new {@link ISOBlueEncoder} for encoding whole commands.
+     */
+    ISOBlueEncoder() {
+        this(Framing.TEXT);
+    }
+
+    /**
+     * Construct a new {@link ISOBlueEncoder} for laying out the data of a
+     * command in the given {@link Framing}.
+     *
+     * @param framing
+     *            the {@link Framing} of the fields
+     */
+    ISOBlueEncoder(Framing framing) {
+        mFraming = framing;
+        mBuf = new byte[DEFAULT_CAPACITY];
+        mLen = 0;
+    }
+
+    /**
+     * Lay out the data of a command on its own.
+     *
+     * @param cmd
+     *            the command
+     * @return the data of {@code cmd}, in its {@link Framing}
+     */
+    static byte[] encodeData(ISOBlueCommand cmd) {
+        ISOBlueEncoder encoder = new ISOBlueEncoder(cmd.getFraming());
+
+        encoder.data(cmd);
+
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Append a whole command, in its {@link Framing}, to the buffer.
+     *
+     * @param cmd
+     *            the command to encode
+     * @throws IllegalArgumentException
+     *             if {@code cmd} is too long for its {@link Framing}
+     */
+    void encode(ISOBlueCommand cmd) {
+        encode(cmd, cmd.getFraming());
+    }
+
+    /**
+     * Append a whole command to the buffer. A command whose fields are laid
+     * out here is sent in the given {@link Framing}, any other in its own.
+     *
+     * @param cmd
+     *            the command to encode
+     * @param framing
+     *            the {@link Framing} of the connection
+     * @throws IllegalArgumentException
+     *             if {@code cmd} is too long for the {@link Framing} used
+     */
+    void encode(ISOBlueCommand cmd, Framing framing) {
+        int start = begin(cmd.getOpCode(), cmd.getBus(),
+                cmd.isLaidOutLate() ? framing : cmd.getFraming());
+
+        data(cmd);
+        end(start);
+    }
+
+    /**
+     * Append a MESG or OLD_MESG frame, laid out as an ISOBlue sends it.
+     *
+     * @param opCode
+     *            {@link ISOBlueCommand.OpCode#MESG} or
+     *            {@link ISOBlueCommand.OpCode#OLD_MESG}
+     * @param bus
+     *            the bus, must fit in one nibble
+     * @param message
+     *            the {@link RawMessage} to send, its ID 0 to mark the end of
+     *            buffered data
+     * @param framing
+     *            how to send the frame
+     */
+    void encodeMessage(ISOBlueCommand.OpCode opCode, int bus,
+            RawMessage message, Framing framing) {
+        int start = begin(opCode, bus, framing);
+        long timeStamp = message.getTimeStamp();
+
+        field(message.getId(), ISOBlueCommand.ID_DIGITS);
+        if (message.getId() != 0) {
+            field(message.getPgn(), ISOBlueCommand.PGN_DIGITS);
+            field(message.getDestAddr(), ISOBlueCommand.ADDR_DIGITS);
+            field(message.getLength(), ISOBlueCommand.LEN_DIGITS);
+            bytes(message.getData(), 0, message.getLength());
+            field(timeStamp / 1000000, ISOBlueCommand.SEC_DIGITS);
+            field(timeStamp % 1000000, ISOBlueCommand.USEC_DIGITS);
+            field(message.getSrcAddr(), ISOBlueCommand.ADDR_DIGITS);
+        }
+        end(start);
+    }
+
+    /**
+     * Append the header of a frame.
+     *
+     * @return where the frame starts
+     */
+    private int begin(ISOBlueCommand.OpCode opCode, int bus, Framing framing) {
+        int start = mLen;
+
+        mFraming = framing;
+        if (mFraming == Framing.BINARY) {
+            ensure(ISOBlueCommand.BINARY_HEADER_LEN);
+            mBuf[mLen++] = (byte) (ISOBlueCommand.BINARY_FLAG | opCode.val);
+            mBuf[mLen++] = (byte) bus;
+            mLen += 2;
+        } else {
+            ensure(2);
+            mBuf[mLen++] = (byte) opCode.val;
+            mBuf[mLen++] = Hex.DIGITS[bus & 0xF];
+        }
+
+        return start;
+    }
+
+    /**
+     * Finish the frame started at {@code start}.
+     */
+    private void end(int start) {
+        if (mFraming == Framing.BINARY) {
+            // Fill in the length now that it is known
+            int len = mLen - start - ISOBlueCommand.BINARY_HEADER_LEN;
+
+            if (len > 0xFFFF) {
+                mLen = start;
+                throw new IllegalArgumentException("data too long for binary "
+                        + "framing, given " + len + " bytes");
+            }
+            mBuf[start + 2] = (byte) (len >> 8);
+            mBuf[start + 3] = (byte) len;
+        } else {
+            ensure(1);
+            mBuf[mLen++] = '\n';
+        }
+    }
+
+    private void data(ISOBlueCommand cmd) {
+        Message message;
+        int pgns[];
+        long ids[];
+
+        if ((message = cmd.getMessage()) != null) {
+            byte data[] = message.getData();
+
+            field(message.getPgn().asInt(), ISOBlueCommand.PGN_DIGITS);
+            field(message.getDestAddr(), ISOBlueCommand.ADDR_DIGITS);
+            field(data.length, ISOBlueCommand.LEN_DIGITS);
+            bytes(data);
+        } else if ((pgns = cmd.getPgns()) != null) {
+            field(pgns.length, ISOBlueCommand.COUNT_DIGITS);
+            for (int pgn : pgns) {
+                field(pgn, ISOBlueCommand.PGN_DIGITS);
+            }
+        } else if ((ids = cmd.getIds()) != null) {
+            field(ids[0], ISOBlueCommand.ID_DIGITS);
+            field(ids[1], ISOBlueCommand.ID_DIGITS);
+        } else {
+            byte data[] = cmd.getData();
+
+            ensure(data.length);
+            System.arraycopy(data, 0, mBuf, mLen, data.length);
+            mLen += data.length;
+        }
+    }
+
+    /**
+     * Append a field.
+     *
+     * @param val
+     *            value of the field
+     * @param digits
+     *            width of the field in hex digits
+     * @return this {@link ISOBlueEncoder}
+     */
+    ISOBlueEncoder field(long val, int digits) {
+        int len = mFraming == Framing.BINARY ? (digits + 1) / 2 : digits;
+
+        ensure(len);
+        for (int i = mLen + len - 1; i >= mLen; i--) {
+            if (mFraming == Framing.BINARY) {
+                mBuf[i] = (byte) val;
+                val >>>= 8;
+            } else {
+                mBuf[i] = Hex.DIGITS[(int) (val & 0xF)];
+                val >>>= 4;
+            }
+        }
+        mLen += len;
+
+        return this;
+    }
+
+    /**
+     * Append each of the given {@code bytes} as a field.
+     *
+     * @param data
+     *            the {@code bytes}
+     * @return this {@link ISOBlueEncoder}
+     */
+    ISOBlueEncoder bytes(byte data[]) {
+        return bytes(data, 0, data.length);
+    }
+
+    /**
+     * Append {@code len} of the given {@code bytes}, from {@code off}, each
+     * as a field.
+     *
+     * @param data
+     *            the {@code bytes}
+     * @param off
+     *            index of the first
+     * @param len
+     *            how many to append
+     * @return this {@link ISOBlueEncoder}
+     */
+    ISOBlueEncoder bytes(byte data[], int off, int len) {
+        if (mFraming == Framing.BINARY) {
+            ensure(len);
+            System.arraycopy(data, off, mBuf, mLen, len);
+            mLen += len;
+        } else {
+            ensure(len * ISOBlueCommand.BYTE_DIGITS);
+            for (int i = off; i < off + len; i++) {
+                mBuf[mLen++] = Hex.DIGITS[(data[i] >> 4) & 0xF];
+                mBuf[mLen++] = Hex.DIGITS[data[i] & 0xF];
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Write out everything encoded so far and empty the buffer.
+     *
+     * @param os
+     *            where to write
+     * @throws IOException
+     *             if writing to {@code os} fails
+     */
+    void writeTo(OutputStream os) throws IOException {
+        try {
+            os.write(mBuf, 0, mLen);
+        } finally {
+            mLen = 0;
+        }
+    }
+
+    /**
+     * @return how many bytes have been encoded but not yet written
+     */
+    int size() {
+        return mLen;
+    }
+
+    /**
+     * Discard everything encoded so far.
+     */
+    void reset() {
+        mLen = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(mBuf, mLen);
+    }
+
+    Framing getFraming() {
+        return mFraming;
+    }
+
+    private void ensure(int n) {
+        if (mLen + n > mBuf.length) {
+            mBuf = Arrays.copyOf(mBuf, Math.max(mBuf.length * 2, mLen + n));
+        }
+    }
+}
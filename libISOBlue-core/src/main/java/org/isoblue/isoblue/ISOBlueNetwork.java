@@ -0,0 +1,965 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.isoblue.isoblue.ISOBlueCommand.Framing;
+import org.isoblue.isobus.Bus;
+import org.isoblue.isobus.Counter;
+import org.isoblue.isobus.Gauge;
+import org.isoblue.isobus.ISOBUSNetwork;
+import org.isoblue.isobus.ISOBUSSocket;
+import org.isoblue.isobus.LatencyHistogram;
+import org.isoblue.isobus.Message;
+import org.isoblue.isobus.MetricRegistry;
+
+/**
+ * Talks the ISOBlue protocol over any {@link ISOBlueTransport}: starts the
+ * connection, reads frames into its two {@link ISOBlueBus}es, writes queued
+ * commands in batches and reconnects when the connection fails. Nothing here
+ * depends on Android, so it runs against an {@link ISOBlueEmulator} on a
+ * normal JVM as well as against a real ISOBlue.
+ * <p>
+ * After reconnecting, START and the filters of both buses are sent again.
+ *
+ * @see ISOBlueDevice
+ * @author Alex Layton <alex@layton.in>
+ */
+public class ISOBlueNetwork extends ISOBUSNetwork {
+
+    /**
+     * Default for {@link #setWriteBatchSize(int)}, about what fits in one
+     * RFCOMM frame.
+     */
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 990;
+
+    /**
+     * Default time to wait for more socket changes before updating the
+     * ISOBlue's PGN filter, in ms.
+     */
+    public static final long DEFAULT_FILTER_DEBOUNCE = 20;
+
+    /**
+     * Time to wait between attempts to reconnect, in ms.
+     */
+    public static final long RECONNECT_DELAY = 100;
+
+    private static final Logger CMD_IN = Logger.getLogger("CMD-IN");
+    private static final Logger CMD_OUT = Logger.getLogger("CMD-OUT");
+    private static final Logger CONNECT = Logger.getLogger("CONNECT");
+
+    private final ISOBlueTransport mTransport;
+    private final Framing mRequestedFraming;
+    private volatile Framing mFraming;
+    private ISOBlueBus mEngineBus, mImplementBus;
+    private Thread mReadThread, mWriteThread;
+    private final CommandQueue mOutCommands;
+
+    private volatile int mWriteBatchSize;
+    private volatile long mWriteLingerNanos;
+    private volatile long mFilterDebounceMillis;
+    private Timer mTimer;
+
+    /**
+     * Guards reconnecting, and counts connections so the write thread can
+     * tell when a new one is made.
+     */
+    private final Object mConnectionLock;
+    private volatile int mConnection;
+    private volatile boolean mClosed;
+    private volatile long mReconnectCount;
+    private final Counter mConnectFailures;
+
+    /*
+     * Only updated by the write thread
+     */
+    private volatile long mFlushCount;
+    private volatile long mFlushedCommands;
+    private volatile long mFlushedBytes;
+    private volatile long mFlushNanos;
+    private volatile long mMaxFlushNanos;
+    private final Counter mTxErrors;
+
+    /*
+     * Only updated by the read thread
+     */
+    private final Counter mRxFrames;
+    private final Counter mRxBytes;
+    private final Counter mRxErrors;
+
+    /*
+     * Stages of receiving traced frames, only recorded by the read thread
+     */
+    private final LatencyHistogram mTraceRead;
+    private final LatencyHistogram mTraceSplit;
+    private final LatencyHistogram mTraceParse;
+    private final LatencyHistogram mTraceDevice;
+
+    private transient Serializable mStartId;
+    private transient Object mStartIdLock;
+
+    public ISOBlueNetwork(ISOBlueTransport transport) throws IOException {
+        this(transport, Framing.TEXT);
+    }
+
+    /**
+     * Connect to an ISOBlue, asking it to use the given {@link Framing}. Text
+     * framing is used unless the ISOBlue accepts binary framing while
+     * starting.
+     *
+     * @param transport
+     *            the {@link ISOBlueTransport} to the ISOBlue
+     * @param framing
+     *            the {@link Framing} to ask for
+     * @throws IOException
+     *             if connecting over {@code transport} fails
+     */
+    public ISOBlueNetwork(ISOBlueTransport transport, Framing framing)
+            throws IOException {
+        mTransport = transport;
+        mRequestedFraming = framing;
+        mFraming = Framing.TEXT;
+
+        mEngineBus = new ISOBlueBus(this, ISOBlueBus.BusType.ENGINE);
+        mImplementBus = new ISOBlueBus(this, ISOBlueBus.BusType.IMPLEMENT);
+
+        mOutCommands = new CommandQueue();
+        mWriteBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+        mWriteLingerNanos = 0;
+        mFilterDebounceMillis = DEFAULT_FILTER_DEBOUNCE;
+
+        mConnectionLock = new Object();
+        mConnection = 0;
+        mClosed = false;
+        mReconnectCount = 0;
+        mConnectFailures = getMetrics().counter("connect.failures");
+
+        mRxFrames = getMetrics().counter("rx.frames");
+        mRxBytes = getMetrics().counter("rx.bytes");
+        mRxErrors = getMetrics().counter("rx.errors");
+        mTxErrors = getMetrics().counter("tx.errors");
+        mTraceRead = getMetrics().histogram("trace.read");
+        mTraceSplit = getMetrics().histogram("trace.split");
+        mTraceParse = getMetrics().histogram("trace.parse");
+        mTraceDevice = getMetrics().histogram("trace.device");
+        addMetrics();
+
+        mTransport.connect();
+        sendStart();
+
+        mReadThread = new ReadThread();
+        mWriteThread = new WriteThread();
+
+        mStartId = null;
+        mStartIdLock = new Object();
+
+        mReadThread.start();
+        mWriteThread.start();
+    }
+
+    /**
+     * Register what is already counted with the {@link MetricRegistry}, as
+     * {@link Gauge}s.
+     */
+    private void addMetrics() {
+        MetricRegistry metrics = getMetrics();
+
+        metrics.gauge("tx.flushes", new Gauge() {
+            @Override
+            public long get() {
+                return mFlushCount;
+            }
+        });
+        metrics.gauge("tx.commands", new Gauge() {
+            @Override
+            public long get() {
+                return mFlushedCommands;
+            }
+        });
+        metrics.gauge("tx.bytes", new Gauge() {
+            @Override
+            public long get() {
+                return mFlushedBytes;
+            }
+        });
+        metrics.gauge("reconnects", new Gauge() {
+            @Override
+            public long get() {
+                return mReconnectCount;
+            }
+        });
+        metrics.gauge("queue.control", new Gauge() {
+            @Override
+            public long get() {
+                return mOutCommands.size(CommandQueue.LANE_CONTROL);
+            }
+        });
+        metrics.gauge("queue.write", new Gauge() {
+            @Override
+            public long get() {
+                return mOutCommands.size()
+                        - mOutCommands.size(CommandQueue.LANE_CONTROL);
+            }
+        });
+    }
+
+    /**
+     * @return a START command, offering binary framing if wanted
+     */
+    private ISOBlueCommand startCommand() {
+        byte offer[] = new byte[0];
+
+        if (mRequestedFraming == Framing.BINARY) {
+            offer = ISOBlueCommand.BINARY_FRAMING_OFFER;
+        }
+
+        return new ISOBlueCommand(ISOBlueCommand.OpCode.START, (byte) -1,
+                (byte) -1, offer);
+    }
+
+    /**
+     * Send START to the ISOBlue, offering binary framing if wanted.
+     */
+    private void sendStart() {
+        try {
+            sendCommand(startCommand());
+        } catch (InterruptedException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reconnect after the connection failed, retrying until it works or this
+     * {@link ISOBlueNetwork} is closed.
+     *
+     * @return {@code false} if closed instead
+     */
+    private boolean reconnect() {
+        synchronized (mConnectionLock) {
+            while (!mClosed) {
+                try {
+                    mTransport.connect();
+                    break;
+                } catch (IOException e) {
+                    mConnectFailures.increment();
+                    if (CONNECT.isLoggable(Level.FINE)) {
+                        CONNECT.log(Level.FINE, "Reconnect failed", e);
+                    }
+                }
+
+                try {
+                    mConnectionLock.wait(RECONNECT_DELAY);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            if (mClosed) {
+                return false;
+            }
+
+            // Until the ISOBlue accepts binary framing again
+            mFraming = Framing.TEXT;
+            mConnection++;
+            mReconnectCount++;
+            mConnectionLock.notifyAll();
+        }
+
+        // The write thread sends START first, then the ISOBlue needs telling
+        // what to pass again
+        mEngineBus.resendFilter();
+        mImplementBus.resendFilter();
+
+        return true;
+    }
+
+    /**
+     * Wait for a connection newer than the given one.
+     *
+     * @param connection
+     *            the connection which failed
+     * @return the new connection, or -1 if closed instead
+     */
+    private int awaitReconnect(int connection) {
+        synchronized (mConnectionLock) {
+            while (!mClosed && mConnection == connection) {
+                try {
+                    mConnectionLock.wait();
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+
+            return mClosed ? -1 : mConnection;
+        }
+    }
+
+    /**
+     * Stop reading and writing, and close the {@link ISOBlueTransport}.
+     * Commands still waiting to be written are dropped, and the
+     * {@link org.isoblue.isobus.MessageListener}s of the sockets are told
+     * they have ended.
+     *
+     * @throws IOException
+     *             if closing the {@link ISOBlueTransport} fails
+     */
+    public void close() throws IOException {
+        mClosed = true;
+        // Abort a connect blocking reconnect(), which holds mConnectionLock
+        try {
+            mTransport.close();
+        } catch (IOException e) {
+            // Closed again below
+        }
+        synchronized (mConnectionLock) {
+            mConnectionLock.notifyAll();
+        }
+        mWriteThread.interrupt();
+
+        synchronized (this) {
+            if (mTimer != null) {
+                mTimer.cancel();
+                mTimer = null;
+            }
+        }
+
+        // Anything reconnect() connected before seeing mClosed
+        mTransport.close();
+
+        mEngineBus.endSockets();
+        mImplementBus.endSockets();
+    }
+
+    /**
+     * @return whether {@link #close()} has been called
+     */
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @return the {@link ISOBlueTransport} to the ISOBlue
+     */
+    public ISOBlueTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * @return how many times the connection has been remade
+     */
+    public long getReconnectCount() {
+        return mReconnectCount;
+    }
+
+    /**
+     * Create a pair of {@link BufferedISOBUSSocket}s which will receive all
+     * {@link Message}s stored by ISOBlue coming after the specified one. <br>
+     * One socket will receive engine bus messages and the other will receive
+     * implement bus messages.
+     * 
+     * @param fromId
+     *            the ID corresponding to the {@link Message} after which these
+     *            sockets will start receiving
+     * @return An array containing two buffered sockets. <br>
+     *         Index 0 contains the socket which will receive engine bus
+     *         messages. <br>
+     *         Index 1 contains the socket which will receive implement bus
+     *         messages.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ISOBUSSocket[] createBufferedISOBUSSockets(Serializable fromId)
+            throws IOException, InterruptedException {
+        BufferedISOBUSSocket[] socks = new BufferedISOBUSSocket[2];
+        Serializable toId;
+
+        toId = getStartId();
+
+        // Create socket for past engine messages
+        socks[0] = new BufferedISOBUSSocket(fromId, toId, mEngineBus, null,
+                null);
+        // Create socket for past implement messages
+        socks[1] = new BufferedISOBUSSocket(fromId, toId, mImplementBus, null,
+                null);
+
+        // Ask ISOBlue for past data, IDs are unsigned 32 bit even when held
+        // in an Integer
+        sendCommand(ISOBlueCommand.past(
+                ((Number) fromId).longValue() & 0xFFFFFFFFL,
+                ((Number) toId).longValue() & 0xFFFFFFFFL));
+
+        return socks;
+    }
+
+    protected void sendCommand(ISOBlueCommand cmd) throws InterruptedException {
+        mOutCommands.put(cmd);
+
+        if (CMD_OUT.isLoggable(Level.FINE)) {
+            CMD_OUT.fine(cmd.toString());
+        }
+    }
+
+    /**
+     * Get the {@link Framing} in use for commands sent to the ISOBlue.
+     *
+     * @return {@link Framing#BINARY} once the ISOBlue has accepted it,
+     *         otherwise {@link Framing#TEXT}
+     */
+    public Framing getFraming() {
+        return mFraming;
+    }
+
+    /**
+     * Set how many bytes of commands to collect before writing them to the
+     * ISOBlue. Commands which are already waiting are always sent together, up
+     * to this size.
+     *
+     * @param bytes
+     *            size at which to write, at least 1
+     */
+    public void setWriteBatchSize(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("batch size must be positive, "
+                    + "given " + bytes);
+        }
+        mWriteBatchSize = bytes;
+    }
+
+    /**
+     * Set how long to wait for more commands before writing a batch which is
+     * smaller than the write batch size. Waiting longer means fewer, larger
+     * writes but delays commands by up to that long. Default is 0, which only
+     * batches commands that are already waiting.
+     *
+     * @param time
+     *            how long to wait, in units of {@code unit}
+     * @param unit
+     *            a {@link TimeUnit} determining how to interpret {@code time}
+     *
+     * @see #setWriteBatchSize(int)
+     */
+    public void setWriteLinger(long time, TimeUnit unit) {
+        mWriteLingerNanos = Math.max(0, unit.toNanos(time));
+    }
+
+    /**
+     * Set how long to wait after a socket is attached or detached before
+     * updating the ISOBlue's PGN filter, so that changes made together are
+     * sent as one FILT command.
+     *
+     * @param time
+     *            how long to wait, in units of {@code unit}
+     * @param unit
+     *            a {@link TimeUnit} determining how to interpret {@code time}
+     */
+    public void setFilterDebounce(long time, TimeUnit unit) {
+        mFilterDebounceMillis = Math.max(0, unit.toMillis(time));
+    }
+
+    /**
+     * Run a task after the filter debounce time, unless closed.
+     *
+     * @param task
+     *            the {@link TimerTask} to run
+     * @return {@code false} if it will not be run, because this
+     *         {@link ISOBlueNetwork} is closed
+     *
+     * @see #setFilterDebounce(long, TimeUnit)
+     */
+    synchronized boolean scheduleFilter(TimerTask task) {
+        if (mClosed) {
+            return false;
+        }
+        if (mTimer == null) {
+            mTimer = new Timer("ISOBlue filter", true);
+        }
+
+        mTimer.schedule(task, mFilterDebounceMillis);
+        return true;
+    }
+
+    /**
+     * Time one in every {@code every} frames received from the ISOBlue
+     * through each stage of receiving it. Besides {@code trace.wait} and
+     * {@code trace.pickup}, the stages are:
+     * <dl>
+     * <dt>{@code trace.read}</dt>
+     * <dd>the read from the {@link ISOBlueTransport} which completed the
+     * frame, including waiting for data when the link is idle</dd>
+     * <dt>{@code trace.split}</dt>
+     * <dd>from that read returning until the frame was split out, including
+     * the frames before it in the same read</dd>
+     * <dt>{@code trace.parse}</dt>
+     * <dd>parsing the fields of the frame</dd>
+     * <dt>{@code trace.decode}</dt>
+     * <dd>building the {@link Message} until it is handed to sockets</dd>
+     * <dt>{@code trace.device}</dt>
+     * <dd>from the ISOBlue's timestamp of a live {@link Message} until it
+     * was parsed, by the host clock, which shows how backed up the link is.
+     * It is only as good as the two clocks agree, and counts 0 when the
+     * ISOBlue's is ahead.</dd>
+     * </dl>
+     *
+     * @param every
+     *            how many frames per traced one, or 0 to stop tracing
+     */
+    @Override
+    public void setTraceSampling(int every) {
+        super.setTraceSampling(every);
+    }
+
+    /**
+     * @return how many writes of commands to the ISOBlue have been done
+     */
+    public long getFlushCount() {
+        return mFlushCount;
+    }
+
+    /**
+     * @return how many commands have been written to the ISOBlue
+     */
+    public long getFlushedCommandCount() {
+        return mFlushedCommands;
+    }
+
+    /**
+     * @return how many bytes of commands have been written to the ISOBlue
+     */
+    public long getFlushedByteCount() {
+        return mFlushedBytes;
+    }
+
+    /**
+     * @return the average number of commands sent per write to the ISOBlue
+     */
+    public double getCommandsPerFlush() {
+        long flushes = mFlushCount;
+
+        return flushes == 0 ? 0 : (double) mFlushedCommands / flushes;
+    }
+
+    /**
+     * Get the average time from the first command of a batch being taken off
+     * the queue until the batch had been written, including any linger.
+     *
+     * @param unit
+     *            {@link TimeUnit} in which to return the time
+     * @return the average flush latency
+     */
+    public long getFlushLatency(TimeUnit unit) {
+        long flushes = mFlushCount;
+
+        return flushes == 0 ? 0 : unit.convert(mFlushNanos / flushes,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the longest time from the first command of a batch being taken off
+     * the queue until the batch had been written, including any linger.
+     *
+     * @param unit
+     *            {@link TimeUnit} in which to return the time
+     * @return the maximum flush latency
+     */
+    public long getMaxFlushLatency(TimeUnit unit) {
+        return unit.convert(mMaxFlushNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return how many control commands (START, FILT, PAST, ...) are waiting
+     *         to be sent to the ISOBlue
+     */
+    public int getControlQueueDepth() {
+        return mOutCommands.size(CommandQueue.LANE_CONTROL);
+    }
+
+    /**
+     * @return the most control commands which have been waiting to be sent
+     *         to the ISOBlue at once
+     */
+    public int getMaxControlQueueDepth() {
+        return mOutCommands.maxSize(CommandQueue.LANE_CONTROL);
+    }
+
+    /**
+     * @param priority
+     *            the {@link Message} priority
+     * @return how many {@link Message}s of priority {@code priority} are
+     *         waiting to be written to the ISOBlue
+     *
+     * @see Message#getPriority()
+     */
+    public int getWriteQueueDepth(int priority) {
+        return mOutCommands.size(CommandQueue.laneForPriority(priority));
+    }
+
+    /**
+     * @param priority
+     *            the {@link Message} priority
+     * @return the most {@link Message}s of priority {@code priority} which
+     *         have been waiting to be written to the ISOBlue at once
+     *
+     * @see Message#getPriority()
+     */
+    public int getMaxWriteQueueDepth(int priority) {
+        return mOutCommands.maxSize(CommandQueue.laneForPriority(priority));
+    }
+
+    public Bus getEngineBus() {
+        return mEngineBus;
+    }
+
+    public Bus getImplementBus() {
+        return mImplementBus;
+    }
+
+    protected Serializable getStartId() {
+        synchronized (mStartIdLock) {
+            while (mStartId == null) {
+                try {
+                    mStartIdLock.wait(10L);
+                } catch (InterruptedException e) {
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return mStartId;
+    }
+
+    private void setStartId(int id) {
+        synchronized (mStartIdLock) {
+            mStartId = id;
+            mStartIdLock.notifyAll();
+        }
+    }
+
+    private class ReadThread extends Thread {
+
+        private ISOBlueDecoder mDecoder;
+        private boolean mStarted;
+
+        private ReadThread() throws IOException {
+            super("ISOBlue read");
+
+            mDecoder = new ISOBlueDecoder(mTransport.getInputStream());
+            mStarted = false;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see java.lang.Thread#run()
+         */
+        @Override
+        public void run() {
+
+            while (true) {
+                while (true) {
+                    long parsed = 0;
+
+                    // Receive the command
+                    mDecoder.setTimed(isTracing());
+                    try {
+                        if (!mDecoder.readFrame()) {
+                            // Connection closed
+                            break;
+                        }
+                    } catch (IOException e) {
+                        if (!mClosed) {
+                            // TODO Auto-generated catch block
+                            e.printStackTrace();
+                        }
+                        break;
+                    }
+                    mRxFrames.increment();
+                    mRxBytes.add(mDecoder.getFrameLength());
+                    if (CMD_IN.isLoggable(Level.FINE)) {
+                        CMD_IN.fine(mDecoder.toString());
+                    }
+
+                    // Parse the command
+                    try {
+                        if (sampleTrace()) {
+                            parsed = trace();
+                        } else {
+                            mDecoder.decode();
+                        }
+
+                        switch (mDecoder.getOpCode()) {
+                        case MESG:
+                            // TODO: Figure out why this is needed...
+                            if (!mStarted) {
+                                // Ignore stuff before ISOBlue knows we're new
+                                setStartId(mDecoder.getId());
+                                mStarted = true;
+                                continue;
+                            }
+                            break;
+
+                        case OLD_MESG:
+                            if (!mStarted) {
+                                // Ignore stuff before ISOBlue knows we're new
+                                continue;
+                            }
+                            break;
+
+                        case START:
+                            if (mDecoder.hasId()) {
+                                setStartId(mDecoder.getId());
+                            }
+                            if (mRequestedFraming == Framing.BINARY) {
+                                mFraming = mDecoder.getPeerFraming();
+                            }
+                            mStarted = true;
+                            continue;
+
+                        default:
+                            continue;
+                        }
+
+                        switch (mDecoder.getBus()) {
+                        case 0:
+                            mEngineBus.handleFrame(mDecoder, parsed);
+                            break;
+
+                        case 1:
+                            mImplementBus.handleFrame(mDecoder, parsed);
+                            break;
+
+                        default:
+                            continue;
+                        }
+                    } catch (RuntimeException e) {
+                        // Skip the garbled frame, but count it
+                        mRxErrors.increment();
+                        if (CMD_IN.isLoggable(Level.WARNING)) {
+                            CMD_IN.log(Level.WARNING, "Bad frame: "
+                                    + mDecoder, e);
+                        }
+                        continue;
+                    }
+                }
+
+                if (mClosed || !reconnect()) {
+                    return;
+                }
+                try {
+                    mDecoder.reset(mTransport.getInputStream());
+                    mStarted = false;
+                } catch (IOException e) {
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Parse the frame just read, recording how long it took to read,
+         * split out and parse, and how old it is.
+         *
+         * @return when parsing finished, from {@link System#nanoTime()}
+         */
+        private long trace() {
+            long split = System.nanoTime();
+            long parsed;
+
+            // Not known if the frame was read before timing was turned on
+            if (mDecoder.getReadEnd() != 0) {
+                mTraceRead.record(mDecoder.getReadNanos());
+                mTraceSplit.record(split - mDecoder.getReadEnd());
+            }
+
+            mDecoder.decode();
+            parsed = System.nanoTime();
+            mTraceParse.record(parsed - split);
+
+            if (mDecoder.getOpCode() == ISOBlueCommand.OpCode.MESG
+                    && mDecoder.getId() != 0) {
+                mTraceDevice.record((System.currentTimeMillis() * 1000
+                        - mDecoder.getTimeStamp()) * 1000);
+            }
+
+            return parsed;
+        }
+    }
+
+    private class WriteThread extends Thread {
+
+        private OutputStream mOut;
+        private final ISOBlueEncoder mEncoder;
+
+        private WriteThread() {
+            super("ISOBlue write");
+
+            mEncoder = new ISOBlueEncoder();
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see java.lang.Thread#run()
+         */
+        @Override
+        public void run() {
+            ISOBlueCommand cmd;
+            int connection, started;
+
+            cmd = null;
+            connection = 0;
+            // The first START is queued before this thread starts
+            started = 0;
+            while (connection >= 0) {
+                try {
+                    synchronized (mConnectionLock) {
+                        // Know which connection the stream belongs to
+                        connection = mConnection;
+                        mOut = mTransport.getOutputStream();
+                    }
+
+                    if (connection != started) {
+                        // START before anything held or queued, which was
+                        // meant for the old connection
+                        ISOBlueCommand start = startCommand();
+
+                        if (CMD_OUT.isLoggable(Level.FINE)) {
+                            CMD_OUT.fine(start.toString());
+                        }
+                        flush(start, cmd);
+                        cmd = null;
+                        started = connection;
+                    }
+
+                    while (true) {
+                        if (cmd == null) {
+                            cmd = mOutCommands.take();
+                        }
+                        if (connection != mConnection) {
+                            // Reconnected while waiting, keep cmd for the new
+                            // stream
+                            break;
+                        }
+
+                        flush(cmd, null);
+                        cmd = null;
+                    }
+                    continue;
+                } catch (InterruptedException e) {
+                    if (mClosed) {
+                        return;
+                    }
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
+                    continue;
+                } catch (IOException e) {
+                    if (mClosed) {
+                        return;
+                    }
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
+                }
+
+                connection = awaitReconnect(connection);
+            }
+        }
+
+        /**
+         * Encode the given commands, along with whatever else is waiting or
+         * arrives within the linger time, and write them in one go. Commands
+         * are laid out in the {@link Framing} in use now, not that of when
+         * they were queued.
+         *
+         * @param cmd
+         *            the first command to write
+         * @param next
+         *            the command to write after it, or {@code null} to take
+         *            the next from the queue
+         */
+        private void flush(ISOBlueCommand cmd, ISOBlueCommand next)
+                throws InterruptedException, IOException {
+            long start, deadline, nanos;
+            int batchSize, commands, bytes;
+
+            start = System.nanoTime();
+            deadline = start + mWriteLingerNanos;
+            batchSize = mWriteBatchSize;
+            commands = 0;
+
+            mEncoder.reset();
+            do {
+                try {
+                    mEncoder.encode(cmd, mFraming);
+                    commands++;
+                } catch (IllegalArgumentException e) {
+                    // Can't be sent, but don't lose the rest of the batch
+                    mTxErrors.increment();
+                    if (CMD_OUT.isLoggable(Level.WARNING)) {
+                        CMD_OUT.log(Level.WARNING, "Dropped command: "
+                                + cmd.getOpCode(), e);
+                    }
+                }
+
+                if (next != null) {
+                    // Not held back by the batch size, it is already taken
+                    cmd = next;
+                    next = null;
+                    continue;
+                }
+                if (mEncoder.size() >= batchSize) {
+                    break;
+                }
+                cmd = mOutCommands.poll();
+                if (cmd == null) {
+                    nanos = deadline - System.nanoTime();
+                    if (nanos > 0) {
+                        cmd = mOutCommands.poll(nanos, TimeUnit.NANOSECONDS);
+                    }
+                }
+            } while (cmd != null);
+
+            bytes = mEncoder.size();
+            mEncoder.writeTo(mOut);
+            mOut.flush();
+
+            nanos = System.nanoTime() - start;
+            mFlushCount++;
+            mFlushedCommands += commands;
+            mFlushedBytes += bytes;
+            mFlushNanos += nanos;
+            if (nanos > mMaxFlushNanos) {
+                mMaxFlushNanos = nanos;
+            }
+        }
+    }
+}
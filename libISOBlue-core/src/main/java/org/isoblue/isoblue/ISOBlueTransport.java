@@ -0,0 +1,77 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The byte stream an {@link ISOBlueNetwork} talks to an ISOBlue over.
+ * <p>
+ * {@link #connect()} may be called again after a connection fails, to
+ * reconnect. The streams are those of the latest connection.
+ *
+ * @see RfcommTransport
+ * @see SocketTransport
+ * @see StreamTransport
+ * @author Alex Layton <alex@layton.in>
+ */
+public interface ISOBlueTransport extends Closeable {
+
+    /**
+     * Open a connection, closing the previous one if still open. Blocks until
+     * connected.
+     *
+     * @throws IOException
+     *             if connecting fails
+     */
+    void connect() throws IOException;
+
+    /**
+     * @return the stream to read from the ISOBlue
+     * @throws IOException
+     *             if not connected
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return the stream to write to the ISOBlue
+     * @throws IOException
+     *             if not connected
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Close the connection. Blocked reads and writes fail, as does a
+     * {@link #connect()} in progress.
+     *
+     * @throws IOException
+     *             if closing fails
+     */
+    @Override
+    void close() throws IOException;
+}
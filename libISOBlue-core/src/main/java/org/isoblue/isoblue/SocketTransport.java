@@ -0,0 +1,161 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+/**
+ * {@link ISOBlueTransport} over TCP, e.g. to an {@link ISOBlueEmulator} or an
+ * ISOBlue bridged onto a network.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+public class SocketTransport implements ISOBlueTransport {
+
+    /**
+     * Default time to wait for a connection, in ms
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    private final SocketAddress mAddress;
+    private volatile Socket mSocket;
+
+    /**
+     * Socket {@link #connect()} is waiting on, so {@link #close()} can abort
+     * it without taking the lock
+     */
+    private volatile Socket mConnecting;
+
+    /**
+     * Counts calls to {@link #close()}, so {@link #connect()} can tell it
+     * was closed while connecting
+     */
+    private volatile int mCloses;
+
+    public SocketTransport(String host, int port) {
+        this(new InetSocketAddress(host, port));
+    }
+
+    public SocketTransport(SocketAddress address) {
+        mAddress = address;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#connect()
+     */
+    @Override
+    public synchronized void connect() throws IOException {
+        int closes = mCloses;
+        Socket socket = mSocket;
+
+        mSocket = null;
+        if (socket != null) {
+            socket.close();
+        }
+
+        socket = new Socket();
+        mConnecting = socket;
+        try {
+            // Commands are already batched, don't wait to fill segments
+            socket.setTcpNoDelay(true);
+            socket.connect(mAddress, DEFAULT_CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        } finally {
+            mConnecting = null;
+        }
+        mSocket = socket;
+
+        if (mCloses != closes) {
+            close();
+            throw new IOException("Closed while connecting");
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#getInputStream()
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket().getInputStream();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#getOutputStream()
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket().getOutputStream();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        Socket connecting, socket;
+
+        mCloses++;
+        connecting = mConnecting;
+        socket = mSocket;
+        mSocket = null;
+        if (connecting != null) {
+            connecting.close();
+        }
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private Socket socket() throws IOException {
+        Socket socket = mSocket;
+
+        if (socket == null) {
+            throw new IOException("Not connected to " + mAddress);
+        }
+        return socket;
+    }
+
+    /**
+     * @return the address connected to
+     */
+    public SocketAddress getAddress() {
+        return mAddress;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link ISOBlueTransport} over a given pair of streams, e.g. pipes to an
+ * {@link ISOBlueEmulator} in the same process. The streams can only be
+ * connected once, so there is no reconnecting after they fail.
+ *
+ * @see ISOBlueEmulator#serve(InputStream, OutputStream)
+ * @author Alex Layton <alex@layton.in>
+ */
+public class StreamTransport implements ISOBlueTransport {
+
+    private final InputStream mIn;
+    private final OutputStream mOut;
+    private boolean mConnected;
+    private volatile boolean mClosed;
+
+    public StreamTransport(InputStream in, OutputStream out) {
+        mIn = in;
+        mOut = out;
+        mConnected = false;
+        mClosed = false;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#connect()
+     */
+    @Override
+    public synchronized void connect() throws IOException {
+        if (mConnected) {
+            throw new IOException("Streams cannot be reconnected");
+        }
+        mConnected = true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#getInputStream()
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        check();
+        return mIn;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#getOutputStream()
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        check();
+        return mOut;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        try {
+            mIn.close();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    private void check() throws IOException {
+        if (!mConnected || mClosed) {
+            throw new IOException("Streams not connected");
+        }
+    }
+}
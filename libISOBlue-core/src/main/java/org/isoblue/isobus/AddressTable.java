@@ -0,0 +1,177 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Live table of which {@link NAME} holds each address on a {@link Bus}, kept
+ * from the Address Claimed {@link Message}s seen on it. Looking up either way
+ * takes constant time, so a {@link Message} can be tied to the ECU which sent
+ * it even after addresses change.
+ * <p>
+ * The latest claim of an address wins. When two ECUs contend for one, the
+ * loser claims another address or that it cannot claim one, and the table
+ * follows.
+ * 
+ * @see Bus#getAddressTable()
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class AddressTable {
+
+    /**
+     * {@link PGN} of Address Claimed
+     */
+    public static final int ADDRESS_CLAIMED = 0x00EE00;
+
+    /**
+     * {@link PGN} of Request
+     */
+    public static final int REQUEST = 0x00EA00;
+
+    /**
+     * Address claimed by an ECU which could not claim one
+     */
+    public static final short NULL_ADDRESS = 0xFE;
+
+    /**
+     * Address of every ECU
+     */
+    public static final short GLOBAL_ADDRESS = 0xFF;
+
+    private static final int ADDRESSES = 0x100;
+
+    private final AtomicReferenceArray<NAME> mNames;
+    private final Map<NAME, Short> mAddresses;
+
+    public AddressTable() {
+        mNames = new AtomicReferenceArray<NAME>(ADDRESSES);
+        mAddresses = new ConcurrentHashMap<NAME, Short>();
+    }
+
+    /**
+     * Take in a received {@link Message}. Only Address Claimed
+     * {@link Message}s are looked at. Must only be called from one thread.
+     * 
+     * @param message
+     *            the received {@link Message}
+     */
+    void receive(Message message) {
+        byte data[];
+
+        if (message.getPgn().asInt() != ADDRESS_CLAIMED) {
+            return;
+        }
+        data = message.getData();
+        if (data.length < NAME.LENGTH) {
+            return;
+        }
+
+        claim(NAME.fromBytes(data, 0), message.getSrcAddr());
+    }
+
+    /**
+     * Record a {@link NAME} claiming an address.
+     * 
+     * @param name
+     *            the {@link NAME}
+     * @param address
+     *            the claimed address, {@link #NULL_ADDRESS} if it could not
+     *            claim one
+     */
+    void claim(NAME name, short address) {
+        Short old = mAddresses.get(name);
+
+        if (old != null) {
+            if (old.shortValue() == address) {
+                return;
+            }
+            // Moved, the old address is free unless someone took it since
+            NAME held = mNames.get(old.shortValue());
+            if (name.equals(held)) {
+                mNames.compareAndSet(old.shortValue(), held, null);
+            }
+            mAddresses.remove(name);
+        }
+
+        if (address < 0 || address >= NULL_ADDRESS) {
+            return;
+        }
+
+        NAME loser = mNames.getAndSet(address, name);
+        if (loser != null) {
+            mAddresses.remove(loser);
+        }
+        mAddresses.put(name, Short.valueOf(address));
+    }
+
+    /**
+     * Get the {@link NAME} which holds an address.
+     * 
+     * @param address
+     *            the address
+     * @return the {@link NAME}, or {@code null} if none has claimed
+     *         {@code address}
+     */
+    public NAME getName(int address) {
+        if (address < 0 || address >= ADDRESSES) {
+            return null;
+        }
+
+        return mNames.get(address);
+    }
+
+    /**
+     * Get the address a {@link NAME} holds.
+     * 
+     * @param name
+     *            the {@link NAME}
+     * @return the address, or -1 if {@code name} holds none
+     */
+    public short getAddress(NAME name) {
+        Short address = mAddresses.get(name);
+
+        return address == null ? -1 : address.shortValue();
+    }
+
+    /**
+     * @return how many addresses are claimed
+     */
+    public int size() {
+        return mAddresses.size();
+    }
+
+    /**
+     * @return a copy of the table, from {@link NAME} to address
+     */
+    public Map<NAME, Short> toMap() {
+        return Collections.unmodifiableMap(new HashMap<NAME, Short>(
+                mAddresses));
+    }
+}
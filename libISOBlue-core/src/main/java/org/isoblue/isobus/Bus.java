@@ -0,0 +1,506 @@
+/*
+ * Author: Alex Layton <awlayton@purdue.edu>
+ * 
+ * Copyright (c) 2013 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+public abstract class Bus {
+
+    public enum BusType {
+        ENGINE,
+        IMPLEMENT,
+    }
+
+    private ISOBUSNetwork mNetwork;
+    private BusType mType;
+    private PGNIndex mIndex;
+    private volatile MessageRing mRing;
+    private volatile TransportReassembler mTransport;
+    private volatile ExtendedTransportReassembler mExtendedTransport;
+    private final AddressTable mAddresses;
+
+    /**
+     * Start of the names of this {@link Bus}'s metrics
+     */
+    private final String mMetricPrefix;
+    private final Counter mRxMessages, mRxBytes, mTxMessages, mTxBytes;
+    private final PGNCounter mRxPgns;
+    /**
+     * Held while attaching or detaching, so a socket's metrics are gone
+     * before another socket can take its slot
+     */
+    private final Object mAttachLock;
+
+    public Bus(ISOBUSNetwork network, BusType type) {
+        MetricRegistry metrics = network.getMetrics();
+
+        mNetwork = network;
+        mType = type;
+
+        mIndex = new PGNIndex();
+        mAddresses = new AddressTable();
+
+        mMetricPrefix = type.name().toLowerCase(Locale.US) + ".";
+        mRxMessages = metrics.counter(mMetricPrefix + "rx.messages");
+        mRxBytes = metrics.counter(mMetricPrefix + "rx.bytes");
+        mTxMessages = metrics.counter(mMetricPrefix + "tx.messages");
+        mTxBytes = metrics.counter(mMetricPrefix + "tx.bytes");
+        mRxPgns = metrics.pgnCounter(mMetricPrefix + "rx.pgn");
+        mAttachLock = new Object();
+        metrics.gauge(mMetricPrefix + "sockets", new Gauge() {
+            @Override
+            public long get() {
+                return mIndex.getSockets().length;
+            }
+        });
+    }
+
+    protected void passMessageIn(ISOBUSSocket socket, Message message) {
+        socket.receive(message);
+    }
+
+    /**
+     * Give a {@link Message} to every attached socket, whatever its
+     * {@link PGN}s and {@link Filter}, e.g. to mark the end of the data.
+     * Sockets reading from the ring buffer get it from there. Must only be
+     * called from the one thread which reads from the network.
+     *
+     * @param message
+     *            the {@link Message}
+     */
+    protected void passMessageInAll(Message message) {
+        MessageRing ring = mRing;
+
+        if (ring != null) {
+            ring.publishToAll(message);
+        }
+
+        for (ISOBUSSocket sock : mIndex.getSockets()) {
+            if (!sock.readsRing()) {
+                passMessageIn(sock, message);
+            }
+        }
+    }
+
+    protected abstract void passMessageOut(Message message)
+            throws InterruptedException;
+
+    /**
+     * Give a {@link Message} to each attached socket which receives its
+     * {@link PGN} and matches its {@link Filter}. Must only be called from
+     * the one thread which reads from the network.
+     *
+     * @param message
+     *            the received {@link Message}
+     *
+     * @see ISOBUSSocket#getPgns()
+     */
+    protected void dispatch(Message message) {
+        TransportReassembler transport = mTransport;
+        ExtendedTransportReassembler extended = mExtendedTransport;
+
+        mRxMessages.increment();
+        mRxBytes.add(message.getData().length);
+        mRxPgns.increment(message.getPgn());
+
+        // Update first, so sockets see the new address in the table
+        mAddresses.receive(message);
+
+        deliver(message);
+
+        if (extended != null) {
+            extended.receive(message);
+        }
+
+        if (transport != null) {
+            Message whole = transport.receive(message);
+
+            if (whole != null) {
+                deliver(whole);
+            }
+        }
+    }
+
+    /**
+     * Mark a received {@link Message} as traced, before dispatching it, so
+     * sockets record how long it waits for them.
+     *
+     * @param message
+     *            the {@link Message}
+     * @return the time it was marked, from {@link System#nanoTime()}
+     *
+     * @see ISOBUSNetwork#setTraceSampling(int)
+     */
+    protected long trace(Message message) {
+        long now = System.nanoTime();
+
+        message.setTraceNanos(now);
+        return now;
+    }
+
+    private void deliver(Message message) {
+        MessageRing ring = mRing;
+
+        if (ring != null) {
+            // One publish for all the sockets reading from the ring
+            ring.publish(message);
+        }
+
+        for (ISOBUSSocket sock : mIndex.lookup(message.getPgn())) {
+            Filter filter = sock.getFilter();
+
+            if (filter == null || filter.matches(message)) {
+                passMessageIn(sock, message);
+            }
+        }
+    }
+
+    /**
+     * Open an {@link ISOBUSSocket} on this {@link Bus} which gives the
+     * {@link Message}s matching a {@link Filter} to a {@link MessageListener}.
+     *
+     * @param filter
+     *            {@link Filter} of what to receive, not null
+     * @param listener
+     *            the {@link MessageListener}, not null
+     * @param executor
+     *            the {@link Executor} to call {@code listener} with, or
+     *            {@code null} to call it on the thread reading the network
+     * @return the {@link ISOBUSSocket}, close it to stop listening
+     * @throws IOException
+     *             when connecting to this {@link Bus} fails
+     *
+     * @see ISOBUSSocket#setListener(MessageListener, Executor)
+     */
+    public ISOBUSSocket listen(Filter filter, MessageListener listener,
+            Executor executor) throws IOException {
+        if (listener == null) {
+            throw new NullPointerException("Parameter listener was null");
+        }
+
+        return new ISOBUSSocket(this, null, filter, listener, executor);
+    }
+
+    /**
+     * Have sockets attached to this {@link Bus} from now on read from a ring
+     * buffer, instead of each being given its own copy of every
+     * {@link Message}. Each received {@link Message} is published once, and
+     * every socket follows the ring with its own cursor, filtering as it
+     * reads. A socket which falls more than {@code size} {@link Message}s
+     * behind misses the older ones, which count towards its
+     * {@link ISOBUSSocket#getDroppedCount()}.
+     * <p>
+     * Sockets with a {@link MessageListener}, when attached or once one is
+     * set, are still given each {@link Message} directly. The overflow policy
+     * of a socket reading from the ring is not used.
+     *
+     * @param size
+     *            how many {@link Message}s the ring holds, a power of 2
+     * @param strategy
+     *            how sockets wait for {@link Message}s
+     * @throws IllegalStateException
+     *             if ring dispatch was already set
+     */
+    public synchronized void setRingDispatch(int size, WaitStrategy strategy) {
+        if (mRing != null) {
+            throw new IllegalStateException("Ring dispatch already set");
+        }
+
+        mRing = new MessageRing(size, strategy);
+    }
+
+    /**
+     * Reassemble {@link Message}s sent with the Transport Protocol on this
+     * {@link Bus}. Sockets are given each reassembled {@link Message} after
+     * the TP.DT {@link Message} which completed it.
+     *
+     * @param maxSessions
+     *            how many sessions to track at once
+     * @throws IllegalStateException
+     *             if reassembly was already set
+     *
+     * @see TransportReassembler
+     */
+    public synchronized void setTransportReassembly(int maxSessions) {
+        if (mTransport != null) {
+            throw new IllegalStateException("Reassembly already set");
+        }
+
+        mTransport = new TransportReassembler(maxSessions);
+        filterChanged();
+    }
+
+    /**
+     * @return the {@link TransportReassembler} of this {@link Bus}, for its
+     *         metrics, or {@code null} if reassembly is not set
+     */
+    public TransportReassembler getTransportReassembler() {
+        return mTransport;
+    }
+
+    /**
+     * Stream the data of transfers made with the Extended Transport Protocol
+     * on this {@link Bus} to a {@link TransferConsumer}. The ETP
+     * {@link Message}s are still given to sockets as before.
+     *
+     * @param maxSessions
+     *            how many sessions to track at once
+     * @param consumer
+     *            the {@link TransferConsumer} to stream data to
+     * @throws IllegalStateException
+     *             if ETP reassembly was already set
+     *
+     * @see ExtendedTransportReassembler
+     */
+    public synchronized void setExtendedTransportReassembly(int maxSessions,
+            TransferConsumer consumer) {
+        if (mExtendedTransport != null) {
+            throw new IllegalStateException("ETP reassembly already set");
+        }
+
+        mExtendedTransport = new ExtendedTransportReassembler(maxSessions,
+                consumer);
+        filterChanged();
+    }
+
+    /**
+     * @return the {@link ExtendedTransportReassembler} of this {@link Bus},
+     *         for its metrics, or {@code null} if ETP reassembly is not set
+     */
+    public ExtendedTransportReassembler getExtendedTransportReassembler() {
+        return mExtendedTransport;
+    }
+
+    /**
+     * @return the {@link AddressTable} of the ECUs on this {@link Bus}
+     */
+    public AddressTable getAddressTable() {
+        return mAddresses;
+    }
+
+    /**
+     * Get the {@link NAME} of the ECU which sent a {@link Message}, from the
+     * addresses claimed on this {@link Bus}, so data can be keyed by ECU
+     * rather than by an address which may change.
+     * 
+     * @param message
+     *            a {@link Message} received on this {@link Bus}
+     * @return the {@link NAME}, or {@code null} if its source address has not
+     *         been claimed
+     */
+    public NAME getSrcName(Message message) {
+        return mAddresses.getName(message.getSrcAddr());
+    }
+
+    /**
+     * Get the {@link NAME} of the ECU a {@link Message} was sent to, from the
+     * addresses claimed on this {@link Bus}.
+     * 
+     * @param message
+     *            a {@link Message} received on this {@link Bus}
+     * @return the {@link NAME}, or {@code null} if it was sent to all ECUs or
+     *         its destination address has not been claimed
+     */
+    public NAME getDestName(Message message) {
+        return mAddresses.getName(message.getDestAddr());
+    }
+
+    /**
+     * Ask every ECU on this {@link Bus} to send its Address Claimed, to fill
+     * in the {@link AddressTable} without waiting for them to claim again.
+     * 
+     * @throws InterruptedException
+     *             if interrupted while sending the request
+     */
+    public void requestAddressClaims() throws InterruptedException {
+        int pgn = AddressTable.ADDRESS_CLAIMED;
+
+        send(new Message(AddressTable.GLOBAL_ADDRESS,
+                PGN.valueOf(AddressTable.REQUEST), new byte[] { (byte) pgn,
+                        (byte) (pgn >> 8), (byte) (pgn >> 16) }));
+    }
+
+    /**
+     * Send a {@link Message} on this {@link Bus}, counting it.
+     *
+     * @param message
+     *            the {@link Message}
+     * @throws InterruptedException
+     *             if interrupted while waiting to send
+     */
+    void send(Message message) throws InterruptedException {
+        passMessageOut(message);
+
+        mTxMessages.increment();
+        mTxBytes.add(message.getData().length);
+    }
+
+    /**
+     * Get the PGNs this {@link Bus} needs from the network: those of the
+     * attached sockets, Address Claimed for the {@link AddressTable}, and
+     * those reassembly is done from.
+     *
+     * @return sorted {@code int} representations of the PGNs, or {@code null}
+     *         if everything is needed
+     */
+    protected int[] getPgnUnion() {
+        int pgns[] = mIndex.getPgnUnion();
+
+        if (pgns != null) {
+            pgns = addPgns(pgns, AddressTable.ADDRESS_CLAIMED);
+        }
+
+        if (pgns != null && mTransport != null) {
+            pgns = addPgns(pgns, TransportReassembler.TP_DT,
+                    TransportReassembler.TP_CM);
+        }
+        if (pgns != null && mExtendedTransport != null) {
+            pgns = addPgns(pgns, ExtendedTransportReassembler.ETP_DT,
+                    ExtendedTransportReassembler.ETP_CM);
+        }
+
+        return pgns;
+    }
+
+    /**
+     * Add PGNs to a sorted array of them, if missing.
+     */
+    private static int[] addPgns(int pgns[], int... more) {
+        for (int pgn : more) {
+            int i = Arrays.binarySearch(pgns, pgn);
+
+            if (i < 0) {
+                int grown[] = new int[pgns.length + 1];
+
+                i = -i - 1;
+                System.arraycopy(pgns, 0, grown, 0, i);
+                grown[i] = pgn;
+                System.arraycopy(pgns, i, grown, i + 1, pgns.length - i);
+                pgns = grown;
+            }
+        }
+
+        return pgns;
+    }
+
+    /**
+     * Called when the PGNs this {@link Bus} needs from the network may have
+     * changed.
+     *
+     * @see #getPgnUnion()
+     */
+    protected void filterChanged() {
+    }
+
+    protected boolean attach(ISOBUSSocket sock) {
+        MessageRing ring = mRing;
+        boolean routed = ring == null || sock.hasListener();
+
+        if (!routed) {
+            sock.setCursor(ring.newCursor());
+        }
+        synchronized (mAttachLock) {
+            if (!mIndex.add(sock, routed)) {
+                return false;
+            }
+            addMetrics(sock);
+        }
+        return true;
+    }
+
+    /**
+     * Give each {@link Message} straight to a socket which was reading from
+     * the ring buffer, e.g. because a {@link MessageListener} was set.
+     */
+    void route(ISOBUSSocket sock) {
+        if (mIndex.setRouted(sock, true)) {
+            sock.setCursor(null);
+        }
+    }
+
+    protected boolean detach(ISOBUSSocket sock) {
+        synchronized (mAttachLock) {
+            if (!mIndex.remove(sock)) {
+                return false;
+            }
+            mNetwork.getMetrics().removeAll(sock.getMetricPrefix());
+        }
+        return true;
+    }
+
+    /**
+     * Tell the {@link MessageListener}s of the attached sockets that they
+     * will receive nothing more, e.g. because the network is closed.
+     */
+    protected void endSockets() {
+        for (ISOBUSSocket sock : mIndex.getSockets()) {
+            sock.end();
+        }
+    }
+
+    /**
+     * Register the queue depth and drops of a socket, as
+     * <i>bus</i>{@code .socket.}<i>n</i>{@code .depth} and {@code .dropped},
+     * where <i>n</i> is its slot in the {@link PGNIndex}. The socket adds its
+     * own {@code .listener.errors}.
+     */
+    private void addMetrics(final ISOBUSSocket sock) {
+        MetricRegistry metrics = mNetwork.getMetrics();
+        String prefix = mMetricPrefix + "socket."
+                + mIndex.getSlot(sock) + ".";
+
+        sock.setMetricPrefix(prefix);
+        metrics.gauge(prefix + "depth", new Gauge() {
+            @Override
+            public long get() {
+                return sock.available();
+            }
+        });
+        metrics.gauge(prefix + "dropped", new Gauge() {
+            @Override
+            public long get() {
+                return sock.getDroppedCount();
+            }
+        });
+    }
+
+    /**
+     * @return the {@link PGNIndex} of the sockets attached to this {@link Bus}
+     */
+    protected PGNIndex getIndex() {
+        return mIndex;
+    }
+
+    public ISOBUSNetwork getNetwork() {
+        return mNetwork;
+    }
+
+    public BusType getType() {
+        return mType;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count which many threads can add to cheaply. Each thread adds to one of
+ * several cells, each on its own cache line, so threads rarely contend for
+ * the same one. Reading sums the cells.
+ *
+ * @see MetricRegistry#counter(String)
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class Counter {
+
+    /**
+     * Longs per cache line, so cells don't share one
+     */
+    private static final int PAD = 8;
+
+    private static final int MAX_CELLS = 64;
+    private static final int CELLS = cells();
+
+    private final AtomicLongArray mCells;
+
+    public Counter() {
+        mCells = new AtomicLongArray(CELLS * PAD);
+    }
+
+    /**
+     * @return a power of 2 at least the number of processors, up to
+     *         {@link #MAX_CELLS}
+     */
+    private static int cells() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int cells = 1;
+
+        while (cells < cpus && cells < MAX_CELLS) {
+            cells <<= 1;
+        }
+        return cells;
+    }
+
+    /**
+     * Add one.
+     */
+    public void increment() {
+        mCells.getAndAdd(cell(), 1);
+    }
+
+    /**
+     * @param n
+     *            how much to add
+     */
+    public void add(long n) {
+        mCells.getAndAdd(cell(), n);
+    }
+
+    /**
+     * @return the sum of everything added so far, not including adds which
+     *         happen while summing
+     */
+    public long get() {
+        long sum = 0;
+
+        for (int i = 0; i < CELLS * PAD; i += PAD) {
+            sum += mCells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * @return index of the calling thread's cell
+     */
+    private static int cell() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+
+        return ((h >>> 16) & (CELLS - 1)) * PAD;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
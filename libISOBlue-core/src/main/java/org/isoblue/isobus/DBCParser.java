@@ -0,0 +1,357 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the message and signal definitions of a CAN database (DBC) file into
+ * a {@link SignalDatabase}.
+ * <p>
+ * The file is read a line at a time, without regular expressions. Each
+ * {@code BO_} with an extended (29 bit) identifier becomes the
+ * {@link SignalDecoder} of the {@link PGN} in that identifier, and each of its
+ * {@code SG_} lines an {@link SPN}. SPN numbers are taken from
+ * {@code BA_ "SPN"} attributes, where present. When several messages have
+ * the same {@link PGN}, e.g. from different sources, the first is used.
+ * Multiplexed signals, and signals longer than {@link SPN#MAX_LENGTH} bits,
+ * are skipped.
+ * <p>
+ * Unsigned signals get the J1939 not available and error ranges for their
+ * length.
+ * 
+ * @see #load(File, File)
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class DBCParser {
+
+    /**
+     * Set in a DBC identifier which is extended
+     */
+    private static final long EXTENDED_FLAG = 0x80000000L;
+
+    private static final int ID_MASK = 0x1FFFFFFF;
+
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private DBCParser() {
+    }
+
+    /**
+     * Load a DBC file, from a cache of its parsed form if the cache is up to
+     * date. Otherwise parse the file, and write the cache for next time.
+     * 
+     * @param dbc
+     *            the DBC file
+     * @param cache
+     *            where to keep the parsed form, or {@code null} to always
+     *            parse
+     * @return the {@link SignalDatabase}
+     * @throws IOException
+     *             if the DBC file cannot be read or parsed
+     */
+    public static SignalDatabase load(File dbc, File cache)
+            throws IOException {
+        // Changing the DBC file changes its tag, so the cache is ignored
+        long tag = dbc.lastModified() ^ (dbc.length() << 32);
+        SignalDatabase db = null;
+
+        if (cache != null && cache.isFile()) {
+            InputStream in = new FileInputStream(cache);
+
+            try {
+                db = SignalDatabase.readFrom(in, tag);
+            } catch (IOException e) {
+                // Unreadable cache, parse instead
+                db = null;
+            } catch (IllegalArgumentException e) {
+                db = null;
+            } finally {
+                in.close();
+            }
+            if (db != null) {
+                return db;
+            }
+        }
+
+        InputStream in = new FileInputStream(dbc);
+        try {
+            db = parse(new InputStreamReader(in, "ISO-8859-1"));
+        } finally {
+            in.close();
+        }
+
+        if (cache != null) {
+            OutputStream out = new FileOutputStream(cache);
+
+            try {
+                db.writeTo(out, tag);
+            } finally {
+                out.close();
+            }
+        }
+
+        return db;
+    }
+
+    /**
+     * Parse a DBC file.
+     * 
+     * @param reader
+     *            the contents of the file, not closed
+     * @return the {@link SignalDatabase}
+     * @throws IOException
+     *             if reading fails, or a definition is malformed
+     */
+    public static SignalDatabase parse(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader, READ_BUFFER);
+        Map<Long, Definition> byId = new HashMap<Long, Definition>();
+        Map<Integer, Definition> byPgn =
+                new LinkedHashMap<Integer, Definition>();
+        Definition current = null;
+        boolean quoted = false;
+        String line;
+        int lineNo = 0;
+
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+
+            if (quoted) {
+                // Inside a string carried over from an earlier line
+                quoted = quotes(line) % 2 == 0;
+                continue;
+            }
+
+            String trimmed = line.trim();
+            try {
+                if (trimmed.startsWith("BO_ ")) {
+                    current = message(trimmed, byId, byPgn);
+                } else if (trimmed.startsWith("SG_ ")) {
+                    if (current != null) {
+                        current.signal(trimmed);
+                    }
+                } else {
+                    current = null;
+                    if (trimmed.startsWith("BA_ \"SPN\"")) {
+                        spn(trimmed, byId);
+                    } else {
+                        // Skip strings which go onto the next line
+                        quoted = quotes(trimmed) % 2 == 1;
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("DBC line " + lineNo + " malformed: "
+                        + line, e);
+            }
+        }
+
+        List<SignalDecoder> decoders =
+                new ArrayList<SignalDecoder>(byPgn.size());
+        for (Definition definition : byPgn.values()) {
+            SignalDecoder decoder = definition.compile();
+
+            if (decoder != null) {
+                decoders.add(decoder);
+            }
+        }
+
+        return new SignalDatabase(decoders);
+    }
+
+    /**
+     * {@code BO_ <id> <name>: <length> <sender>}
+     * 
+     * @return the {@link Definition} to add signals to, or {@code null} to
+     *         skip its signals
+     */
+    private static Definition message(String line, Map<Long, Definition> byId,
+            Map<Integer, Definition> byPgn) {
+        int start = 4;
+        int end = line.indexOf(' ', start);
+        long id = Long.parseLong(line.substring(start, end));
+        int pgn;
+
+        if ((id & EXTENDED_FLAG) == 0 || (id & ID_MASK) == 0) {
+            // Not J1939, or the pseudo message of unassigned signals
+            return null;
+        }
+
+        pgn = (int) (id >> 8) & 0x3FFFF;
+        if ((pgn & 0xFF00) < 0xF000) {
+            // PDU1, the PDU specific is the destination
+            pgn &= 0x3FF00;
+        }
+
+        if (byPgn.containsKey(pgn)) {
+            return null;
+        }
+
+        Definition definition = new Definition(pgn);
+        byId.put(id, definition);
+        byPgn.put(pgn, definition);
+        return definition;
+    }
+
+    /**
+     * {@code BA_ "SPN" SG_ <id> <signal> <spn>;}
+     */
+    private static void spn(String line, Map<Long, Definition> byId) {
+        String fields[] = line.substring(0, line.lastIndexOf(';')).split(" ");
+        Definition definition;
+
+        if (fields.length != 6 || !"SG_".equals(fields[2])) {
+            return;
+        }
+        definition = byId.get(Long.parseLong(fields[3]));
+        if (definition != null) {
+            Signal signal = definition.mSignals.get(fields[4]);
+
+            if (signal != null) {
+                signal.mNumber = Integer.parseInt(fields[5]);
+            }
+        }
+    }
+
+    private static int quotes(String line) {
+        int count = 0;
+
+        for (int i = line.indexOf('"'); i >= 0; i = line.indexOf('"', i + 1)) {
+            if (i == 0 || line.charAt(i - 1) != '\\') {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * A message, until all its signals and attributes have been read.
+     */
+    private static final class Definition {
+
+        final int mPgn;
+        final Map<String, Signal> mSignals;
+
+        Definition(int pgn) {
+            mPgn = pgn;
+            mSignals = new LinkedHashMap<String, Signal>();
+        }
+
+        /**
+         * {@code SG_ <name> [M|m<n>] : <start>|<length>@<order><sign>
+         * (<scale>,<offset>) [<min>|<max>] "<unit>" <receivers>}
+         */
+        void signal(String line) {
+            int colon = line.indexOf(':');
+            String names[] = line.substring(4, colon).trim().split(" +");
+            Signal signal = new Signal();
+            int bar, at, open, comma, close, quote;
+
+            if (names.length > 1 && names[1].startsWith("m")) {
+                // Only means something for one value of the multiplexor
+                return;
+            }
+
+            bar = line.indexOf('|', colon);
+            at = line.indexOf('@', bar);
+            open = line.indexOf('(', at);
+            comma = line.indexOf(',', open);
+            close = line.indexOf(')', comma);
+            quote = line.indexOf('"', close);
+
+            signal.mName = names[0];
+            signal.mStartBit = Integer.parseInt(line.substring(colon + 1, bar)
+                    .trim());
+            signal.mLength = Integer.parseInt(line.substring(bar + 1, at));
+            signal.mBigEndian = line.charAt(at + 1) == '0';
+            signal.mSigned = line.charAt(at + 2) == '-';
+            signal.mScale = Double.parseDouble(line.substring(open + 1,
+                    comma));
+            signal.mOffset = Double.parseDouble(line.substring(comma + 1,
+                    close));
+            if (quote >= 0) {
+                String unit = line.substring(quote + 1, line.indexOf('"',
+                        quote + 1));
+
+                signal.mUnit = unit.length() == 0 ? null : unit;
+            }
+
+            if (signal.mLength < 1 || signal.mLength > SPN.MAX_LENGTH) {
+                return;
+            }
+            mSignals.put(signal.mName, signal);
+        }
+
+        SignalDecoder compile() {
+            List<SPN> spns = new ArrayList<SPN>(mSignals.size());
+
+            for (Signal signal : mSignals.values()) {
+                try {
+                    spns.add(signal.toSpn(mPgn));
+                } catch (IllegalArgumentException e) {
+                    // Does not fit in 8 bytes, e.g. CAN FD
+                }
+            }
+
+            return spns.isEmpty() ? null : SignalDecoder.compile(spns);
+        }
+    }
+
+    private static final class Signal {
+
+        String mName;
+        int mNumber;
+        int mStartBit;
+        int mLength;
+        boolean mBigEndian;
+        boolean mSigned;
+        double mScale;
+        double mOffset;
+        String mUnit;
+
+        SPN toSpn(int pgn) {
+            return new SPN(mNumber, mName, pgn, mStartBit, mLength,
+                    mBigEndian ? ByteOrder.BIG_ENDIAN
+                            : ByteOrder.LITTLE_ENDIAN, mSigned, mScale,
+                    mOffset, mUnit, mSigned ? SPN.NONE : SPN
+                            .notAvailable(mLength), mSigned ? SPN.NONE : SPN
+                            .error(mLength));
+        }
+    }
+}
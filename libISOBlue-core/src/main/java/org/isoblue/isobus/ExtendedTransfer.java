@@ -0,0 +1,130 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+/**
+ * One transfer made with the Extended Transport Protocol, and how far along
+ * it is.
+ *
+ * @see TransferConsumer
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class ExtendedTransfer {
+
+    private final PGN mPgn;
+    private final short mSrcAddr;
+    private final short mDestAddr;
+    private final int mSize;
+    private final long mStart;
+    private volatile long mLast;
+    private volatile int mTransferred;
+
+    ExtendedTransfer(PGN pgn, short srcAddr, short destAddr, int size,
+            long start) {
+        mPgn = pgn;
+        mSrcAddr = srcAddr;
+        mDestAddr = destAddr;
+        mSize = size;
+        mStart = mLast = start;
+        mTransferred = 0;
+    }
+
+    /**
+     * Record more data written.
+     */
+    void advance(int bytes, long now) {
+        mTransferred += bytes;
+        mLast = now;
+    }
+
+    /**
+     * @return the {@link PGN} of the data
+     */
+    public PGN getPgn() {
+        return mPgn;
+    }
+
+    /**
+     * @return the address of the sender
+     */
+    public short getSrcAddr() {
+        return mSrcAddr;
+    }
+
+    /**
+     * @return the address of the receiver
+     */
+    public short getDestAddr() {
+        return mDestAddr;
+    }
+
+    /**
+     * @return the total number of bytes being transferred
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return how many bytes have been written so far
+     */
+    public int getTransferred() {
+        return mTransferred;
+    }
+
+    /**
+     * @return the time the transfer started, in &micro;s since the epoch
+     */
+    public long getStartTime() {
+        return mStart;
+    }
+
+    /**
+     * @return the time data was last written, in &micro;s since the epoch
+     */
+    public long getLastTime() {
+        return mLast;
+    }
+
+    /**
+     * @return bytes written per second so far, 0 if no time has passed
+     */
+    public long getThroughput() {
+        long elapsed = mLast - mStart;
+
+        return elapsed <= 0 ? 0 : mTransferred * 1000000L / elapsed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ETP " + mPgn + " SA:" + mSrcAddr + " DA:" + mDestAddr + " "
+                + mTransferred + "/" + mSize;
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams the data of transfers made with the ISO 11783-3 Extended Transport
+ * Protocol (ETP) to a {@link TransferConsumer}, as packets arrive.
+ * <p>
+ * An ETP transfer is sent in windows of at most 255 packets, each started by
+ * a DPO giving the offset of its first packet. Only one window per session is
+ * held in memory, in a buffer allocated up front, so a session never takes
+ * more than {@link TransportReassembler#MAX_SIZE} bytes however large the
+ * transfer. Each window is written out once all of its packets arrive.
+ * Windows resent after already being written are skipped, and a session which
+ * skips ahead of what was written fails.
+ * <p>
+ * Times are taken from the {@link Message}s, so reassembling buffered data
+ * behaves the same as live data.
+ *
+ * @see Bus#setExtendedTransportReassembly(int, TransferConsumer)
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class ExtendedTransportReassembler {
+
+    /**
+     * {@link PGN} of ETP.CM, the connection management packets
+     */
+    public static final int ETP_CM = 0x00C800;
+
+    /**
+     * {@link PGN} of ETP.DT, the data packets
+     */
+    public static final int ETP_DT = 0x00C700;
+
+    /**
+     * Most bytes one transfer can carry
+     */
+    public static final int MAX_SIZE = 117440505;
+
+    /**
+     * Timeout between packets of a session (T2 and T3), in &micro;s
+     */
+    public static final long TIMEOUT = TransportReassembler.CMDT_TIMEOUT;
+
+    /**
+     * Default number of sessions tracked at once
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 4;
+
+    /*
+     * Control bytes of ETP.CM
+     */
+    static final int CM_RTS = 20;
+    static final int CM_CTS = 21;
+    static final int CM_DPO = 22;
+    static final int CM_EOMA = 23;
+    static final int CM_ABORT = 255;
+
+    private static final int BYTES_PER_PACKET = 7;
+
+    private final TransferConsumer mConsumer;
+    private final Session mSessions[];
+
+    /*
+     * Metrics, only written by the thread reassembling
+     */
+    private volatile int mActive;
+    private volatile long mCompleted;
+    private volatile long mFailed;
+    private volatile long mRejected;
+    private volatile long mBytes;
+    private volatile long mLastThroughput;
+
+    /**
+     * @param maxSessions
+     *            how many sessions to track at once, each takes
+     *            {@link TransportReassembler#MAX_SIZE} bytes
+     * @param consumer
+     *            the {@link TransferConsumer} to stream data to
+     */
+    public ExtendedTransportReassembler(int maxSessions,
+            TransferConsumer consumer) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("maxSessions must be positive, "
+                    + "given " + maxSessions);
+        }
+        if (consumer == null) {
+            throw new NullPointerException("Parameter consumer was null");
+        }
+
+        mConsumer = consumer;
+        mSessions = new Session[maxSessions];
+        for (int i = 0; i < maxSessions; i++) {
+            mSessions[i] = new Session();
+        }
+    }
+
+    /**
+     * Take in a received {@link Message}. Only ETP.CM and ETP.DT
+     * {@link Message}s are looked at. Must only be called from one thread.
+     *
+     * @param message
+     *            the received {@link Message}
+     */
+    public void receive(Message message) {
+        switch (message.getPgn().asInt()) {
+        case ETP_CM:
+            connectionManagement(message);
+            break;
+
+        case ETP_DT:
+            dataTransfer(message);
+            break;
+
+        default:
+            break;
+        }
+    }
+
+    private void connectionManagement(Message message) {
+        byte data[] = message.getData();
+        short src = message.getSrcAddr();
+        short dest = message.getDestAddr();
+        long now = message.getTimeStamp();
+        Session session;
+
+        if (data.length < 8) {
+            return;
+        }
+
+        expire(now);
+
+        switch (data[0] & 0xFF) {
+        case CM_RTS:
+            session = find(src, dest);
+            if (session != null) {
+                // A new session replaces the old one
+                end(session, false);
+            }
+            start(src, dest, data, now);
+            break;
+
+        case CM_DPO:
+            session = find(src, dest);
+            if (session != null && session.mPgn == pgn(data)) {
+                session.window(data[1] & 0xFF, int24(data, 2), now);
+            }
+            break;
+
+        case CM_ABORT:
+            // Either end can abort
+            session = find(src, dest);
+            if (session == null) {
+                session = find(dest, src);
+            }
+            if (session != null && session.mPgn == pgn(data)) {
+                end(session, false);
+            }
+            break;
+
+        default:
+            // CTS and EoMA only matter to the two ends
+            break;
+        }
+    }
+
+    private void start(short src, short dest, byte data[], long now) {
+        int size = (data[1] & 0xFF) | (data[2] & 0xFF) << 8
+                | (data[3] & 0xFF) << 16 | (data[4] & 0xFF) << 24;
+        int pgn = pgn(data);
+        Session session;
+        WritableByteChannel channel;
+
+        if (size <= 0 || size > MAX_SIZE || !PGN.isValid(pgn)) {
+            return;
+        }
+
+        session = free();
+        if (session == null) {
+            mRejected++;
+            return;
+        }
+
+        ExtendedTransfer transfer = new ExtendedTransfer(PGN.valueOf(pgn),
+                src, dest, size, now);
+        try {
+            channel = mConsumer.open(transfer);
+        } catch (IOException e) {
+            mFailed++;
+            mConsumer.closed(transfer, false);
+            return;
+        }
+        if (channel == null) {
+            mRejected++;
+            mConsumer.closed(transfer, false);
+            return;
+        }
+
+        session.start(src, dest, pgn, size, transfer, channel, now);
+        mActive++;
+    }
+
+    private void dataTransfer(Message message) {
+        byte data[] = message.getData();
+        long now = message.getTimeStamp();
+        Session session;
+
+        if (data.length < 1) {
+            return;
+        }
+
+        session = find(message.getSrcAddr(), message.getDestAddr());
+        if (session == null) {
+            return;
+        }
+        if (now - session.mLast > TIMEOUT) {
+            end(session, false);
+            return;
+        }
+        if (!session.packet(data, now)) {
+            return;
+        }
+
+        // The window is whole, write out what is new in it
+        int written;
+        try {
+            written = session.flush();
+        } catch (IOException e) {
+            written = -1;
+        }
+        if (written < 0) {
+            end(session, false);
+            return;
+        }
+
+        session.mTransfer.advance(written, now);
+        mBytes += written;
+        if (session.mTransfer.getTransferred() == session.mTransfer.getSize()) {
+            end(session, true);
+        }
+    }
+
+    /**
+     * Drop sessions which have gone too long without a packet.
+     */
+    private void expire(long now) {
+        for (Session session : mSessions) {
+            if (session.mActive && now - session.mLast > TIMEOUT) {
+                end(session, false);
+            }
+        }
+    }
+
+    private Session find(short src, short dest) {
+        for (Session session : mSessions) {
+            if (session.mActive && session.mSrc == src
+                    && session.mDest == dest) {
+                return session;
+            }
+        }
+
+        return null;
+    }
+
+    private Session free() {
+        for (Session session : mSessions) {
+            if (!session.mActive) {
+                return session;
+            }
+        }
+
+        return null;
+    }
+
+    private void end(Session session, boolean complete) {
+        ExtendedTransfer transfer = session.mTransfer;
+
+        session.mActive = false;
+        session.mTransfer = null;
+        mActive--;
+
+        try {
+            session.mChannel.close();
+        } catch (IOException e) {
+            complete = false;
+        }
+        session.mChannel = null;
+
+        if (complete) {
+            mCompleted++;
+            mLastThroughput = transfer.getThroughput();
+        } else {
+            mFailed++;
+        }
+
+        mConsumer.closed(transfer, complete);
+    }
+
+    private static int int24(byte data[], int off) {
+        return (data[off] & 0xFF) | (data[off + 1] & 0xFF) << 8
+                | (data[off + 2] & 0xFF) << 16;
+    }
+
+    private static int pgn(byte data[]) {
+        return int24(data, 5);
+    }
+
+    /**
+     * @return how many sessions are being reassembled
+     */
+    public int getSessionCount() {
+        return mActive;
+    }
+
+    /**
+     * @return how many sessions can be reassembled at once
+     */
+    public int getMaxSessions() {
+        return mSessions.length;
+    }
+
+    /**
+     * @return how many transfers were completely written
+     */
+    public long getCompletedCount() {
+        return mCompleted;
+    }
+
+    /**
+     * @return how many transfers were aborted, timed out, replaced or could
+     *         not be opened or written
+     */
+    public long getFailedCount() {
+        return mFailed;
+    }
+
+    /**
+     * @return how many transfers were ignored because all sessions were in
+     *         use or the {@link TransferConsumer} did not want them
+     */
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    /**
+     * @return how many bytes have been written, over all transfers
+     */
+    public long getBytesTransferred() {
+        return mBytes;
+    }
+
+    /**
+     * @return bytes per second of the last completed transfer
+     */
+    public long getLastThroughput() {
+        return mLastThroughput;
+    }
+
+    /**
+     * One session and its preallocated window buffer.
+     */
+    private static final class Session {
+
+        final byte mBuf[] = new byte[TransportReassembler.MAX_SIZE];
+        final ByteBuffer mBuffer = ByteBuffer.wrap(mBuf);
+
+        /**
+         * Which packets of the window have arrived, by sequence number - 1
+         */
+        final long mReceived[] = new long[4];
+
+        boolean mActive;
+        short mSrc;
+        short mDest;
+        int mPgn;
+        int mSize;
+        long mLast;
+        ExtendedTransfer mTransfer;
+        WritableByteChannel mChannel;
+
+        /*
+         * Current window, packets counted from the start of the transfer
+         */
+        int mOffset;
+        int mPackets;
+        int mCount;
+
+        void start(short src, short dest, int pgn, int size,
+                ExtendedTransfer transfer, WritableByteChannel channel,
+                long now) {
+            mActive = true;
+            mSrc = src;
+            mDest = dest;
+            mPgn = pgn;
+            mSize = size;
+            mLast = now;
+            mTransfer = transfer;
+            mChannel = channel;
+            mPackets = 0;
+        }
+
+        /**
+         * Start a new window from a DPO, dropping any unfinished one.
+         */
+        void window(int packets, int offset, long now) {
+            mOffset = offset;
+            mPackets = packets;
+            mCount = 0;
+            mLast = now;
+            for (int i = 0; i < mReceived.length; i++) {
+                mReceived[i] = 0;
+            }
+        }
+
+        /**
+         * Copy in an ETP.DT packet.
+         *
+         * @return {@code true} if every packet of the window has now arrived
+         */
+        boolean packet(byte data[], long now) {
+            int seq = data[0] & 0xFF;
+            long pos;
+            int off, len;
+
+            if (seq < 1 || seq > mPackets) {
+                return false;
+            }
+            mLast = now;
+
+            off = (seq - 1) * BYTES_PER_PACKET;
+            pos = (long) (mOffset + seq - 1) * BYTES_PER_PACKET;
+            len = (int) Math.min(Math.min(BYTES_PER_PACKET, mSize - pos),
+                    data.length - 1);
+            if (len > 0) {
+                System.arraycopy(data, 1, mBuf, off, len);
+            }
+
+            long bit = 1L << ((seq - 1) & 63);
+            if ((mReceived[(seq - 1) >> 6] & bit) == 0) {
+                mReceived[(seq - 1) >> 6] |= bit;
+                mCount++;
+            }
+
+            return mCount == mPackets;
+        }
+
+        /**
+         * Write the part of the finished window not already written.
+         *
+         * @return how many bytes were written, or -1 if the window starts
+         *         after what was written and so the session cannot continue
+         */
+        int flush() throws IOException {
+            long written = mTransfer.getTransferred();
+            long start = (long) mOffset * BYTES_PER_PACKET;
+            long end = Math.min(start + (long) mPackets * BYTES_PER_PACKET,
+                    mSize);
+
+            mPackets = 0;
+            if (start > written) {
+                return -1;
+            }
+            if (end <= written) {
+                // Resent, already have it
+                return 0;
+            }
+
+            mBuffer.limit((int) (end - start));
+            mBuffer.position((int) (written - start));
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+
+            return (int) (end - written);
+        }
+    }
+}
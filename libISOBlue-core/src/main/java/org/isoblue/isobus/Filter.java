@@ -0,0 +1,504 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Expression over the {@link PGN}, source address, and destination address of
+ * a {@link Message}, used to choose what an {@link ISOBUSSocket} receives.
+ * <p>
+ * {@link Filter}s are built from the static factories and combined with
+ * {@link #and(Filter)}, {@link #or(Filter)}, and {@link #not()}. For example,
+ * all proprietary B PGNs from addresses 0x80 to 0x87 is:
+ * 
+ * <pre>
+ * Filter.pgnRange(0xFF00, 0xFFFF).and(Filter.srcAddrs(0x80, 0x87))
+ * </pre>
+ * 
+ * Each {@link Filter} is kept compiled as an OR of terms, where a term is a
+ * bitmap over the 18 bit PGN space and a bitset for each address. Matching a
+ * {@link Message} against a term is one array probe per field. Filters are
+ * immutable.
+ *
+ * @see ISOBUSSocket#ISOBUSSocket(Bus, NAME, Filter)
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class Filter {
+
+    private static final int PGN_SPACE = 1 << 18;
+    private static final int ADDR_SPACE = 1 << 8;
+
+    /**
+     * {@link Filter} matching every {@link Message}.
+     */
+    public static final Filter ALL = new Filter(new Term(null, null, null));
+
+    /**
+     * {@link Filter} matching no {@link Message}.
+     */
+    public static final Filter NONE = new Filter();
+
+    /**
+     * One AND of a set of PGNs, source addresses, and destination addresses.
+     * A {@code null} set allows any value.
+     */
+    private static final class Term {
+
+        private final long mPgns[];
+        private final long mSrcAddrs[];
+        private final long mDestAddrs[];
+
+        private Term(long pgns[], long srcAddrs[], long destAddrs[]) {
+            mPgns = pgns;
+            mSrcAddrs = srcAddrs;
+            mDestAddrs = destAddrs;
+        }
+
+        private boolean matches(int pgn, int srcAddr, int destAddr) {
+            return (mPgns == null || test(mPgns, pgn))
+                    && (mSrcAddrs == null || test(mSrcAddrs, srcAddr))
+                    && (mDestAddrs == null || test(mDestAddrs, destAddr));
+        }
+
+        /**
+         * @return a {@link Term} matching what both this and {@code t} do, or
+         *         {@code null} if that is nothing
+         */
+        private Term and(Term t) {
+            long pgns[] = andBits(mPgns, t.mPgns);
+            long srcAddrs[] = andBits(mSrcAddrs, t.mSrcAddrs);
+            long destAddrs[] = andBits(mDestAddrs, t.mDestAddrs);
+
+            if (isEmpty(pgns) || isEmpty(srcAddrs) || isEmpty(destAddrs)) {
+                return null;
+            }
+
+            return new Term(pgns, srcAddrs, destAddrs);
+        }
+
+        /**
+         * @return a {@link Term} matching what either this or {@code t} do, or
+         *         {@code null} if no single {@link Term} can
+         */
+        private Term or(Term t) {
+            boolean samePgns = Arrays.equals(mPgns, t.mPgns);
+            boolean sameSrcAddrs = Arrays.equals(mSrcAddrs, t.mSrcAddrs);
+            boolean sameDestAddrs = Arrays.equals(mDestAddrs, t.mDestAddrs);
+
+            if (sameSrcAddrs && sameDestAddrs) {
+                return new Term(orBits(mPgns, t.mPgns), mSrcAddrs,
+                        mDestAddrs);
+            }
+            if (samePgns && sameDestAddrs) {
+                return new Term(mPgns, orBits(mSrcAddrs, t.mSrcAddrs),
+                        mDestAddrs);
+            }
+            if (samePgns && sameSrcAddrs) {
+                return new Term(mPgns, mSrcAddrs, orBits(mDestAddrs,
+                        t.mDestAddrs));
+            }
+
+            return null;
+        }
+
+        /**
+         * @return the {@link Term}s whose OR matches what this does not
+         */
+        private List<Term> not() {
+            List<Term> terms = new ArrayList<Term>(3);
+
+            if (mPgns != null) {
+                terms.add(new Term(notBits(mPgns), null, null));
+            }
+            if (mSrcAddrs != null) {
+                terms.add(new Term(null, notBits(mSrcAddrs), null));
+            }
+            if (mDestAddrs != null) {
+                terms.add(new Term(null, null, notBits(mDestAddrs)));
+            }
+
+            return terms;
+        }
+    }
+
+    private final Term mTerms[];
+
+    private Filter(Term... terms) {
+        mTerms = terms;
+    }
+
+    private Filter(List<Term> terms) {
+        this(terms.toArray(new Term[terms.size()]));
+    }
+
+    /**
+     * Get a {@link Filter} matching the given {@link PGN}.
+     *
+     * @param pgn
+     *            the {@link PGN}
+     * @return the {@link Filter}
+     */
+    public static Filter pgn(PGN pgn) {
+        return pgns(Arrays.asList(pgn));
+    }
+
+    /**
+     * Get a {@link Filter} matching any of the given {@link PGN}s.
+     *
+     * @param pgns
+     *            the {@link PGN}s
+     * @return the {@link Filter}
+     */
+    public static Filter pgns(Collection<PGN> pgns) {
+        long bits[] = new long[PGN_SPACE / Long.SIZE];
+
+        for (PGN pgn : pgns) {
+            set(bits, pgn.asInt());
+        }
+
+        return of(bits, null, null);
+    }
+
+    /**
+     * Get a {@link Filter} matching the PGNs from {@code first} to
+     * {@code last}, inclusive.
+     *
+     * @param first
+     *            the lowest PGN to match
+     * @param last
+     *            the highest PGN to match
+     * @return the {@link Filter}
+     */
+    public static Filter pgnRange(int first, int last) {
+        return of(range(first, last, PGN_SPACE), null, null);
+    }
+
+    /**
+     * Get a {@link Filter} matching the PGNs which equal {@code value} in the
+     * bits set in {@code mask}. For example, value 0xEF00 and mask 0x3FF00
+     * match proprietary A messages to any destination.
+     *
+     * @param value
+     *            the bits to match
+     * @param mask
+     *            which bits of a PGN to compare to {@code value}
+     * @return the {@link Filter}
+     */
+    public static Filter pgnMask(int value, int mask) {
+        long bits[] = new long[PGN_SPACE / Long.SIZE];
+
+        mask &= PGN_SPACE - 1;
+        value &= mask;
+        for (int pgn = 0; pgn < PGN_SPACE; pgn++) {
+            if ((pgn & mask) == value) {
+                set(bits, pgn);
+            }
+        }
+
+        return of(bits, null, null);
+    }
+
+    /**
+     * Get a {@link Filter} matching source addresses from {@code first} to
+     * {@code last}, inclusive.
+     *
+     * @param first
+     *            the lowest address to match
+     * @param last
+     *            the highest address to match
+     * @return the {@link Filter}
+     */
+    public static Filter srcAddrs(int first, int last) {
+        return of(null, range(first, last, ADDR_SPACE), null);
+    }
+
+    /**
+     * Get a {@link Filter} matching destination addresses from {@code first}
+     * to {@code last}, inclusive.
+     *
+     * @param first
+     *            the lowest address to match
+     * @param last
+     *            the highest address to match
+     * @return the {@link Filter}
+     */
+    public static Filter destAddrs(int first, int last) {
+        return of(null, null, range(first, last, ADDR_SPACE));
+    }
+
+    private static Filter of(long pgns[], long srcAddrs[], long destAddrs[]) {
+        if (isEmpty(pgns) || isEmpty(srcAddrs) || isEmpty(destAddrs)) {
+            return NONE;
+        }
+
+        return new Filter(new Term(pgns, srcAddrs, destAddrs));
+    }
+
+    /**
+     * Get a {@link Filter} matching what both this and {@code f} match.
+     *
+     * @param f
+     *            the other {@link Filter}
+     * @return the {@link Filter}
+     */
+    public Filter and(Filter f) {
+        List<Term> terms = new ArrayList<Term>();
+
+        for (Term a : mTerms) {
+            for (Term b : f.mTerms) {
+                Term t = a.and(b);
+
+                if (t != null) {
+                    terms.add(t);
+                }
+            }
+        }
+
+        return new Filter(merge(terms));
+    }
+
+    /**
+     * Get a {@link Filter} matching what either this or {@code f} match.
+     *
+     * @param f
+     *            the other {@link Filter}
+     * @return the {@link Filter}
+     */
+    public Filter or(Filter f) {
+        List<Term> terms = new ArrayList<Term>(Arrays.asList(mTerms));
+
+        terms.addAll(Arrays.asList(f.mTerms));
+
+        return new Filter(merge(terms));
+    }
+
+    /**
+     * Get a {@link Filter} matching what this does not match.
+     *
+     * @return the {@link Filter}
+     */
+    public Filter not() {
+        Filter result = ALL;
+
+        for (Term t : mTerms) {
+            result = result.and(new Filter(t.not()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Combine {@link Term}s which differ in only one field, so there are
+     * fewer to check when matching.
+     */
+    private static List<Term> merge(List<Term> terms) {
+        boolean merged;
+
+        do {
+            merged = false;
+            for (int i = 0; i < terms.size() && !merged; i++) {
+                for (int j = i + 1; j < terms.size() && !merged; j++) {
+                    Term t = terms.get(i).or(terms.get(j));
+
+                    if (t != null) {
+                        terms.set(i, t);
+                        terms.remove(j);
+                        merged = true;
+                    }
+                }
+            }
+        } while (merged);
+
+        return terms;
+    }
+
+    /**
+     * Check whether this {@link Filter} matches a {@link Message}.
+     *
+     * @param message
+     *            the {@link Message}
+     * @return {@code true} if it matches, otherwise {@code false}
+     */
+    public boolean matches(Message message) {
+        return matches(message.getPgn().asInt(), message.getSrcAddr(),
+                message.getDestAddr());
+    }
+
+    /**
+     * Check whether this {@link Filter} matches the given fields of a
+     * {@link Message}.
+     *
+     * @param pgn
+     *            the PGN
+     * @param srcAddr
+     *            the source address
+     * @param destAddr
+     *            the destination address
+     * @return {@code true} if they match, otherwise {@code false}
+     */
+    public boolean matches(int pgn, int srcAddr, int destAddr) {
+        pgn &= PGN_SPACE - 1;
+        srcAddr &= ADDR_SPACE - 1;
+        destAddr &= ADDR_SPACE - 1;
+
+        for (Term t : mTerms) {
+            if (t.matches(pgn, srcAddr, destAddr)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the {@link PGN}s this {@link Filter} can match, if there are not too
+     * many.
+     *
+     * @param limit
+     *            the most {@link PGN}s to return
+     * @return the {@link PGN}s, or {@code null} if there are more than
+     *         {@code limit}
+     */
+    public Set<PGN> getPgns(int limit) {
+        long bits[] = null;
+        Set<PGN> pgns = new HashSet<PGN>();
+
+        for (Term t : mTerms) {
+            if (t.mPgns == null) {
+                return null;
+            }
+            bits = bits == null ? t.mPgns : orBits(bits, t.mPgns);
+        }
+
+        for (int i = 0; bits != null && i < bits.length; i++) {
+            long word = bits[i];
+
+            while (word != 0) {
+                int pgn = i * Long.SIZE + Long.numberOfTrailingZeros(word);
+
+                word &= word - 1;
+                if (!PGN.isValid(pgn)) {
+                    continue;
+                }
+                if (pgns.size() == limit) {
+                    return null;
+                }
+                pgns.add(PGN.valueOf(pgn));
+            }
+        }
+
+        return pgns;
+    }
+
+    private static boolean test(long bits[], int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void set(long bits[], int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    private static long[] range(int first, int last, int space) {
+        long bits[];
+
+        if (first < 0 || last >= space || first > last) {
+            throw new IllegalArgumentException("Invalid range: " + first
+                    + " to " + last);
+        }
+
+        bits = new long[space / Long.SIZE];
+        for (int i = first; i <= last; i++) {
+            set(bits, i);
+        }
+
+        return bits;
+    }
+
+    /**
+     * @return {@code false} for {@code null}, which allows everything
+     */
+    private static boolean isEmpty(long bits[]) {
+        if (bits == null) {
+            return false;
+        }
+
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long[] andBits(long a[], long b[]) {
+        long bits[];
+
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+
+        bits = new long[a.length];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = a[i] & b[i];
+        }
+
+        return bits;
+    }
+
+    private static long[] orBits(long a[], long b[]) {
+        long bits[];
+
+        if (a == null || b == null) {
+            return null;
+        }
+
+        bits = new long[a.length];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = a[i] | b[i];
+        }
+
+        return bits;
+    }
+
+    private static long[] notBits(long a[]) {
+        long bits[] = new long[a.length];
+
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = ~a[i];
+        }
+
+        return bits;
+    }
+}
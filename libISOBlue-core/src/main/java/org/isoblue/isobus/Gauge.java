@@ -1,7 +1,7 @@
 /*
- * Author: Alex Layton <awlayton@purdue.edu>
+ * Author: Alex Layton <alex@layton.in>
  * 
- * Copyright (c) 2013 Purdue University
+ * Copyright (c) 2014 Purdue University
  * 
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -24,9 +24,17 @@
 
 package org.isoblue.isobus;
 
-public abstract class ISOBUSNetwork {
-
-    public abstract Bus getEngineBus();
+/**
+ * A value read only when a {@link MetricSnapshot} is taken, such as a queue
+ * depth, so it costs nothing until then.
+ *
+ * @see MetricRegistry#gauge(String, Gauge)
+ * @author Alex Layton <alex@layton.in>
+ */
+public interface Gauge {
 
-    public abstract Bus getImplementBus();
+    /**
+     * @return the current value
+     */
+    long get();
 }
@@ -0,0 +1,143 @@
+/*
+ * Author: Alex Layton <awlayton@purdue.edu>
+ * 
+ * Copyright (c) 2013 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+public abstract class ISOBUSNetwork {
+
+    private final MetricRegistry mMetrics = new MetricRegistry();
+
+    /**
+     * Trace every this many received frames, 0 for none
+     */
+    private volatile int mTraceSampling;
+    /**
+     * Frames left until the next traced one, only used by the read thread
+     */
+    private int mTraceCountdown;
+    private final LatencyHistogram mTraceWait = mMetrics
+            .histogram("trace.wait");
+    private final LatencyHistogram mTracePickup = mMetrics
+            .histogram("trace.pickup");
+
+    public abstract Bus getEngineBus();
+
+    public abstract Bus getImplementBus();
+
+    /**
+     * Get the metrics of this {@link ISOBUSNetwork}, its {@link Bus}es and
+     * their sockets, to poll with {@link MetricRegistry#snapshot()}.
+     *
+     * @return the {@link MetricRegistry}
+     */
+    public MetricRegistry getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Time one in every {@code every} received frames through each stage of
+     * receiving it, into {@link LatencyHistogram}s named {@code trace.}
+     * <i>stage</i>. Those common to every {@link ISOBUSNetwork} are:
+     * <dl>
+     * <dt>{@code trace.wait}</dt>
+     * <dd>from being handed to a socket until it was read from, i.e. how long
+     * the {@link Message} sat in its buffer</dd>
+     * <dt>{@code trace.pickup}</dt>
+     * <dd>from then until the reader had the {@link Message}, including
+     * waking it up if it was already waiting</dd>
+     * </dl>
+     * They are recorded each time a socket reads a traced {@link Message},
+     * by {@link ISOBUSSocket#read()} or {@link ISOBUSSocket#readBatch(int,
+     * long, java.util.concurrent.TimeUnit)}, or when a
+     * {@link MessageListener} with an {@link java.util.concurrent.Executor}
+     * is called, counting the time in the executor as waiting. Subclasses
+     * add the stages before.
+     * <p>
+     * Frames which are not sampled cost one {@code int} decrement, so
+     * sampling can stay on.
+     *
+     * @param every
+     *            how many frames per traced one, or 0 to stop tracing
+     */
+    public void setTraceSampling(int every) {
+        if (every < 0) {
+            throw new IllegalArgumentException("sampling must not be "
+                    + "negative, given " + every);
+        }
+        mTraceSampling = every;
+    }
+
+    /**
+     * @return how many received frames there are per traced one, 0 if none
+     *         are traced
+     */
+    public int getTraceSampling() {
+        return mTraceSampling;
+    }
+
+    /**
+     * @return whether frames are being traced
+     */
+    protected boolean isTracing() {
+        return mTraceSampling != 0;
+    }
+
+    /**
+     * Decide whether to trace a received frame. Must only be called once per
+     * frame, from the thread which reads from the network.
+     *
+     * @return {@code true} for one in every {@link #getTraceSampling()}
+     *         frames
+     */
+    protected boolean sampleTrace() {
+        int every = mTraceSampling;
+
+        if (every == 0 || --mTraceCountdown > 0) {
+            return false;
+        }
+
+        mTraceCountdown = every;
+        return true;
+    }
+
+    /**
+     * Record how long a traced {@link Message} waited for a socket to read
+     * it, and how long the reader took to pick it up.
+     *
+     * @param message
+     *            the traced {@link Message}
+     * @param called
+     *            when the reader started reading, from
+     *            {@link System#nanoTime()}, or 0 if not known
+     */
+    void tracePickup(Message message, long called) {
+        long now = System.nanoTime();
+        long queued = message.getTraceNanos();
+        // The later of it being queued and the reader asking for it
+        long ready = called != 0 && called - queued > 0 ? called : queued;
+
+        mTraceWait.record(ready - queued);
+        mTracePickup.record(now - ready);
+    }
+}
@@ -0,0 +1,780 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2013 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a Socket style connection to a {@link Bus} on an ISOBUS Network.
+ * <p>
+ * This class is used to send and receive {@link Message}s using
+ * {@link #write(Message)} and {@link #read()} respectively.
+ * 
+ * @see ISOBUSNetwork
+ * @see Bus
+ * @see Message
+ * @author Alex Layton <alex@layton.in>
+ */
+public class ISOBUSSocket implements Closeable {
+
+    /**
+     * What to do with a received {@link Message} when the in buffer is full.
+     *
+     * @see ISOBUSSocket#setOverflowPolicy(int, OverflowPolicy)
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for the buffer to have room, for at most the block timeout.
+         * After that the socket is stalled and drops new {@link Message}s
+         * without waiting until it is read down to half full.
+         */
+        BLOCK,
+        /**
+         * Drop the oldest buffered {@link Message} to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the received {@link Message}.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the buffered {@link Message}s with the same {@link PGN} as the
+         * received one, or the oldest one if there are none.
+         */
+        LATEST_PER_PGN,
+    }
+
+    /**
+     * Default time a {@link OverflowPolicy#BLOCK} socket waits for room in
+     * its in buffer, in ms.
+     */
+    public static final long DEFAULT_BLOCK_TIMEOUT = 100;
+
+    private static final Logger LISTENER = Logger.getLogger("LISTENER");
+
+    /**
+     * Most {@link PGN}s of a {@link Filter} to list in {@link #mPgns}.
+     */
+    private static final int MAX_FILTER_PGNS = 256;
+
+    /**
+     * ISOBUS Bus to which this {@link ISOBUSSocket} is connected.
+     */
+    private Bus mBus;
+
+    /**
+     * ISOBUS NAME used to identify the user of this {@link ISOBUSSocket} on the
+     * network. Its address is looked up in the {@link Bus}'s
+     * {@link AddressTable}.
+     */
+    private NAME mName;
+
+    /**
+     * Used to filter what is received on this {@link ISOBUSSocket}, unless
+     * {@link #mAllPgns} is set.
+     * 
+     * @see Message
+     */
+    private Set<PGN> mPgns;
+
+    /**
+     * Whether {@link Message}s of every {@link PGN} are received, rather
+     * than only those in {@link #mPgns}.
+     */
+    private boolean mAllPgns;
+
+    /**
+     * Used to filter what is received on this {@link ISOBUSSocket}, after
+     * {@link #mPgns}.
+     * <p>
+     * If it is {@code null}, only {@link #mPgns} is used.
+     */
+    private Filter mFilter;
+
+    /**
+     * Buffer for what has been received but not yet read.
+     */
+    private MessageQueue mInMessages;
+
+    /**
+     * Given the received {@link Message}s instead of {@link #mInMessages}, if
+     * not {@code null}.
+     */
+    private volatile MessageListener mListener;
+
+    /**
+     * Set once the {@link MessageListener} has been told this socket ended.
+     */
+    private final AtomicBoolean mEnded = new AtomicBoolean();
+
+    /**
+     * Where this socket reads from its {@link Bus}'s ring buffer, or
+     * {@code null} if it uses {@link #mInMessages}.
+     */
+    private volatile MessageRing.Cursor mCursor;
+
+    /**
+     * Start of the names of this socket's metrics, given when attached
+     */
+    private volatile String mMetricPrefix;
+
+    /**
+     * Counts exceptions thrown by {@link #mListener}, once attached
+     */
+    private volatile Counter mListenerErrors;
+
+    /**
+     * Construct a new {@link ISOBUSSocket} connected to the given {@link Bus},
+     * using the given {@link NAME}, and receiving {@link Message}s with with
+     * one of the given {@link PGN}s.
+     * <p>
+     * If no {@link PGN}s are given, all {@link Message}s are received.
+     *
+     * @param bus
+     *            {@link Bus} to which to create a connection
+     * @param name
+     *            not yet used
+     * @param pgns
+     *            {@link PGN}s to receive, null treated as empty
+     * @throws IOException
+     *             when connecting to {@code bus} fails
+     */
+    public ISOBUSSocket(Bus bus, NAME name, Collection<PGN> pgns)
+            throws IOException {
+        mBus = bus;
+        mName = name;
+
+        mPgns = pgns == null ? new HashSet<PGN>() : new HashSet<PGN>(pgns);
+        mAllPgns = mPgns.isEmpty();
+        mFilter = null;
+
+        mInMessages = new MessageQueue();
+
+        if (!connect()) {
+            throw new IOException("Could not connect to bus: " + mBus);
+        }
+    }
+
+    /**
+     * Construct a new {@link ISOBUSSocket} connected to the given {@link Bus},
+     * using the given {@link NAME}, and receiving {@link Message}s which match
+     * the given {@link Filter}.
+     * <p>
+     * If the {@link Filter} can only match a few {@link PGN}s, they are used
+     * as this socket's {@link PGN}s so that others are not sent to it.
+     *
+     * @param bus
+     *            {@link Bus} to which to create a connection
+     * @param name
+     *            not yet used
+     * @param filter
+     *            {@link Filter} of what to receive, not null
+     * @throws IOException
+     *             when connecting to {@code bus} fails
+     */
+    public ISOBUSSocket(Bus bus, NAME name, Filter filter) throws IOException {
+        this(bus, name, filter, null, null);
+    }
+
+    /**
+     * Construct a new {@link ISOBUSSocket} which gives the {@link Message}s
+     * matching the given {@link Filter} to a {@link MessageListener} from the
+     * moment it is connected.
+     *
+     * @see #setListener(MessageListener, Executor)
+     */
+    ISOBUSSocket(Bus bus, NAME name, Filter filter, MessageListener listener,
+            Executor executor) throws IOException {
+        mBus = bus;
+        mName = name;
+
+        if (filter == null) {
+            throw new NullPointerException("Parameter filter was null");
+        }
+        mFilter = filter;
+        // Too many PGNs to list means all of them, but none means none
+        mPgns = filter.getPgns(MAX_FILTER_PGNS);
+        mAllPgns = mPgns == null;
+        if (mAllPgns) {
+            mPgns = new HashSet<PGN>();
+        }
+
+        mInMessages = new MessageQueue();
+        setListener(listener, executor);
+
+        if (!connect()) {
+            throw new IOException("Could not connect to bus: " + mBus);
+        }
+    }
+
+    protected boolean connect() {
+        return mBus.attach(this);
+    }
+
+    /**
+     * Writes (sends) the given {@link Message} using this {@link ISOBUSSocket}.
+     * This method may block if there is not room in corresponding the out
+     * buffer.
+     *
+     * @param message
+     *            {@link Message} to write
+     * @throws InterruptedException
+     *             if interrupted while waiting for buffer space
+     */
+    public void write(Message message) throws InterruptedException {
+        mBus.send(message);
+    }
+
+    /**
+     * Reads (receives) a {@link Message} that came to this {@link ISOBUSSOcket}
+     * . This method blocks if the in buffer is empty. {@link Message}s only go
+     * in the buffer while no {@link MessageListener} is set.
+     *
+     * @return a received {@link Message}
+     * @throws InterruptedException
+     *             if interrupted while waiting for a {@link Message}
+     * 
+     * @see #ISOBUSSocket(Bus, NAME, Collection)
+     */
+    public Message read() throws InterruptedException, IOException {
+        MessageRing.Cursor cursor = mCursor;
+        long called = traceStart();
+
+        if (cursor != null) {
+            return picked(cursor.poll(this, Long.MAX_VALUE,
+                    TimeUnit.NANOSECONDS), called);
+        }
+
+        return picked(mInMessages.take(), called);
+    }
+
+    /**
+     * Reads (receives) a {@link Message} that came to this {@link ISOBUSSOcket}
+     * , or {@code null} if the specified waiting time elapses before a
+     * {@link Message} is available
+     *
+     * @param timeout
+     *            how long to wait before giving up, in units of {@code unit}
+     * @param unit
+     *            a {@link TimeUnit} determining how to interpret the
+     *            {@code timeout} parameter
+     * @return a received {link Message}
+     * @throws InterruptedException
+     *             if interrupted while waiting for a {@link Message}
+     * 
+     * @see #ISOBUSSocket(Bus, NAME, Collection)
+     */
+    public Message read(long timeout, TimeUnit unit)
+            throws InterruptedException, IOException {
+        MessageRing.Cursor cursor = mCursor;
+        long called = traceStart();
+
+        if (cursor != null) {
+            return picked(cursor.poll(this, timeout, unit), called);
+        }
+
+        return picked(mInMessages.poll(timeout, unit), called);
+    }
+
+    /**
+     * Reads (receives) up to {@code max} {@link Message}s that came to this
+     * {@link ISOBUSSocket}, waiting only until there is at least one or the
+     * specified waiting time elapses.
+     *
+     * @param max
+     *            the most {@link Message}s to read
+     * @param timeout
+     *            how long to wait before giving up, in units of {@code unit}
+     * @param unit
+     *            a {@link TimeUnit} determining how to interpret the
+     *            {@code timeout} parameter
+     * @return the received {@link Message}s in order, empty if none came
+     * @throws InterruptedException
+     *             if interrupted while waiting for a {@link Message}
+     *
+     * @see #drainTo(Collection, int, long, TimeUnit)
+     */
+    public List<Message> readBatch(int max, long timeout, TimeUnit unit)
+            throws InterruptedException, IOException {
+        List<Message> batch = new ArrayList<Message>(Math.min(Math.max(max,
+                0), available()));
+        long called = traceStart();
+
+        drainTo(batch, max, timeout, unit);
+        if (called != 0) {
+            for (Message message : batch) {
+                picked(message, called);
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * @return when a read started, from {@link System#nanoTime()}, if the
+     *         network is tracing, otherwise 0
+     */
+    private long traceStart() {
+        return mBus.getNetwork().isTracing() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the wait and pickup of a read {@link Message}, if it is traced.
+     *
+     * @return {@code message}
+     */
+    private Message picked(Message message, long called) {
+        if (message != null && message.getTraceNanos() != 0) {
+            mBus.getNetwork().tracePickup(message, called);
+        }
+
+        return message;
+    }
+
+    /**
+     * Reads (receives) up to {@code max} {@link Message}s that came to this
+     * {@link ISOBUSSocket} into a {@link Collection}, without waiting.
+     *
+     * @param c
+     *            the {@link Collection} to add the {@link Message}s to
+     * @param max
+     *            the most {@link Message}s to read
+     * @return how many {@link Message}s were read
+     */
+    public int drainTo(Collection<? super Message> c, int max)
+            throws IOException {
+        MessageRing.Cursor cursor = mCursor;
+
+        if (cursor != null) {
+            try {
+                return cursor.drainTo(this, c, max, 0, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                // Does not wait, so keep the interrupt for the caller
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+
+        return mInMessages.drainTo(c, max);
+    }
+
+    /**
+     * Reads (receives) up to {@code max} {@link Message}s that came to this
+     * {@link ISOBUSSocket} into a {@link Collection}, waiting only until there
+     * is at least one or the specified waiting time elapses.
+     *
+     * @param c
+     *            the {@link Collection} to add the {@link Message}s to
+     * @param max
+     *            the most {@link Message}s to read
+     * @param timeout
+     *            how long to wait before giving up, in units of {@code unit}
+     * @param unit
+     *            a {@link TimeUnit} determining how to interpret the
+     *            {@code timeout} parameter
+     * @return how many {@link Message}s were read
+     * @throws InterruptedException
+     *             if interrupted while waiting for a {@link Message}
+     */
+    public int drainTo(Collection<? super Message> c, int max, long timeout,
+            TimeUnit unit) throws InterruptedException, IOException {
+        MessageRing.Cursor cursor = mCursor;
+
+        if (cursor != null) {
+            return cursor.drainTo(this, c, max, timeout, unit);
+        }
+
+        return mInMessages.drainTo(c, max, timeout, unit);
+    }
+
+    protected boolean receive(Message message) {
+        MessageListener listener = mListener;
+
+        if (listener == null) {
+            return mInMessages.offer(message);
+        }
+
+        try {
+            listener.onMessage(this, message);
+        } catch (RuntimeException e) {
+            // Do not let one listener stop delivery to the others
+            listenerFailed(e);
+        }
+        return true;
+    }
+
+    /**
+     * Tell the {@link MessageListener}, if one is set, that this socket will
+     * receive nothing more. It is only told once.
+     *
+     * @return {@code false} if there is no {@link MessageListener}
+     *
+     * @see MessageListener#onEnd(ISOBUSSocket)
+     */
+    protected boolean end() {
+        MessageListener listener = mListener;
+
+        if (listener == null) {
+            return false;
+        }
+
+        if (mEnded.compareAndSet(false, true)) {
+            try {
+                listener.onEnd(this);
+            } catch (RuntimeException e) {
+                listenerFailed(e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count and log an exception thrown by the {@link MessageListener}, as
+     * <i>socket</i>{@code .listener.errors}.
+     */
+    private void listenerFailed(RuntimeException e) {
+        Counter errors = mListenerErrors;
+
+        if (errors != null) {
+            errors.increment();
+        }
+        if (LISTENER.isLoggable(Level.WARNING)) {
+            LISTENER.log(Level.WARNING, "Listener failed on "
+                    + mBus.getType() + " bus", e);
+        }
+    }
+
+    /**
+     * Give received {@link Message}s to a {@link MessageListener} as they
+     * arrive, instead of buffering them for {@link #read()}.
+     * <p>
+     * The listener is called on the thread which reads from the network. A
+     * socket reading from its {@link Bus}'s ring buffer stops doing so, and
+     * is given each {@link Message} directly from then on.
+     *
+     * @param listener
+     *            the {@link MessageListener}, or {@code null} to go back to
+     *            buffering
+     *
+     * @see #setListener(MessageListener, Executor)
+     */
+    public void setListener(MessageListener listener) {
+        setListener(listener, null);
+    }
+
+    /**
+     * Give received {@link Message}s to a {@link MessageListener} as they
+     * arrive, instead of buffering them for {@link #read()}.
+     * <p>
+     * If an {@link Executor} is given, the listener is called by tasks run
+     * with it, so a single threaded one keeps the {@link Message}s in order.
+     * Otherwise it is called on the thread which reads from the network.
+     *
+     * @param listener
+     *            the {@link MessageListener}, or {@code null} to go back to
+     *            buffering
+     * @param executor
+     *            the {@link Executor} to call {@code listener} with, or
+     *            {@code null} to call it directly
+     */
+    public void setListener(MessageListener listener, Executor executor) {
+        if (listener == null || executor == null) {
+            mListener = listener;
+        } else {
+            mListener = onExecutor(listener, executor);
+        }
+
+        // Set the listener first, so routed Messages are not buffered
+        if (listener != null && mCursor != null) {
+            mBus.route(this);
+        }
+    }
+
+    /**
+     * @return a {@link MessageListener} which calls {@code listener} with
+     *         {@code executor}
+     */
+    private MessageListener onExecutor(final MessageListener listener,
+            final Executor executor) {
+        return new MessageListener() {
+            @Override
+            public void onMessage(final ISOBUSSocket socket,
+                    final Message message) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Time in the executor counts as waiting
+                        picked(message, System.nanoTime());
+                        try {
+                            listener.onMessage(socket, message);
+                        } catch (RuntimeException e) {
+                            listenerFailed(e);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onEnd(final ISOBUSSocket socket) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            listener.onEnd(socket);
+                        } catch (RuntimeException e) {
+                            listenerFailed(e);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Receive a {@link Message} even if the in buffer is full, for markers
+     * which must not be dropped.
+     *
+     * @param message
+     *            the {@link Message}
+     */
+    protected void receiveAlways(Message message) {
+        mInMessages.force(message);
+    }
+
+    /**
+     * @return {@code true} if a {@link MessageListener} is set
+     */
+    boolean hasListener() {
+        return mListener != null;
+    }
+
+    /**
+     * Read from a {@link Bus}'s ring buffer instead of {@link #mInMessages}.
+     */
+    void setCursor(MessageRing.Cursor cursor) {
+        mCursor = cursor;
+    }
+
+    /**
+     * @return {@code true} if this socket reads from its {@link Bus}'s ring
+     *         buffer
+     */
+    boolean readsRing() {
+        return mCursor != null;
+    }
+
+    void setMetricPrefix(String prefix) {
+        mMetricPrefix = prefix;
+        mListenerErrors = mBus.getNetwork().getMetrics()
+                .counter(prefix + "listener.errors");
+    }
+
+    /**
+     * @return start of the names of this socket's metrics
+     *
+     * @see Bus#getNetwork()
+     * @see ISOBUSNetwork#getMetrics()
+     */
+    public String getMetricPrefix() {
+        return mMetricPrefix;
+    }
+
+    /**
+     * Check whether this {@link ISOBUSSocket} receives a {@link Message}.
+     *
+     * @param message
+     *            the {@link Message}
+     * @return {@code true} if its {@link PGN} is one of this socket's and it
+     *         matches this socket's {@link Filter}, otherwise {@code false}
+     */
+    boolean accepts(Message message) {
+        return (mAllPgns || mPgns.contains(message.getPgn()))
+                && (mFilter == null || mFilter.matches(message));
+    }
+
+    /**
+     * Limit how many received {@link Message}s this {@link ISOBUSSocket}
+     * buffers, and choose what happens when more are received. By default the
+     * buffer is unbounded.
+     * <p>
+     * The read thread delivers to every socket on the network, so only
+     * {@link OverflowPolicy#BLOCK} ever makes it wait, and then only until the
+     * block timeout.
+     *
+     * @param capacity
+     *            how many {@link Message}s to buffer, at least 1
+     * @param policy
+     *            the {@link OverflowPolicy} for when the buffer is full
+     *
+     * @see #setBlockTimeout(long, TimeUnit)
+     */
+    public void setOverflowPolicy(int capacity, OverflowPolicy policy) {
+        mInMessages.setOverflow(capacity, policy);
+    }
+
+    /**
+     * Set how long a received {@link Message} waits for room when using
+     * {@link OverflowPolicy#BLOCK}. Default is
+     * {@link #DEFAULT_BLOCK_TIMEOUT}.
+     *
+     * @param time
+     *            how long to wait, in units of {@code unit}
+     * @param unit
+     *            a {@link TimeUnit} determining how to interpret {@code time}
+     */
+    public void setBlockTimeout(long time, TimeUnit unit) {
+        mInMessages.setBlockTimeout(Math.max(0, unit.toNanos(time)));
+    }
+
+    /**
+     * @return how many {@link Message}s the in buffer can hold
+     */
+    public int getCapacity() {
+        return mInMessages.getCapacity();
+    }
+
+    /**
+     * @return the {@link OverflowPolicy} for when the in buffer is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return mInMessages.getPolicy();
+    }
+
+    /**
+     * @return how many received {@link Message}s are waiting to be read
+     */
+    public int available() {
+        MessageRing.Cursor cursor = mCursor;
+
+        return cursor == null ? mInMessages.size() : cursor.available();
+    }
+
+    /**
+     * @return how many received {@link Message}s have been dropped or replaced
+     *         because the in buffer was full
+     */
+    public long getDroppedCount() {
+        MessageRing.Cursor cursor = mCursor;
+
+        return mInMessages.getDropped()
+                + (cursor == null ? 0 : cursor.getDropped());
+    }
+
+    /**
+     * Check whether this {@link ISOBUSSocket} gave up waiting for room in its
+     * in buffer, and is dropping received {@link Message}s until it is read
+     * down to half full.
+     *
+     * @return {@code true} if stalled, otherwise {@code false}
+     *
+     * @see OverflowPolicy#BLOCK
+     */
+    public boolean isStalled() {
+        return mInMessages.isStalled();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    public void close() throws IOException {
+        mBus.detach(this);
+        end();
+    }
+
+    /**
+     * Get the {@link Bus} to which this {@link ISOBUSSocket} is connected.
+     * 
+     * @return the {@link Bus}
+     */
+    public Bus getBus() {
+        return mBus;
+    }
+
+    /**
+     * Get the {@link NAME} used by this {@link ISOBUSSocket}.
+     * 
+     * @return the {@link NAME}
+     */
+    public NAME getName() {
+        return mName;
+    }
+
+    /**
+     * Get the address the {@link NAME} of this {@link ISOBUSSocket} has
+     * claimed on its {@link Bus}.
+     * 
+     * @return the address, or -1 if it has no {@link NAME} or has not
+     *         claimed one
+     */
+    public short getAddress() {
+        return mName == null ? -1 : mBus.getAddressTable().getAddress(mName);
+    }
+
+    /**
+     * Get the {@link Set} of {@link PGN}s which this {@link ISOBUSSocket}'s
+     * received {@link Message}s can have.
+     * 
+     * @return the {@link Set} of {@link PGN}s, empty if
+     *         {@link #receivesAllPgns()}
+     */
+    public Set<PGN> getPgns() {
+        return mPgns;
+    }
+
+    /**
+     * Tell whether this {@link ISOBUSSocket} receives {@link Message}s of
+     * every {@link PGN}. If not, and {@link #getPgns()} is empty, it
+     * receives none.
+     *
+     * @return {@code true} if every {@link PGN} is received
+     */
+    public boolean receivesAllPgns() {
+        return mAllPgns;
+    }
+
+    /**
+     * Get the {@link Filter} which this {@link ISOBUSSocket}'s received
+     * {@link Message}s match.
+     * 
+     * @return the {@link Filter}, or {@code null} if only {@link #getPgns()}
+     *         is used
+     */
+    public Filter getFilter() {
+        return mFilter;
+    }
+}
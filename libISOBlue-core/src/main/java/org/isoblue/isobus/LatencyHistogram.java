@@ -0,0 +1,225 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets which grow with the latency, so any value from
+ * 1 ns to hundreds of years is kept to within about 6%. Recording is one
+ * atomic add to a fixed array, so it is cheap enough to leave on, and any
+ * thread can record.
+ * <p>
+ * Snapshots give the count and, in ns, the 50th, 90th, 99th and 99.9th
+ * percentiles and the maximum, as {@code name.count}, {@code name.p50},
+ * {@code name.p90}, {@code name.p99}, {@code name.p999} and
+ * {@code name.max}.
+ *
+ * @see MetricRegistry#histogram(String)
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Each power of 2 is split into 2^SUB_BITS buckets
+     */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mMax;
+
+    LatencyHistogram() {
+        mCounts = new AtomicLongArray(BUCKETS);
+        mMax = new AtomicLong();
+    }
+
+    /**
+     * Count one latency. Negative ones, e.g. from clocks which disagree, are
+     * counted as 0.
+     *
+     * @param nanos
+     *            the latency, in ns
+     */
+    public void record(long nanos) {
+        long max;
+
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.getAndIncrement(bucket(nanos));
+
+        while (nanos > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return index of the bucket counting {@code nanos}
+     */
+    private static int bucket(long nanos) {
+        int exp;
+
+        if (nanos < SUB_COUNT) {
+            return (int) nanos;
+        }
+        exp = 63 - Long.numberOfLeadingZeros(nanos);
+
+        return (exp - SUB_BITS + 1) * SUB_COUNT
+                + (int) ((nanos >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+    }
+
+    /**
+     * @return the largest latency counted in a bucket
+     */
+    private static long highest(int bucket) {
+        int exp, shift;
+
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        exp = bucket / SUB_COUNT + SUB_BITS - 1;
+        shift = exp - SUB_BITS;
+
+        return ((long) (SUB_COUNT + bucket % SUB_COUNT) << shift)
+                + (1L << shift) - 1;
+    }
+
+    /**
+     * @return how many latencies have been recorded
+     */
+    public long getCount() {
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the longest latency recorded, in ns
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Get the latency which a fraction of those recorded are at or below.
+     *
+     * @param percentile
+     *            the percentile, from 0 to 100
+     * @return the latency, in ns, to within the bucket size, or 0 if none
+     *         have been recorded
+     */
+    public long getPercentile(double percentile) {
+        long counts[] = new long[BUCKETS];
+
+        return percentile(counts, read(counts), percentile);
+    }
+
+    /**
+     * Forget everything recorded so far, e.g. to start a new interval.
+     * Latencies recorded while this runs may or may not be kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mMax.set(0);
+    }
+
+    /**
+     * Copy the bucket counts into {@code counts}.
+     *
+     * @return their total
+     */
+    private long read(long counts[]) {
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        return total;
+    }
+
+    private long percentile(long counts[], long total, double percentile) {
+        long rank, seen;
+
+        if (total == 0) {
+            return 0;
+        }
+        rank = Math.max(1, (long) Math.ceil(total
+                * Math.min(100, Math.max(0, percentile)) / 100));
+
+        seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // Never report more than was actually seen
+                return Math.min(highest(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Add the count, percentiles and maximum to {@code values}, named
+     * starting with {@code prefix}.
+     */
+    void addTo(String prefix, Map<String, Long> values) {
+        long counts[] = new long[BUCKETS];
+        long total = read(counts);
+
+        values.put(prefix + "count", total);
+        values.put(prefix + "p50", percentile(counts, total, 50));
+        values.put(prefix + "p90", percentile(counts, total, 90));
+        values.put(prefix + "p99", percentile(counts, total, 99));
+        values.put(prefix + "p999", percentile(counts, total, 99.9));
+        values.put(prefix + "max", getMax());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        long counts[] = new long[BUCKETS];
+        long total = read(counts);
+
+        return "count=" + total + " p50=" + percentile(counts, total, 50)
+                + " p99=" + percentile(counts, total, 99) + " max="
+                + getMax();
+    }
+}
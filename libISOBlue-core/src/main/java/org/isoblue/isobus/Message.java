@@ -40,31 +40,37 @@ public class Message implements Serializable {
     private static final long serialVersionUID = 9109136928782406932L;
 
     /**
-     * Identifier of this {@link Message}.
+     * Most important priority a {@link Message} can have.
      */
-    private final Serializable mId;
+    public static final int MIN_PRIORITY = 0;
 
-    // TODO: Use NAMEs instead of addresses for source/destination
     /**
-     * ISOBUS NAME of the destination of this {@link Message}.
-     * 
-     * @see NAME
+     * Least important priority a {@link Message} can have.
      */
-    // private final NAME mDestName;
+    public static final int MAX_PRIORITY = 7;
+
     /**
-     * ISOBUS NAME of the destination of this {@link Message}.
-     * 
-     * @see NAME
+     * Priority of a {@link Message} when none is given.
      */
-    // private final NAME mSrcName;
+    public static final int DEFAULT_PRIORITY = 6;
 
     /**
-     * ISOBUS address of the destination of this {@link Message}.
+     * Identifier of this {@link Message}.
+     */
+    private final Serializable mId;
+
+    /**
+     * ISOBUS address of the destination of this {@link Message}. Which
+     * {@link NAME} holds it depends on the {@link Bus}.
+     * 
+     * @see Bus#getDestName(Message)
      */
     private final short mDestAddr;
 
     /**
      * ISOBUS address of the source of this {@link Message}.
+     * 
+     * @see Bus#getSrcName(Message)
      */
     private final short mSrcAddr;
 
@@ -85,12 +91,25 @@ public class Message implements Serializable {
      */
     private final long mTimestamp;
 
+    /**
+     * Priority to send this {@link Message} with, lower is more important.
+     */
+    private final byte mPriority;
+
     /**
      * Stores the hash code of this {@link Message} to avoid recalculating it.
      * Initialized lazily since {@link Message} is immutable.
      */
     private transient int fHashCode;
 
+    /**
+     * When this {@link Message} was handed to sockets, from
+     * {@link System#nanoTime()}, if it was sampled for tracing, otherwise 0.
+     *
+     * @see ISOBUSNetwork#setTraceSampling(int)
+     */
+    private transient long mTraceNanos;
+
     /**
      * Constructs a new {@link Message} with the specified destination,
      * {@link PGN}, and data.
@@ -106,7 +125,29 @@ public class Message implements Serializable {
      * @see PGN
      */
     public Message(short destAddr, PGN pgn, byte data[]) {
-        this(null, destAddr, (short) -1, pgn, data, -1);
+        this(destAddr, pgn, data, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Constructs a new {@link Message} with the specified destination,
+     * {@link PGN}, data, and priority. Messages with a more important priority
+     * are sent ahead of those waiting with a less important one.
+     * 
+     * @param destAddr
+     *            the address of the destination
+     * @param pgn
+     *            the {@link PGN} corresponding to {@code data}, not null
+     * @param data
+     *            {@code bytes} of data, {@code null} treated as empty
+     *            {@code byte[]}
+     * @param priority
+     *            the priority, from {@link #MIN_PRIORITY} (most important) to
+     *            {@link #MAX_PRIORITY}
+     * 
+     * @see PGN
+     */
+    public Message(short destAddr, PGN pgn, byte data[], int priority) {
+        this(null, destAddr, (short) -1, pgn, data, -1, priority, true);
     }
 
     /**
@@ -132,17 +173,37 @@ public class Message implements Serializable {
      */
     public Message(Serializable id, short destAddr, short srcAddr, PGN pgn,
             byte data[], long timeStamp) {
+        this(id, destAddr, srcAddr, pgn, data, timeStamp, DEFAULT_PRIORITY,
+                true);
+    }
+
+    /**
+     * @param copy
+     *            whether to copy {@code data}, only {@code false} when the
+     *            caller gives up its array
+     */
+    Message(Serializable id, short destAddr, short srcAddr, PGN pgn,
+            byte data[], long timeStamp, int priority, boolean copy) {
         if (pgn == null) {
             throw new NullPointerException("Parameter pgn was null");
         }
+        if (priority < MIN_PRIORITY || priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("Invalid priority: "
+                    + priority);
+        }
 
         mId = id;
         mDestAddr = destAddr;
         mSrcAddr = srcAddr;
         mPgn = pgn;
         // Handle data being null, and copy it so it won't change on us
-        mData = data == null ? new byte[0] : data.clone();
+        if (data == null) {
+            mData = new byte[0];
+        } else {
+            mData = copy ? data.clone() : data;
+        }
         mTimestamp = timeStamp;
+        mPriority = (byte) priority;
     }
 
     /**
@@ -199,6 +260,23 @@ public class Message implements Serializable {
         return mTimestamp;
     }
 
+    /**
+     * Get the priority of this {@link Message}, lower is more important.
+     * 
+     * @return the priority
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    long getTraceNanos() {
+        return mTraceNanos;
+    }
+
+    void setTraceNanos(long nanos) {
+        mTraceNanos = nanos;
+    }
+
     /*
      * (non-Javadoc)
      * 
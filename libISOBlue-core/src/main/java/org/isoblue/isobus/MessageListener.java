@@ -0,0 +1,61 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+/**
+ * Receives {@link Message}s from an {@link ISOBUSSocket} as they arrive,
+ * instead of them being buffered for {@link ISOBUSSocket#read()}.
+ *
+ * @see ISOBUSSocket#setListener(MessageListener, java.util.concurrent.Executor)
+ * @see Bus#listen(Filter, MessageListener, java.util.concurrent.Executor)
+ * @author Alex Layton <alex@layton.in>
+ */
+public interface MessageListener {
+
+    /**
+     * Called for each {@link Message} received by a socket. Unless the
+     * listener was given an {@link java.util.concurrent.Executor}, this is
+     * called on the thread reading from the network, so it should return
+     * quickly.
+     *
+     * @param socket
+     *            the {@link ISOBUSSocket} which received {@code message}
+     * @param message
+     *            the received {@link Message}
+     */
+    void onMessage(ISOBUSSocket socket, Message message);
+
+    /**
+     * Called once when a socket will receive no more {@link Message}s: when
+     * a buffered socket reaches the end of its data, or when the socket or
+     * its network is closed. It is called the same way as
+     * {@link #onMessage(ISOBUSSocket, Message)}, so after every
+     * {@link Message} the socket was given.
+     *
+     * @param socket
+     *            the {@link ISOBUSSocket} which ended
+     */
+    void onEnd(ISOBUSSocket socket);
+}
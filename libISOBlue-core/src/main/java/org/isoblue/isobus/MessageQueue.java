@@ -0,0 +1,401 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.isoblue.isobus.ISOBUSSocket.OverflowPolicy;
+
+/**
+ * Queue of {@link Message}s received by an {@link ISOBUSSocket} but not yet
+ * read. It can hold a limited number, and what happens when it is full is
+ * chosen by an {@link OverflowPolicy}.
+ * <p>
+ * The array grows as needed up to the capacity, so a large capacity costs
+ * nothing until it is used.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+final class MessageQueue {
+
+    private static final int INITIAL_SIZE = 16;
+
+    private final ReentrantLock mLock;
+    private final Condition mNotEmpty;
+    private final Condition mNotFull;
+
+    /**
+     * Circular array of the queued {@link Message}s.
+     */
+    private Message mItems[];
+    private int mHead;
+    private int mCount;
+
+    private int mCapacity;
+    private OverflowPolicy mPolicy;
+    private long mBlockNanos;
+    private boolean mStalled;
+    private long mDropped;
+
+    MessageQueue() {
+        mLock = new ReentrantLock();
+        mNotEmpty = mLock.newCondition();
+        mNotFull = mLock.newCondition();
+
+        mItems = new Message[INITIAL_SIZE];
+        mHead = 0;
+        mCount = 0;
+
+        mCapacity = Integer.MAX_VALUE;
+        mPolicy = OverflowPolicy.BLOCK;
+        mBlockNanos = TimeUnit.MILLISECONDS
+                .toNanos(ISOBUSSocket.DEFAULT_BLOCK_TIMEOUT);
+        mStalled = false;
+        mDropped = 0;
+    }
+
+    void setOverflow(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, "
+                    + "given " + capacity);
+        }
+        if (policy == null) {
+            throw new NullPointerException("Parameter policy was null");
+        }
+
+        mLock.lock();
+        try {
+            mCapacity = capacity;
+            mPolicy = policy;
+            mStalled = false;
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    void setBlockTimeout(long nanos) {
+        mLock.lock();
+        try {
+            mBlockNanos = nanos;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Add a {@link Message}, applying the {@link OverflowPolicy} if full.
+     *
+     * @return {@code false} if {@code message} was dropped, otherwise
+     *         {@code true}
+     */
+    boolean offer(Message message) {
+        int replaced;
+
+        mLock.lock();
+        try {
+            if (mCount < mCapacity) {
+                enqueue(message);
+                return true;
+            }
+
+            switch (mPolicy) {
+            case DROP_NEWEST:
+                mDropped++;
+                return false;
+
+            case LATEST_PER_PGN:
+                replaced = remove(message.getPgn());
+                if (replaced == 0) {
+                    // Nothing to replace, so make room like DROP_OLDEST
+                    dequeue();
+                    replaced = 1;
+                }
+                enqueue(message);
+                mDropped += replaced;
+                return true;
+
+            case DROP_OLDEST:
+                dequeue();
+                enqueue(message);
+                mDropped++;
+                return true;
+
+            case BLOCK:
+            default:
+                return offerBlocking(message);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Wait for room, up to the block timeout. If the timeout passes, the
+     * queue is stalled and drops without waiting until it is read down to
+     * {@link #resumeLevel()}.
+     */
+    private boolean offerBlocking(Message message) {
+        long nanos = mBlockNanos;
+
+        try {
+            while (!mStalled && mCount >= mCapacity) {
+                if (nanos <= 0) {
+                    mStalled = true;
+                    break;
+                }
+                nanos = mNotFull.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (mCount >= mCapacity) {
+            mDropped++;
+            return false;
+        }
+
+        enqueue(message);
+        return true;
+    }
+
+    /**
+     * Add a {@link Message} even if the queue is full.
+     */
+    void force(Message message) {
+        mLock.lock();
+        try {
+            enqueue(message);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    Message take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                mNotEmpty.await();
+            }
+
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Remove up to {@code max} queued {@link Message}s into a
+     * {@link Collection}, without waiting.
+     *
+     * @return how many were removed
+     */
+    int drainTo(Collection<? super Message> c, int max) {
+        mLock.lock();
+        try {
+            return drain(c, max);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Remove up to {@code max} queued {@link Message}s into a
+     * {@link Collection}, waiting up to the given time for there to be any.
+     *
+     * @return how many were removed
+     */
+    int drainTo(Collection<? super Message> c, int max, long timeout,
+            TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+
+            return drain(c, max);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Must hold {@link #mLock}.
+     */
+    private int drain(Collection<? super Message> c, int max) {
+        int n = Math.min(max, mCount);
+
+        for (int i = 0; i < n; i++) {
+            c.add(dequeue());
+        }
+
+        return n;
+    }
+
+    /**
+     * Remove the queued {@link Message}s with the given {@link PGN}, keeping
+     * the others in order. Must hold {@link #mLock}.
+     *
+     * @return how many were removed
+     */
+    private int remove(PGN pgn) {
+        int kept = 0;
+        int removed;
+
+        for (int i = 0; i < mCount; i++) {
+            int from = (mHead + i) % mItems.length;
+            Message message = mItems[from];
+
+            mItems[from] = null;
+            if (!message.getPgn().equals(pgn)) {
+                mItems[(mHead + kept++) % mItems.length] = message;
+            }
+        }
+
+        removed = mCount - kept;
+        mCount = kept;
+
+        return removed;
+    }
+
+    /**
+     * Must hold {@link #mLock}.
+     */
+    private void enqueue(Message message) {
+        if (mCount == mItems.length) {
+            Message items[] = new Message[mItems.length * 2];
+
+            for (int i = 0; i < mCount; i++) {
+                items[i] = mItems[(mHead + i) % mItems.length];
+            }
+            mItems = items;
+            mHead = 0;
+        }
+
+        mItems[(mHead + mCount) % mItems.length] = message;
+        mCount++;
+        mNotEmpty.signal();
+    }
+
+    /**
+     * Must hold {@link #mLock} and the queue must not be empty.
+     */
+    private Message dequeue() {
+        Message message = mItems[mHead];
+
+        mItems[mHead] = null;
+        mHead = (mHead + 1) % mItems.length;
+        mCount--;
+
+        if (mCount <= resumeLevel()) {
+            mStalled = false;
+        }
+        if (mCount < mCapacity) {
+            mNotFull.signal();
+        }
+
+        return message;
+    }
+
+    /**
+     * How far a stalled queue must be read down before it blocks again, so a
+     * slow reader does not make every new {@link Message} wait out the block
+     * timeout. Must hold {@link #mLock}.
+     */
+    private int resumeLevel() {
+        return mCapacity / 2;
+    }
+
+    int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    int getCapacity() {
+        mLock.lock();
+        try {
+            return mCapacity;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    OverflowPolicy getPolicy() {
+        mLock.lock();
+        try {
+            return mPolicy;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    boolean isStalled() {
+        mLock.lock();
+        try {
+            return mStalled;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    long getDropped() {
+        mLock.lock();
+        try {
+            return mDropped;
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
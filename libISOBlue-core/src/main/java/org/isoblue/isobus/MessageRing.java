@@ -0,0 +1,324 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Preallocated ring buffer which one thread publishes {@link Message}s into,
+ * and any number of {@link Cursor}s read from independently.
+ * <p>
+ * Publishing never waits for readers. A {@link Cursor} which falls more than
+ * the ring's size behind skips ahead to the oldest {@link Message} still in
+ * the ring, and counts the ones it missed as dropped.
+ *
+ * @see Bus#setRingDispatch(int, WaitStrategy)
+ * @author Alex Layton <alex@layton.in>
+ */
+final class MessageRing {
+
+    private static final int SPIN_TRIES = 100;
+
+    private final AtomicReferenceArray<Message> mSlots;
+
+    /**
+     * Sequence of the {@link Message} in each slot, -1 while it is written.
+     */
+    private final AtomicLongArray mSeqs;
+    /**
+     * 1 if the {@link Message} in each slot is for every {@link Cursor},
+     * whatever its socket accepts, otherwise 0.
+     */
+    private final AtomicIntegerArray mToAll;
+    private final int mMask;
+    private final WaitStrategy mStrategy;
+
+    /**
+     * Sequence of the last published {@link Message}.
+     */
+    private volatile long mCursor;
+
+    private final ReentrantLock mLock;
+    private final Condition mPublished;
+    private final AtomicInteger mWaiters;
+
+    /**
+     * @param size
+     *            how many {@link Message}s the ring holds, a power of 2
+     * @param strategy
+     *            how {@link Cursor}s wait for {@link Message}s
+     */
+    MessageRing(int size, WaitStrategy strategy) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of 2, "
+                    + "given " + size);
+        }
+        if (strategy == null) {
+            throw new NullPointerException("Parameter strategy was null");
+        }
+
+        mSlots = new AtomicReferenceArray<Message>(size);
+        mSeqs = new AtomicLongArray(size);
+        mToAll = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            mSeqs.set(i, -1);
+        }
+        mMask = size - 1;
+        mStrategy = strategy;
+        mCursor = -1;
+
+        mLock = new ReentrantLock();
+        mPublished = mLock.newCondition();
+        mWaiters = new AtomicInteger();
+    }
+
+    /**
+     * Publish a {@link Message} to every {@link Cursor}. Must only be called
+     * from one thread.
+     *
+     * @param message
+     *            the {@link Message}
+     */
+    void publish(Message message) {
+        publish(message, false);
+    }
+
+    /**
+     * Publish a {@link Message} which every {@link Cursor} reads, whatever
+     * its socket accepts, e.g. to mark the end of the data. Must only be
+     * called from the one thread which publishes.
+     *
+     * @param message
+     *            the {@link Message}
+     */
+    void publishToAll(Message message) {
+        publish(message, true);
+    }
+
+    private void publish(Message message, boolean toAll) {
+        long seq = mCursor + 1;
+        int i = (int) seq & mMask;
+
+        mSeqs.set(i, -1);
+        mSlots.set(i, message);
+        mToAll.set(i, toAll ? 1 : 0);
+        mSeqs.set(i, seq);
+        mCursor = seq;
+
+        if (mWaiters.get() > 0) {
+            mLock.lock();
+            try {
+                mPublished.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return a {@link Cursor} starting after the last published
+     *         {@link Message}
+     */
+    Cursor newCursor() {
+        return new Cursor(mCursor + 1);
+    }
+
+    /**
+     * Wait for a {@link Message} to be published with sequence {@code seq}.
+     *
+     * @return the last published sequence, less than {@code seq} if the time
+     *         ran out
+     */
+    private long waitFor(long seq, long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        long cursor;
+        int tries = 0;
+
+        if (mStrategy == WaitStrategy.BLOCKING) {
+            mLock.lockInterruptibly();
+            try {
+                mWaiters.incrementAndGet();
+                try {
+                    while ((cursor = mCursor) < seq && nanos > 0) {
+                        nanos = mPublished.awaitNanos(nanos);
+                    }
+                } finally {
+                    mWaiters.decrementAndGet();
+                }
+            } finally {
+                mLock.unlock();
+            }
+
+            return cursor;
+        }
+
+        while ((cursor = mCursor) < seq) {
+            if (deadline - System.nanoTime() <= 0) {
+                break;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (mStrategy == WaitStrategy.YIELDING && ++tries > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+
+        return cursor;
+    }
+
+    /**
+     * One reader's position in a {@link MessageRing}.
+     */
+    final class Cursor {
+
+        /**
+         * Sequence of the next {@link Message} to read.
+         */
+        private long mNext;
+        /**
+         * Whether the last {@link Message} read was published to all.
+         */
+        private boolean mLastToAll;
+        private volatile long mDropped;
+
+        private Cursor(long next) {
+            mNext = next;
+            mDropped = 0;
+        }
+
+        /**
+         * Read the next {@link Message} which {@code sock} accepts.
+         *
+         * @return the {@link Message}, or {@code null} if the time ran out
+         */
+        synchronized Message poll(ISOBUSSocket sock, long timeout,
+                TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            long deadline = System.nanoTime() + nanos;
+
+            while (true) {
+                Message message = next(nanos);
+
+                if (message == null) {
+                    return null;
+                }
+                if (mLastToAll || sock.accepts(message)) {
+                    return message;
+                }
+                nanos = deadline - System.nanoTime();
+            }
+        }
+
+        /**
+         * Read up to {@code max} {@link Message}s which {@code sock} accepts,
+         * waiting only until there is at least one or the time runs out.
+         *
+         * @return how many were read
+         */
+        synchronized int drainTo(ISOBUSSocket sock,
+                Collection<? super Message> c, int max, long timeout,
+                TimeUnit unit) throws InterruptedException {
+            int n = 0;
+            Message message;
+
+            if (max <= 0) {
+                return 0;
+            }
+
+            message = poll(sock, timeout, unit);
+            while (message != null) {
+                c.add(message);
+                if (++n == max) {
+                    break;
+                }
+
+                message = poll(sock, 0, TimeUnit.NANOSECONDS);
+            }
+
+            return n;
+        }
+
+        /**
+         * Read the next {@link Message}, skipping ahead if it was overwritten.
+         */
+        private Message next(long nanos) throws InterruptedException {
+            while (true) {
+                long cursor = mCursor;
+                int i;
+
+                if (cursor < mNext) {
+                    cursor = waitFor(mNext, nanos);
+                    if (cursor < mNext) {
+                        return null;
+                    }
+                }
+
+                if (cursor - mNext > mMask) {
+                    // Fell behind, skip to the oldest one still there
+                    mDropped += cursor - mMask - mNext;
+                    mNext = cursor - mMask;
+                }
+
+                i = (int) mNext & mMask;
+                if (mSeqs.get(i) == mNext) {
+                    Message message = mSlots.get(i);
+                    boolean toAll = mToAll.get(i) != 0;
+
+                    if (mSeqs.get(i) == mNext) {
+                        mLastToAll = toAll;
+                        mNext++;
+                        return message;
+                    }
+                }
+                // Overwritten while reading it, try again
+            }
+        }
+
+        /**
+         * @return about how many {@link Message}s are waiting, before
+         *         filtering
+         */
+        int available() {
+            long waiting = mCursor + 1 - mNext;
+
+            return (int) Math.max(0, Math.min(waiting, mMask + 1));
+        }
+
+        /**
+         * @return how many {@link Message}s were overwritten before being read
+         */
+        long getDropped() {
+            return mDropped;
+        }
+    }
+}
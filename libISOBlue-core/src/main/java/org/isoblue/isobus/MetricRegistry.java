@@ -0,0 +1,194 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named {@link Counter}s, {@link Gauge}s, {@link PGNCounter}s and
+ * {@link LatencyHistogram}s of one {@link ISOBUSNetwork}, its {@link Bus}es
+ * and their sockets, which an app can poll with {@link #snapshot()}.
+ * <p>
+ * Names are dotted, starting with the bus type for those of a {@link Bus},
+ * e.g. {@code engine.rx.messages}, and with {@code engine.socket.}<i>n</i>
+ * for those of a socket. Recording costs an uncontended atomic add at most;
+ * gauges are only read when a snapshot is taken.
+ *
+ * @see ISOBUSNetwork#getMetrics()
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class MetricRegistry {
+
+    private final ConcurrentMap<String, Object> mMetrics;
+
+    public MetricRegistry() {
+        mMetrics = new ConcurrentHashMap<String, Object>();
+    }
+
+    /**
+     * Get the {@link Counter} with a name, creating it if there is none.
+     *
+     * @param name
+     *            name of the {@link Counter}
+     * @return the {@link Counter}
+     * @throws IllegalArgumentException
+     *             if {@code name} is taken by something else
+     */
+    public Counter counter(String name) {
+        Object metric = mMetrics.get(name);
+
+        if (metric == null) {
+            Counter counter = new Counter();
+
+            metric = mMetrics.putIfAbsent(name, counter);
+            if (metric == null) {
+                return counter;
+            }
+        }
+
+        return cast(name, metric, Counter.class);
+    }
+
+    /**
+     * Get the {@link PGNCounter} with a name, creating it if there is none.
+     *
+     * @param name
+     *            name of the {@link PGNCounter}, its PGNs are named
+     *            {@code name.}<i>PGN in hex</i>
+     * @return the {@link PGNCounter}
+     * @throws IllegalArgumentException
+     *             if {@code name} is taken by something else
+     */
+    public PGNCounter pgnCounter(String name) {
+        Object metric = mMetrics.get(name);
+
+        if (metric == null) {
+            PGNCounter counter = new PGNCounter();
+
+            metric = mMetrics.putIfAbsent(name, counter);
+            if (metric == null) {
+                return counter;
+            }
+        }
+
+        return cast(name, metric, PGNCounter.class);
+    }
+
+    /**
+     * Get the {@link LatencyHistogram} with a name, creating it if there is
+     * none.
+     *
+     * @param name
+     *            name of the {@link LatencyHistogram}, its values are named
+     *            {@code name.count}, {@code name.p50}, ...
+     * @return the {@link LatencyHistogram}
+     * @throws IllegalArgumentException
+     *             if {@code name} is taken by something else
+     */
+    public LatencyHistogram histogram(String name) {
+        Object metric = mMetrics.get(name);
+
+        if (metric == null) {
+            LatencyHistogram histogram = new LatencyHistogram();
+
+            metric = mMetrics.putIfAbsent(name, histogram);
+            if (metric == null) {
+                return histogram;
+            }
+        }
+
+        return cast(name, metric, LatencyHistogram.class);
+    }
+
+    /**
+     * Register a {@link Gauge}, replacing any with the same name.
+     *
+     * @param name
+     *            name of the {@link Gauge}
+     * @param gauge
+     *            the {@link Gauge}
+     */
+    public void gauge(String name, Gauge gauge) {
+        if (gauge == null) {
+            throw new NullPointerException("Parameter gauge was null");
+        }
+
+        mMetrics.put(name, gauge);
+    }
+
+    /**
+     * Remove everything whose name starts with {@code prefix}.
+     *
+     * @param prefix
+     *            start of the names to remove
+     */
+    public void removeAll(String prefix) {
+        for (String name : mMetrics.keySet()) {
+            if (name.startsWith(prefix)) {
+                mMetrics.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Read every metric. Counts recorded by other threads while this runs
+     * may or may not be included.
+     *
+     * @return a {@link MetricSnapshot} of the current values
+     */
+    public MetricSnapshot snapshot() {
+        Map<String, Long> values = new TreeMap<String, Long>();
+        long nanoTime = System.nanoTime();
+
+        for (Map.Entry<String, Object> e : mMetrics.entrySet()) {
+            Object metric = e.getValue();
+
+            if (metric instanceof Counter) {
+                values.put(e.getKey(), ((Counter) metric).get());
+            } else if (metric instanceof Gauge) {
+                values.put(e.getKey(), ((Gauge) metric).get());
+            } else if (metric instanceof PGNCounter) {
+                ((PGNCounter) metric).addTo(e.getKey() + ".", values);
+            } else if (metric instanceof LatencyHistogram) {
+                ((LatencyHistogram) metric).addTo(e.getKey() + ".", values);
+            }
+        }
+
+        return new MetricSnapshot(System.currentTimeMillis(), nanoTime,
+                values);
+    }
+
+    private static <T> T cast(String name, Object metric, Class<T> type) {
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is not a "
+                    + type.getSimpleName());
+        }
+
+        return type.cast(metric);
+    }
+}
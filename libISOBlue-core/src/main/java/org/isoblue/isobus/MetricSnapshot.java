@@ -0,0 +1,117 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The values of every metric in a {@link MetricRegistry} at one time. Rates
+ * come from comparing two snapshots.
+ *
+ * @see MetricRegistry#snapshot()
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class MetricSnapshot {
+
+    private final long mTime;
+    private final long mNanoTime;
+    private final Map<String, Long> mValues;
+
+    MetricSnapshot(long time, long nanoTime, Map<String, Long> values) {
+        mTime = time;
+        mNanoTime = nanoTime;
+        mValues = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @return when this snapshot was taken, in ms since the epoch
+     */
+    public long getTime() {
+        return mTime;
+    }
+
+    /**
+     * @param name
+     *            name of a metric
+     * @return its value, 0 if there is none with that name
+     */
+    public long get(String name) {
+        Long value = mValues.get(name);
+
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return every value, sorted by name
+     */
+    public Map<String, Long> getValues() {
+        return mValues;
+    }
+
+    /**
+     * Get how fast a count went up since an earlier snapshot.
+     *
+     * @param name
+     *            name of a {@link Counter}, or of one PGN of a
+     *            {@link PGNCounter}
+     * @param earlier
+     *            a snapshot taken before this one
+     * @return the increase per second
+     */
+    public double getRate(String name, MetricSnapshot earlier) {
+        double seconds = (mNanoTime - earlier.mNanoTime) / 1e9;
+
+        return seconds <= 0 ? 0 : (get(name) - earlier.get(name)) / seconds;
+    }
+
+    /**
+     * Get how fast every value changed since an earlier snapshot. Only
+     * meaningful for counts, not {@link Gauge}s.
+     *
+     * @param earlier
+     *            a snapshot taken before this one
+     * @return the change per second of each value, sorted by name
+     */
+    public Map<String, Double> getRates(MetricSnapshot earlier) {
+        Map<String, Double> rates = new TreeMap<String, Double>();
+
+        for (String name : mValues.keySet()) {
+            rates.put(name, getRate(name, earlier));
+        }
+        return rates;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return mValues.toString();
+    }
+}
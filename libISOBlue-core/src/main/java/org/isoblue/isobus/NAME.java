@@ -0,0 +1,314 @@
+/*
+ * Author: Alex Layton <awlayton@purdue.edu>
+ * 
+ * Copyright (c) 2013 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.Serializable;
+
+/**
+ * Represents an ISOBUS NAME, the 64 bit identity each ECU claims an address
+ * with. The fields are packed into one {@code long} as they are on the bus,
+ * from the identity number in the low bits to the self-configurable address
+ * bit at the top.
+ * <p>
+ * NAMEs are compared as unsigned values; the lower NAME wins when two ECUs
+ * claim the same address.
+ * 
+ * @see AddressTable
+ * @author Alex Layton <awlayton@purdue.edu>
+ */
+public final class NAME implements Serializable, Comparable<NAME> {
+
+    private static final long serialVersionUID = -3530867425478935106L;
+
+    /*
+     * Offsets and widths of the fields, in bits
+     */
+    private static final int IDENTITY_SHIFT = 0;
+    private static final int IDENTITY_BITS = 21;
+    private static final int MANUFACTURER_SHIFT = 21;
+    private static final int MANUFACTURER_BITS = 11;
+    private static final int ECU_INSTANCE_SHIFT = 32;
+    private static final int ECU_INSTANCE_BITS = 3;
+    private static final int FUNCTION_INSTANCE_SHIFT = 35;
+    private static final int FUNCTION_INSTANCE_BITS = 5;
+    private static final int FUNCTION_SHIFT = 40;
+    private static final int FUNCTION_BITS = 8;
+    private static final int DEVICE_CLASS_SHIFT = 49;
+    private static final int DEVICE_CLASS_BITS = 7;
+    private static final int DEVICE_CLASS_INSTANCE_SHIFT = 56;
+    private static final int DEVICE_CLASS_INSTANCE_BITS = 4;
+    private static final int INDUSTRY_GROUP_SHIFT = 60;
+    private static final int INDUSTRY_GROUP_BITS = 3;
+    private static final int SELF_CONFIGURABLE_SHIFT = 63;
+
+    /**
+     * Number of bytes a NAME takes in a {@link Message}
+     */
+    public static final int LENGTH = 8;
+
+    /**
+     * The packed {@code long} representation of this {@link NAME}.
+     */
+    private final long mLong;
+
+    /**
+     * Construct a new {@link NAME} from its packed {@code long}
+     * representation.
+     * 
+     * @param longRep
+     *            the {@code long} representation
+     */
+    public NAME(long longRep) {
+        mLong = longRep;
+    }
+
+    /**
+     * Construct a new {@link NAME} from its fields.
+     * 
+     * @param selfConfigurable
+     *            whether the ECU can pick another address
+     * @param industryGroup
+     *            the industry group, 3 bits
+     * @param deviceClassInstance
+     *            the device class instance, 4 bits
+     * @param deviceClass
+     *            the device class, 7 bits
+     * @param function
+     *            the function, 8 bits
+     * @param functionInstance
+     *            the function instance, 5 bits
+     * @param ecuInstance
+     *            the ECU instance, 3 bits
+     * @param manufacturerCode
+     *            the manufacturer code, 11 bits
+     * @param identityNumber
+     *            the identity number, 21 bits
+     * @throws IllegalArgumentException
+     *             if a field does not fit in its bits
+     */
+    public NAME(boolean selfConfigurable, int industryGroup,
+            int deviceClassInstance, int deviceClass, int function,
+            int functionInstance, int ecuInstance, int manufacturerCode,
+            int identityNumber) {
+        mLong = (selfConfigurable ? 1L << SELF_CONFIGURABLE_SHIFT : 0)
+                | pack("industryGroup", industryGroup, INDUSTRY_GROUP_SHIFT,
+                        INDUSTRY_GROUP_BITS)
+                | pack("deviceClassInstance", deviceClassInstance,
+                        DEVICE_CLASS_INSTANCE_SHIFT,
+                        DEVICE_CLASS_INSTANCE_BITS)
+                | pack("deviceClass", deviceClass, DEVICE_CLASS_SHIFT,
+                        DEVICE_CLASS_BITS)
+                | pack("function", function, FUNCTION_SHIFT, FUNCTION_BITS)
+                | pack("functionInstance", functionInstance,
+                        FUNCTION_INSTANCE_SHIFT, FUNCTION_INSTANCE_BITS)
+                | pack("ecuInstance", ecuInstance, ECU_INSTANCE_SHIFT,
+                        ECU_INSTANCE_BITS)
+                | pack("manufacturerCode", manufacturerCode,
+                        MANUFACTURER_SHIFT, MANUFACTURER_BITS)
+                | pack("identityNumber", identityNumber, IDENTITY_SHIFT,
+                        IDENTITY_BITS);
+    }
+
+    /**
+     * Read a {@link NAME} as it is sent on the bus, least significant byte
+     * first.
+     * 
+     * @param data
+     *            the bytes to read from
+     * @param off
+     *            where in {@code data} the NAME starts
+     * @return the {@link NAME}
+     * @throws IndexOutOfBoundsException
+     *             if {@code data} has fewer than {@link #LENGTH} bytes from
+     *             {@code off}
+     */
+    public static NAME fromBytes(byte data[], int off) {
+        long longRep = 0;
+
+        if (off < 0 || data.length - off < LENGTH) {
+            throw new IndexOutOfBoundsException("NAME needs " + LENGTH
+                    + " bytes from " + off + ", given " + data.length);
+        }
+
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            longRep = (longRep << 8) | (data[off + i] & 0xFF);
+        }
+
+        return new NAME(longRep);
+    }
+
+    private static long pack(String field, int value, int shift, int bits) {
+        if (value < 0 || value >= 1 << bits) {
+            throw new IllegalArgumentException(field + " must fit in " + bits
+                    + " bits, given " + value);
+        }
+
+        return (long) value << shift;
+    }
+
+    private int field(int shift, int bits) {
+        return (int) (mLong >>> shift) & ((1 << bits) - 1);
+    }
+
+    /**
+     * Get the packed {@code long} representation of this {@link NAME}.
+     * 
+     * @return the {@code long} representation
+     */
+    public long asLong() {
+        return mLong;
+    }
+
+    /**
+     * Write this {@link NAME} as it is sent on the bus, least significant byte
+     * first.
+     * 
+     * @param data
+     *            the bytes to write to
+     * @param off
+     *            where in {@code data} to start
+     */
+    public void toBytes(byte data[], int off) {
+        for (int i = 0; i < LENGTH; i++) {
+            data[off + i] = (byte) (mLong >>> (8 * i));
+        }
+    }
+
+    /**
+     * @return whether the ECU can pick another address
+     */
+    public boolean isSelfConfigurable() {
+        return mLong < 0;
+    }
+
+    /**
+     * @return the industry group
+     */
+    public int getIndustryGroup() {
+        return field(INDUSTRY_GROUP_SHIFT, INDUSTRY_GROUP_BITS);
+    }
+
+    /**
+     * @return the device class instance
+     */
+    public int getDeviceClassInstance() {
+        return field(DEVICE_CLASS_INSTANCE_SHIFT, DEVICE_CLASS_INSTANCE_BITS);
+    }
+
+    /**
+     * @return the device class
+     */
+    public int getDeviceClass() {
+        return field(DEVICE_CLASS_SHIFT, DEVICE_CLASS_BITS);
+    }
+
+    /**
+     * @return the function
+     */
+    public int getFunction() {
+        return field(FUNCTION_SHIFT, FUNCTION_BITS);
+    }
+
+    /**
+     * @return the function instance
+     */
+    public int getFunctionInstance() {
+        return field(FUNCTION_INSTANCE_SHIFT, FUNCTION_INSTANCE_BITS);
+    }
+
+    /**
+     * @return the ECU instance
+     */
+    public int getEcuInstance() {
+        return field(ECU_INSTANCE_SHIFT, ECU_INSTANCE_BITS);
+    }
+
+    /**
+     * @return the manufacturer code
+     */
+    public int getManufacturerCode() {
+        return field(MANUFACTURER_SHIFT, MANUFACTURER_BITS);
+    }
+
+    /**
+     * @return the identity number
+     */
+    public int getIdentityNumber() {
+        return field(IDENTITY_SHIFT, IDENTITY_BITS);
+    }
+
+    /**
+     * Compare the unsigned values of this {@link NAME} and another. The lower
+     * has priority when claiming an address.
+     * 
+     * @param other
+     *            the {@link NAME} to compare with
+     * @return negative if this {@link NAME} is lower, 0 if they are equal,
+     *         otherwise positive
+     */
+    @Override
+    public int compareTo(NAME other) {
+        long a = mLong + Long.MIN_VALUE;
+        long b = other.mLong + Long.MIN_VALUE;
+
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "NAME:" + String.format("%016x", mLong);
+    }
+
+    /**
+     * Compares this instance with the specified object and indicates if they
+     * are equal. In order to be equal, {@code o} must be an instance of
+     * {@code NAME} and have the same {@code long} representation as this
+     * object.
+     * 
+     * @param o
+     *            the object to compare this {@link NAME} with
+     * @return {@code true} if the specified object is equal to this
+     *         {@link NAME}; {@code false} otherwise
+     */
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof NAME) && (((NAME) o).mLong == mLong);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return (int) (mLong ^ (mLong >>> 32));
+    }
+}
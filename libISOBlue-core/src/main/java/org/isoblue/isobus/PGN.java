@@ -0,0 +1,441 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2013 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Represents and ISOBUS Parameter Group Number (PGN). A {@link PGN} is used to
+ * identify and interpret the data within a {@link Message}.
+ * <p>
+ * {@link #valueOf(int)} returns a shared instance for each PGN, and is
+ * preferred to the constructor. Each {@link PGN} also knows its PDU format,
+ * data page, default priority, expected length and name. The last three come
+ * from {@code pgns.txt}, bundled next to this class, which is read the first
+ * time any of them are needed.
+ * 
+ * @see Message
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class PGN implements Serializable {
+
+    private static final long serialVersionUID = 1324435753164108638L;
+
+    private static final int PF2_MASK = 0x00F000;
+
+    private static final int PS_MASK = 0x0000FF;
+
+    /**
+     * Constant for the minimum {@code int} corresponding to a valid ISOBUS PGN
+     */
+    private static final int MAX_VALUE = 0x02FFFF;
+
+    /**
+     * Constant for the minimum {@code int} corresponding to a valid ISOBUS PGN
+     */
+    private static final int MIN_VALUE = 0;
+
+    /**
+     * Constant returned by {@link #getExpectedLength()} for PGNs whose length
+     * varies or is not known
+     */
+    public static final int VARIABLE_LENGTH = -1;
+
+    /**
+     * First PDU format of PDU2 (broadcast) PGNs
+     */
+    private static final int PDU2_MIN_PF = 0xF0;
+
+    /**
+     * Number of valid PGNs on each of the three data pages: those below
+     * {@link #PDU2_MIN_PF} have a PDU specific of 0, the rest any PDU
+     * specific.
+     */
+    private static final int PAGE_SIZE = PDU2_MIN_PF + ((0x100 - PDU2_MIN_PF)
+            << 8);
+
+    /**
+     * Number of valid PGNs
+     */
+    static final int COUNT = ((MAX_VALUE >> 16) + 1) * PAGE_SIZE;
+
+    /**
+     * Shared instances for {@link #valueOf(int)}, indexed by
+     * {@link #index(int)} and filled in as they are asked for.
+     */
+    private static final AtomicReferenceArray<PGN> internTable =
+            new AtomicReferenceArray<PGN>(COUNT);
+
+    /**
+     * The {@code int} representation of this {@code PGN}.
+     */
+    private final int mInt;
+
+    /**
+     * Construct a new {@link PGN} from the specified {@code int}
+     * representation.
+     * <p class="note">
+     * <b>Note:</b> Many {@code int} values do not correspond to valid ISOBUS
+     * PGNs.
+     * 
+     * @param intRep
+     *            the {@code int} representation
+     * @throws InvalidPGNException
+     *             if {@code intRep} does not represent a valid ISOBUS PGN
+     */
+    public PGN(int intRep) throws InvalidPGNException {
+        if (!isValid(intRep))
+            throw new InvalidPGNException(intRep);
+
+        mInt = intRep;
+    }
+
+    /**
+     * Get the shared {@link PGN} for the specified {@code int} representation.
+     * Once a PGN has been asked for, looking it up again does not allocate.
+     * 
+     * @param intRep
+     *            the {@code int} representation
+     * @return the {@link PGN}
+     * @throws InvalidPGNException
+     *             if {@code intRep} does not represent a valid ISOBUS PGN
+     */
+    public static PGN valueOf(int intRep) throws InvalidPGNException {
+        if (!isValid(intRep)) {
+            // Let the constructor throw
+            return new PGN(intRep);
+        }
+
+        int i = index(intRep);
+        PGN pgn = internTable.get(i);
+        if (pgn == null) {
+            // Whichever thread gets there first wins
+            internTable.compareAndSet(i, null, new PGN(intRep));
+            pgn = internTable.get(i);
+        }
+
+        return pgn;
+    }
+
+    /**
+     * Map a valid PGN onto {@code 0} to {@link #COUNT}{@code - 1}, without
+     * gaps.
+     * 
+     * @param intRep
+     *            the {@code int} representation of a valid PGN
+     * @return its index
+     */
+    static int index(int intRep) {
+        int pf = (intRep >> 8) & 0xFF;
+        int slot = pf < PDU2_MIN_PF ? pf : PDU2_MIN_PF
+                + ((pf - PDU2_MIN_PF) << 8) + (intRep & PS_MASK);
+
+        return (intRep >> 16) * PAGE_SIZE + slot;
+    }
+
+    /**
+     * Reverse {@link #index(int)}.
+     *
+     * @param index
+     *            an index from {@code 0} to {@link #COUNT}{@code - 1}
+     * @return the {@code int} representation of the PGN at {@code index}
+     */
+    static int fromIndex(int index) {
+        int slot = index % PAGE_SIZE;
+        int pf, ps;
+
+        if (slot < PDU2_MIN_PF) {
+            pf = slot;
+            ps = 0;
+        } else {
+            pf = PDU2_MIN_PF + ((slot - PDU2_MIN_PF) >> 8);
+            ps = (slot - PDU2_MIN_PF) & 0xFF;
+        }
+
+        return ((index / PAGE_SIZE) << 16) | (pf << 8) | ps;
+    }
+
+    /**
+     * Check whether an {@code int} represents a valid ISOBUS PGN.
+     * 
+     * @param intRep
+     *            the {@code int} representation
+     * @return {@code true} if {@code intRep} can be used to construct a
+     *         {@link PGN}, otherwise {@code false}
+     */
+    static boolean isValid(int intRep) {
+        // Check for invalid type
+        if ((intRep & PF2_MASK) != PF2_MASK && (intRep & PS_MASK) != 0)
+            return false;
+
+        // Check for value outside allowed range
+        if (intRep < MIN_VALUE || intRep > MAX_VALUE)
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Get the {@code int} representation of this {@link PGN}.
+     * 
+     * @return the {@code int} representation
+     */
+    public int asInt() {
+        return mInt;
+    }
+
+    /**
+     * @return the PDU format (PF) byte of this {@link PGN}
+     */
+    public int getPduFormat() {
+        return (mInt >> 8) & 0xFF;
+    }
+
+    /**
+     * @return the PDU specific (PS) byte of this {@link PGN}, always {@code 0}
+     *         for PDU1 PGNs
+     */
+    public int getPduSpecific() {
+        return mInt & PS_MASK;
+    }
+
+    /**
+     * @return {@code true} if this is a PDU1 (destination specific) PGN,
+     *         otherwise {@code false}
+     */
+    public boolean isPdu1() {
+        return getPduFormat() < PDU2_MIN_PF;
+    }
+
+    /**
+     * @return {@code true} if this is a PDU2 (broadcast) PGN, otherwise
+     *         {@code false}
+     */
+    public boolean isPdu2() {
+        return getPduFormat() >= PDU2_MIN_PF;
+    }
+
+    /**
+     * @return the data page (DP) bit of this {@link PGN}
+     */
+    public int getDataPage() {
+        return (mInt >> 16) & 1;
+    }
+
+    /**
+     * @return the extended data page (EDP) bit of this {@link PGN}
+     */
+    public int getExtendedDataPage() {
+        return (mInt >> 17) & 1;
+    }
+
+    /**
+     * @return the priority {@link Message}s of this {@link PGN} are normally
+     *         sent with, {@link Message#DEFAULT_PRIORITY} if it is not known
+     */
+    public int getDefaultPriority() {
+        return Definitions.priorities[index(mInt)];
+    }
+
+    /**
+     * @return the number of data bytes in a {@link Message} of this
+     *         {@link PGN}, or {@link #VARIABLE_LENGTH} if it varies or is not
+     *         known
+     */
+    public int getExpectedLength() {
+        return Definitions.lengths[index(mInt)];
+    }
+
+    /**
+     * @return the name of this {@link PGN}, or {@code null} if it is not known
+     */
+    public String getName() {
+        return Definitions.names[index(mInt)];
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "PGN:" + Integer.toString(mInt);
+    }
+
+    /**
+     * Compares this instance with the specified object and indicates if they
+     * are equal. In order to be equal, {@code o} must be an instance of
+     * {@code PGN} and have the same integer representation as this object.
+     * 
+     * @param o
+     *            the object to compare this {@link PGN} with
+     * @return {@code true} if the specified object is equal to this
+     *         {@code Integer}; {@code false} otherwise
+     */
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof PGN) && (((PGN) o).mInt == mInt);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return mInt;
+    }
+
+    /**
+     * Replace a deserialized {@link PGN} with the shared instance.
+     * 
+     * @return the result of {@link #valueOf(int)}
+     */
+    private Object readResolve() {
+        return valueOf(mInt);
+    }
+
+    /**
+     * Metadata of each PGN, indexed by {@link PGN#index(int)}. Loaded from
+     * {@code pgns.txt} when this class is first used.
+     * <p>
+     * Each line of the file is a PGN in hex (or a range of them, as
+     * {@code first-last}), its default priority, its length in bytes (or
+     * {@code var}) and its name, separated by whitespace. Anything after a
+     * {@code #} is ignored.
+     */
+    private static final class Definitions {
+
+        private static final String FILE = "pgns.txt";
+
+        static final byte priorities[] = new byte[COUNT];
+        static final short lengths[] = new short[COUNT];
+        static final String names[] = new String[COUNT];
+
+        static {
+            Arrays.fill(priorities, (byte) Message.DEFAULT_PRIORITY);
+            Arrays.fill(lengths, (short) VARIABLE_LENGTH);
+
+            InputStream in = PGN.class.getResourceAsStream(FILE);
+            if (in != null) {
+                try {
+                    load(in);
+                } catch (IOException e) {
+                    // Leave the rest unknown
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+
+        private static void load(InputStream in) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    in, "US-ASCII"));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int hash = line.indexOf('#');
+                if (hash >= 0) {
+                    line = line.substring(0, hash);
+                }
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+
+                String fields[] = line.split("\\s+", 4);
+                if (fields.length < 4) {
+                    throw new IOException("malformed PGN definition: " + line);
+                }
+
+                int first, last;
+                int dash = fields[0].indexOf('-');
+                try {
+                    if (dash < 0) {
+                        first = last = Integer.parseInt(fields[0], 16);
+                    } else {
+                        first = Integer.parseInt(fields[0].substring(0, dash),
+                                16);
+                        last = Integer.parseInt(fields[0].substring(dash + 1),
+                                16);
+                    }
+                    byte priority = Byte.parseByte(fields[1]);
+                    short length = (short) VARIABLE_LENGTH;
+                    if (!"var".equals(fields[2])) {
+                        length = Short.parseShort(fields[2]);
+                    }
+
+                    for (int pgn = first; pgn <= last; pgn++) {
+                        if (!isValid(pgn)) {
+                            continue;
+                        }
+
+                        int i = index(pgn);
+                        priorities[i] = priority;
+                        lengths[i] = length;
+                        names[i] = fields[3];
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("malformed PGN definition: " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown when an {@code int} not representing a valid ISOBUS PGN is used to
+     * construct a {@link PGN}.
+     * 
+     * @author Alex Layton <alex@layton.in>
+     */
+    public final class InvalidPGNException extends IllegalArgumentException {
+
+        private static final long serialVersionUID = 4667515300205962800L;
+
+        /**
+         * Constructs a new {@link InvalidPGNException} with the current stack
+         * trace and a detail message mentioning {@code intRep}.
+         * 
+         * @param intRep
+         *            the {@code int} which does not represent a valid ISOBUS
+         *            PGN
+         */
+        private InvalidPGNException(int intRep) {
+            super("Integer \"" + intRep
+                    + "\" does not represent a valid ISOBUS PGN");
+        }
+    }
+}
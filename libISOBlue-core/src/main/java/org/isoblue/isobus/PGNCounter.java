@@ -0,0 +1,84 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts {@link Message}s of each {@link PGN}, one slot per possible
+ * {@link PGN}. Counting is only done by the thread dispatching a
+ * {@link Bus}, so it needs no atomic add. Snapshots list only the PGNs which
+ * have been counted, named by their hex value.
+ *
+ * @see MetricRegistry#pgnCounter(String)
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class PGNCounter {
+
+    private final AtomicLongArray mCounts;
+
+    PGNCounter() {
+        mCounts = new AtomicLongArray(PGN.COUNT);
+    }
+
+    /**
+     * Count one {@link Message}. Must only be called from one thread.
+     *
+     * @param pgn
+     *            its {@link PGN}
+     */
+    void increment(PGN pgn) {
+        int i = PGN.index(pgn.asInt());
+
+        // Single writer, so a plain add which is published lazily is safe
+        mCounts.lazySet(i, mCounts.get(i) + 1);
+    }
+
+    /**
+     * @param pgn
+     *            the {@link PGN}
+     * @return how many {@link Message}s of {@code pgn} have been counted
+     */
+    public long get(PGN pgn) {
+        return mCounts.get(PGN.index(pgn.asInt()));
+    }
+
+    /**
+     * Add the counted PGNs to {@code values}, as {@code prefix} followed by
+     * the PGN in hex.
+     */
+    void addTo(String prefix, Map<String, Long> values) {
+        for (int i = 0; i < PGN.COUNT; i++) {
+            long count = mCounts.get(i);
+
+            if (count != 0) {
+                values.put(prefix + Integer.toHexString(PGN.fromIndex(i))
+                        .toUpperCase(Locale.US), count);
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the {@link ISOBUSSocket}s on a {@link Bus} by the {@link PGN}s they
+ * receive, so a {@link Message} can be given to only the sockets which want
+ * it.
+ * <p>
+ * Each socket's {@link PGN}s are read when it is added. Sockets which
+ * receive every {@link PGN} are given every {@link Message}; those with no
+ * {@link PGN}s are given none. Sockets can be added without
+ * routing, so they count towards {@link #getPgnUnion()} but are not returned
+ * by {@link #lookup(PGN)}. Lookups do not lock; adding or removing a socket
+ * rebuilds the index and swaps it in.
+ * <p>
+ * Each socket is given a slot, which it keeps until it is removed. The slot
+ * is then free for the next socket added.
+ *
+ * @see ISOBUSSocket#getPgns()
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class PGNIndex {
+
+    private static final ISOBUSSocket NO_SOCKETS[] = new ISOBUSSocket[0];
+
+    /**
+     * Immutable view of the index which lookups use.
+     */
+    private static final class Snapshot {
+
+        /**
+         * All sockets, in slot order.
+         */
+        private final ISOBUSSocket mAll[];
+
+        /**
+         * Sockets which receive every {@link PGN}.
+         */
+        private final ISOBUSSocket mWildcards[];
+
+        /**
+         * Sockets to receive each {@link PGN} asked for by some socket,
+         * including the wildcards.
+         */
+        private final Map<PGN, ISOBUSSocket[]> mByPgn;
+
+        /**
+         * Every {@link PGN} asked for by some socket, in ascending order, or
+         * {@code null} if some socket receives every {@link PGN}.
+         */
+        private final int mUnion[];
+
+        private Snapshot(ISOBUSSocket all[], ISOBUSSocket wildcards[],
+                Map<PGN, ISOBUSSocket[]> byPgn, int union[]) {
+            mAll = all;
+            mWildcards = wildcards;
+            mByPgn = byPgn;
+            mUnion = union;
+        }
+    }
+
+    /**
+     * Socket in each slot, {@code null} if the slot is free
+     */
+    private final List<ISOBUSSocket> mSockets;
+    /**
+     * {@link PGN}s of each socket, {@code null} if it receives all of them
+     */
+    private final List<Set<PGN>> mPgnSets;
+    private final List<Boolean> mRouted;
+    private final Map<ISOBUSSocket, Integer> mSlots;
+    /**
+     * Stack of the free slots
+     */
+    private int mFree[];
+    private int mFreeCount;
+    private volatile Snapshot mSnapshot;
+
+    public PGNIndex() {
+        mSockets = new ArrayList<ISOBUSSocket>();
+        mPgnSets = new ArrayList<Set<PGN>>();
+        mRouted = new ArrayList<Boolean>();
+        mSlots = new IdentityHashMap<ISOBUSSocket, Integer>();
+        mFree = new int[4];
+        mFreeCount = 0;
+        mSnapshot = new Snapshot(NO_SOCKETS, NO_SOCKETS,
+                Collections.<PGN, ISOBUSSocket[]> emptyMap(), new int[0]);
+    }
+
+    /**
+     * Add a socket to the index, with the {@link PGN}s it has now.
+     *
+     * @param sock
+     *            the {@link ISOBUSSocket} to add
+     * @return {@code false} if {@code sock} was already in the index,
+     *         otherwise {@code true}
+     */
+    public boolean add(ISOBUSSocket sock) {
+        return add(sock, true);
+    }
+
+    /**
+     * Add a socket to the index, with the {@link PGN}s it has now.
+     *
+     * @param sock
+     *            the {@link ISOBUSSocket} to add
+     * @param routed
+     *            whether {@link #lookup(PGN)} should return {@code sock}
+     * @return {@code false} if {@code sock} was already in the index,
+     *         otherwise {@code true}
+     */
+    public synchronized boolean add(ISOBUSSocket sock, boolean routed) {
+        Set<PGN> pgns;
+        int slot;
+
+        if (sock == null) {
+            throw new NullPointerException();
+        }
+        if (mSlots.containsKey(sock)) {
+            return false;
+        }
+
+        pgns = sock.receivesAllPgns() ? null : new HashSet<PGN>(sock
+                .getPgns());
+        if (mFreeCount > 0) {
+            slot = mFree[--mFreeCount];
+            mSockets.set(slot, sock);
+            mPgnSets.set(slot, pgns);
+            mRouted.set(slot, routed);
+        } else {
+            slot = mSockets.size();
+            mSockets.add(sock);
+            mPgnSets.add(pgns);
+            mRouted.add(routed);
+        }
+        mSlots.put(sock, slot);
+        rebuild();
+
+        return true;
+    }
+
+    /**
+     * Remove a socket from the index.
+     *
+     * @param sock
+     *            the {@link ISOBUSSocket} to remove
+     * @return {@code true} if {@code sock} was in the index, otherwise
+     *         {@code false}
+     */
+    public synchronized boolean remove(ISOBUSSocket sock) {
+        Integer slot = mSlots.remove(sock);
+
+        if (slot == null) {
+            return false;
+        }
+
+        mSockets.set(slot, null);
+        mPgnSets.set(slot, null);
+        mRouted.set(slot, false);
+        if (mFreeCount == mFree.length) {
+            mFree = Arrays.copyOf(mFree, mFree.length * 2);
+        }
+        mFree[mFreeCount++] = slot;
+        rebuild();
+
+        return true;
+    }
+
+    /**
+     * Change whether {@link #lookup(PGN)} returns a socket in the index.
+     *
+     * @param sock
+     *            the {@link ISOBUSSocket}
+     * @param routed
+     *            whether {@link #lookup(PGN)} should return {@code sock}
+     * @return {@code true} if {@code sock} was in the index, otherwise
+     *         {@code false}
+     */
+    public synchronized boolean setRouted(ISOBUSSocket sock, boolean routed) {
+        Integer slot = mSlots.get(sock);
+
+        if (slot == null) {
+            return false;
+        }
+
+        if (mRouted.get(slot) != routed) {
+            mRouted.set(slot, routed);
+            rebuild();
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the slot of a socket in the index. It does not change until the
+     * socket is removed.
+     *
+     * @param sock
+     *            the {@link ISOBUSSocket} to look for
+     * @return the slot of {@code sock}, or -1 if it is not in the index
+     */
+    public synchronized int getSlot(ISOBUSSocket sock) {
+        Integer slot = mSlots.get(sock);
+
+        return slot == null ? -1 : slot;
+    }
+
+    private void rebuild() {
+        List<ISOBUSSocket> all = new ArrayList<ISOBUSSocket>(mSlots.size());
+        List<ISOBUSSocket> wildcards = new ArrayList<ISOBUSSocket>();
+        Set<PGN> pgns = new HashSet<PGN>();
+        Map<PGN, ISOBUSSocket[]> byPgn;
+        int union[];
+        int n = mSockets.size();
+        boolean everything = false;
+        int j;
+
+        for (int i = 0; i < n; i++) {
+            Set<PGN> set = mPgnSets.get(i);
+
+            if (mSockets.get(i) == null) {
+                continue;
+            }
+            all.add(mSockets.get(i));
+            if (set == null) {
+                everything = true;
+                if (mRouted.get(i)) {
+                    wildcards.add(mSockets.get(i));
+                }
+            } else {
+                pgns.addAll(set);
+            }
+        }
+
+        byPgn = new HashMap<PGN, ISOBUSSocket[]>(pgns.size() * 2);
+        union = new int[pgns.size()];
+        j = 0;
+        for (PGN pgn : pgns) {
+            List<ISOBUSSocket> socks = new ArrayList<ISOBUSSocket>();
+
+            // Keep the sockets in slot order
+            for (int i = 0; i < n; i++) {
+                Set<PGN> set = mPgnSets.get(i);
+
+                if (mRouted.get(i) && (set == null || set.contains(pgn))) {
+                    socks.add(mSockets.get(i));
+                }
+            }
+
+            byPgn.put(pgn, socks.toArray(NO_SOCKETS));
+            union[j++] = pgn.asInt();
+        }
+        Arrays.sort(union);
+
+        mSnapshot = new Snapshot(all.toArray(NO_SOCKETS),
+                wildcards.toArray(NO_SOCKETS), byPgn, everything ? null
+                        : union);
+    }
+
+    /**
+     * Get the sockets which receive {@link Message}s with the given
+     * {@link PGN}. The returned array is shared and must not be modified.
+     *
+     * @param pgn
+     *            the {@link PGN} of a {@link Message}
+     * @return the {@link ISOBUSSocket}s to receive it, possibly empty
+     */
+    public ISOBUSSocket[] lookup(PGN pgn) {
+        Snapshot snapshot = mSnapshot;
+        ISOBUSSocket socks[] = snapshot.mByPgn.get(pgn);
+
+        return socks == null ? snapshot.mWildcards : socks;
+    }
+
+    /**
+     * Get all the sockets in the index. The returned array is shared and must
+     * not be modified.
+     *
+     * @return the {@link ISOBUSSocket}s, in slot order
+     */
+    public ISOBUSSocket[] getSockets() {
+        return mSnapshot.mAll;
+    }
+
+    /**
+     * Get every {@link PGN} received by some socket in the index.
+     *
+     * @return the {@link PGN}s in ascending order, or {@code null} if some
+     *         socket receives every {@link PGN}
+     */
+    public int[] getPgnUnion() {
+        Snapshot snapshot = mSnapshot;
+
+        return snapshot.mUnion == null ? null : snapshot.mUnion.clone();
+    }
+}
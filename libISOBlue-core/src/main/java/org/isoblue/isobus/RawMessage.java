@@ -0,0 +1,269 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Arrays;
+
+/**
+ * Mutable ISOBUS message made only of primitives, for consumers which handle
+ * many {@link Message}s and want to reuse one object instead of allocating
+ * per message.
+ * <p>
+ * The data is kept in an array owned by the {@link RawMessage}, which only
+ * grows, so refilling it does not allocate once it is large enough. Use
+ * {@link #toMessage()} where a {@link Message} is needed.
+ *
+ * @see Message
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class RawMessage {
+
+    /**
+     * Room for the data of a single CAN frame.
+     */
+    private static final int INITIAL_DATA_SIZE = 8;
+
+    private long mId;
+    private int mPgn;
+    private short mDestAddr;
+    private short mSrcAddr;
+    private long mTimestamp;
+    private int mPriority;
+    private byte mData[];
+    private int mLength;
+
+    public RawMessage() {
+        mData = new byte[INITIAL_DATA_SIZE];
+        clear();
+    }
+
+    /**
+     * Reset every field, leaving no data.
+     *
+     * @return this {@link RawMessage}
+     */
+    public RawMessage clear() {
+        mId = 0;
+        mPgn = 0;
+        mDestAddr = -1;
+        mSrcAddr = -1;
+        mTimestamp = -1;
+        mPriority = Message.DEFAULT_PRIORITY;
+        mLength = 0;
+
+        return this;
+    }
+
+    /**
+     * Set the fields other than the data.
+     *
+     * @param id
+     *            the sequence number assigned to the message
+     * @param pgn
+     *            the PGN of the data
+     * @param destAddr
+     *            the address of the destination
+     * @param srcAddr
+     *            the address of the source
+     * @param timeStamp
+     *            the arrival time of the message, in &micros since the epoch
+     * @return this {@link RawMessage}
+     */
+    public RawMessage set(long id, int pgn, short destAddr, short srcAddr,
+            long timeStamp) {
+        mId = id;
+        mPgn = pgn;
+        mDestAddr = destAddr;
+        mSrcAddr = srcAddr;
+        mTimestamp = timeStamp;
+
+        return this;
+    }
+
+    /**
+     * Copy the data from part of an array.
+     *
+     * @param data
+     *            the array holding the data
+     * @param off
+     *            where the data starts in {@code data}
+     * @param len
+     *            how many {@code bytes} of data
+     * @return this {@link RawMessage}
+     */
+    public RawMessage setData(byte data[], int off, int len) {
+        if (len > mData.length) {
+            mData = new byte[Math.max(len, mData.length * 2)];
+        }
+
+        System.arraycopy(data, off, mData, 0, len);
+        mLength = len;
+
+        return this;
+    }
+
+    /**
+     * Copy all of the fields of a {@link Message}.
+     *
+     * @param message
+     *            the {@link Message} to copy
+     * @return this {@link RawMessage}
+     */
+    public RawMessage set(Message message) {
+        Object id = message.getId();
+        // IDs are unsigned 32 bit, even when held in an Integer
+        long raw = id instanceof Number ? ((Number) id).longValue()
+                & 0xFFFFFFFFL : 0;
+
+        set(raw, message.getPgn().asInt(), message.getDestAddr(),
+                message.getSrcAddr(), message.getTimeStamp());
+        mPriority = message.getPriority();
+
+        return setData(message.getData(), 0, message.getData().length);
+    }
+
+    /**
+     * Set the priority to send the message with.
+     *
+     * @param priority
+     *            the priority, from {@link Message#MIN_PRIORITY} (most
+     *            important) to {@link Message#MAX_PRIORITY}
+     * @return this {@link RawMessage}
+     */
+    public RawMessage setPriority(int priority) {
+        if (priority < Message.MIN_PRIORITY
+                || priority > Message.MAX_PRIORITY) {
+            throw new IllegalArgumentException("Invalid priority: "
+                    + priority);
+        }
+        mPriority = priority;
+
+        return this;
+    }
+
+    /**
+     * Create a {@link Message} with the same fields. Its ID is an
+     * {@link Integer} holding the 32 bit ID, like the start IDs of
+     * {@link org.isoblue.isoblue.ISOBlueNetwork}, so IDs above
+     * {@link Integer#MAX_VALUE} are negative.
+     *
+     * @return the {@link Message}
+     * @throws PGN.InvalidPGNException
+     *             if the PGN is not valid
+     */
+    public Message toMessage() {
+        // Copy the data once, and let the Message keep the copy
+        return new Message(Integer.valueOf((int) mId), mDestAddr, mSrcAddr,
+                PGN.valueOf(mPgn), Arrays.copyOf(mData, mLength), mTimestamp,
+                mPriority, false);
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public int getPgn() {
+        return mPgn;
+    }
+
+    public short getDestAddr() {
+        return mDestAddr;
+    }
+
+    public short getSrcAddr() {
+        return mSrcAddr;
+    }
+
+    /**
+     * @return the arrival time, in &micros since the epoch
+     */
+    public long getTimeStamp() {
+        return mTimestamp;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Get the array holding the data. Only the first {@link #getLength()}
+     * {@code bytes} are the data, and the array is reused when this
+     * {@link RawMessage} is refilled.
+     *
+     * @return the data array
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * @return how many {@code bytes} of data there are
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @param i
+     *            which {@code byte}, less than {@link #getLength()}
+     * @return the {@code byte} of data at {@code i}
+     */
+    public byte getByte(int i) {
+        if (i >= mLength) {
+            throw new IndexOutOfBoundsException("Index " + i + ", length "
+                    + mLength);
+        }
+
+        return mData[i];
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+
+        s.append("ID:").append(mId);
+        s.append(" PGN:").append(mPgn);
+        s.append(" SA:").append(mSrcAddr);
+        s.append(" DA:").append(mDestAddr);
+
+        s.append(" Data:");
+        for (int i = 0; i < mLength; i++) {
+            int val = mData[i] & 0xff;
+
+            if (val < 0x10)
+                s.append("0");
+            s.append(Integer.toString(val, 16)).append(" ");
+        }
+
+        s.append("Time: ").append(mTimestamp);
+
+        return s.toString();
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.Serializable;
+import java.nio.ByteOrder;
+
+/**
+ * Definition of a Suspect Parameter Number (SPN), one signal within the data
+ * of a {@link Message}: where its bits are, and how to scale them.
+ * <p>
+ * Signals are unsigned unless made signed, and at most 32 bits long. Bits
+ * are numbered from bit 0 of the first data byte. A
+ * {@link ByteOrder#LITTLE_ENDIAN} signal, as J1939 and ISO 11783 use, starts
+ * at its least significant bit. A {@link ByteOrder#BIG_ENDIAN} signal starts
+ * at its most significant bit and continues into the following bytes, as in
+ * a DBC file.
+ * <p>
+ * Raw values at or above the not available or error thresholds do not carry
+ * a value. By default these are the J1939 ranges for the signal's length,
+ * e.g. 0xFF00 to 0xFFFF is not available for a 16 bit signal.
+ * <p>
+ * To decode, compile one or more {@link SPN}s into a {@link SignalDecoder}.
+ * 
+ * @see SignalDecoder
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class SPN implements Serializable {
+
+    private static final long serialVersionUID = -2041916452337108395L;
+
+    /**
+     * Longest signal, in bits
+     */
+    public static final int MAX_LENGTH = 32;
+
+    /**
+     * Threshold meaning no raw value is reserved
+     */
+    public static final long NONE = -1;
+
+    /**
+     * SPN 190, Engine Speed, from EEC1
+     */
+    public static final SPN ENGINE_SPEED = new SPN(190, "Engine Speed",
+            0xF004, 24, 16, 0.125, 0, "rpm");
+
+    /**
+     * SPN 110, Engine Coolant Temperature, from ET1
+     */
+    public static final SPN ENGINE_COOLANT_TEMPERATURE = new SPN(110,
+            "Engine Coolant Temperature", 0xFEEE, 0, 8, 1, -40, "\u00B0C");
+
+    /**
+     * SPN 84, Wheel-Based Vehicle Speed, from CCVS
+     */
+    public static final SPN WHEEL_BASED_VEHICLE_SPEED = new SPN(84,
+            "Wheel-Based Vehicle Speed", 0xFEF1, 8, 16, 1.0 / 256, 0, "km/h");
+
+    /**
+     * SPN 183, Engine Fuel Rate, from LFE
+     */
+    public static final SPN ENGINE_FUEL_RATE = new SPN(183,
+            "Engine Fuel Rate", 0xFEF2, 0, 16, 0.05, 0, "L/h");
+
+    /**
+     * SPN 1862, Ground-Based Machine Speed, from Ground-based Speed and
+     * Distance
+     */
+    public static final SPN GROUND_BASED_MACHINE_SPEED = new SPN(1862,
+            "Ground-Based Machine Speed", 0xFE49, 0, 16, 0.001, 0, "m/s");
+
+    private final int mNumber;
+    private final String mName;
+    private final int mPgn;
+    private final int mStartBit;
+    private final int mLength;
+    private final boolean mBigEndian;
+    private final boolean mSigned;
+    private final double mScale;
+    private final double mOffset;
+    private final String mUnit;
+    private final long mNotAvailable;
+    private final long mError;
+
+    /**
+     * Construct an unsigned, little endian {@link SPN} with the J1939 not
+     * available and error ranges.
+     * 
+     * @param number
+     *            the SPN
+     * @param name
+     *            the name of the signal
+     * @param pgn
+     *            {@code int} representation of the {@link PGN} carrying it
+     * @param startBit
+     *            its least significant bit
+     * @param length
+     *            its length in bits
+     * @param scale
+     *            value of one bit
+     * @param offset
+     *            value added after scaling
+     * @param unit
+     *            unit of the scaled value, may be {@code null}
+     */
+    public SPN(int number, String name, int pgn, int startBit, int length,
+            double scale, double offset, String unit) {
+        this(number, name, pgn, startBit, length, ByteOrder.LITTLE_ENDIAN,
+                false, scale, offset, unit, notAvailable(length),
+                error(length));
+    }
+
+    /**
+     * Construct a new {@link SPN}.
+     * 
+     * @param number
+     *            the SPN
+     * @param name
+     *            the name of the signal
+     * @param pgn
+     *            {@code int} representation of the {@link PGN} carrying it
+     * @param startBit
+     *            its first bit, see {@link SPN}
+     * @param length
+     *            its length in bits
+     * @param order
+     *            how its bytes are ordered
+     * @param signed
+     *            whether its raw value is two's complement
+     * @param scale
+     *            value of one bit
+     * @param offset
+     *            value added after scaling
+     * @param unit
+     *            unit of the scaled value, may be {@code null}
+     * @param notAvailable
+     *            smallest unsigned raw value meaning not available, or
+     *            {@link #NONE}
+     * @param error
+     *            smallest unsigned raw value meaning error, or {@link #NONE}
+     * @throws IllegalArgumentException
+     *             if the bits do not fit in 8 bytes of data, or the
+     *             {@link PGN} is not valid
+     */
+    public SPN(int number, String name, int pgn, int startBit, int length,
+            ByteOrder order, boolean signed, double scale, double offset,
+            String unit, long notAvailable, long error) {
+        if (length < 1 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("length must be 1 to "
+                    + MAX_LENGTH + " bits, given " + length);
+        }
+        if (startBit < 0 || lastByte(startBit, length, order) >= 8) {
+            throw new IllegalArgumentException("SPN " + number
+                    + " does not fit in 8 bytes");
+        }
+        if (!PGN.isValid(pgn)) {
+            throw new IllegalArgumentException("Invalid PGN: " + pgn);
+        }
+
+        mNumber = number;
+        mName = name;
+        mPgn = pgn;
+        mStartBit = startBit;
+        mLength = length;
+        mBigEndian = order == ByteOrder.BIG_ENDIAN;
+        mSigned = signed;
+        mScale = scale;
+        mOffset = offset;
+        mUnit = unit;
+        mNotAvailable = notAvailable;
+        mError = error;
+    }
+
+    /**
+     * Default not available threshold for a signal length.
+     */
+    static long notAvailable(int length) {
+        if (length >= 8) {
+            return 0xFFL << (length - 8);
+        }
+        return length >= 2 ? (1L << length) - 1 : NONE;
+    }
+
+    /**
+     * Default error threshold for a signal length.
+     */
+    static long error(int length) {
+        if (length >= 8) {
+            return 0xFEL << (length - 8);
+        }
+        return length >= 2 ? (1L << length) - 2 : NONE;
+    }
+
+    /**
+     * @return the index of the first byte holding part of the signal
+     */
+    int firstByte() {
+        return mStartBit / 8;
+    }
+
+    /**
+     * @return the index of the last byte holding part of the signal
+     */
+    int lastByte() {
+        return lastByte(mStartBit, mLength, mBigEndian ? ByteOrder.BIG_ENDIAN
+                : ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int lastByte(int startBit, int length, ByteOrder order) {
+        if (order == ByteOrder.BIG_ENDIAN) {
+            // Bits left after those in the first byte fill following bytes
+            int rest = length - (startBit % 8 + 1);
+
+            return startBit / 8 + (rest <= 0 ? 0 : (rest + 7) / 8);
+        }
+        return (startBit + length - 1) / 8;
+    }
+
+    /**
+     * @return the SPN
+     */
+    public int getNumber() {
+        return mNumber;
+    }
+
+    /**
+     * @return the name of the signal
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return {@code int} representation of the {@link PGN} carrying it
+     */
+    public int getPgn() {
+        return mPgn;
+    }
+
+    /**
+     * @return its first bit
+     */
+    public int getStartBit() {
+        return mStartBit;
+    }
+
+    /**
+     * @return its length in bits
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return how its bytes are ordered
+     */
+    public ByteOrder getByteOrder() {
+        return mBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    boolean isBigEndian() {
+        return mBigEndian;
+    }
+
+    /**
+     * @return whether its raw value is two's complement
+     */
+    public boolean isSigned() {
+        return mSigned;
+    }
+
+    /**
+     * @return value of one bit
+     */
+    public double getScale() {
+        return mScale;
+    }
+
+    /**
+     * @return value added after scaling
+     */
+    public double getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * @return unit of the scaled value, may be {@code null}
+     */
+    public String getUnit() {
+        return mUnit;
+    }
+
+    /**
+     * @return smallest unsigned raw value meaning not available, or
+     *         {@link #NONE}
+     */
+    public long getNotAvailable() {
+        return mNotAvailable;
+    }
+
+    /**
+     * @return smallest unsigned raw value meaning error, or {@link #NONE}
+     */
+    public long getError() {
+        return mError;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "SPN:" + mNumber + " " + mName;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link SignalDecoder}s keyed by {@link PGN}, for decoding the
+ * {@link Message}s of any {@link ISOBUSSocket}. Looking up the decoder of a
+ * {@link PGN} is one array access.
+ * <p>
+ * A {@link SignalDatabase} can be written to and read back from a compact
+ * binary form, which is much quicker to load than parsing the DBC file it
+ * came from again.
+ * 
+ * @see DBCParser
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class SignalDatabase {
+
+    /**
+     * Start of the binary form, "ISBS"
+     */
+    private static final int MAGIC = 0x49534253;
+
+    /**
+     * Version of the binary form
+     */
+    private static final int VERSION = 1;
+
+    private static final int FLAG_BIG_ENDIAN = 1;
+    private static final int FLAG_SIGNED = 2;
+    private static final int FLAG_UNIT = 4;
+
+    /**
+     * Indexed by {@link PGN#index(int)}
+     */
+    private final SignalDecoder mDecoders[];
+    private final List<SignalDecoder> mList;
+    private final int mSignals;
+
+    /**
+     * @param decoders
+     *            the {@link SignalDecoder}s, at most one per {@link PGN}
+     * @throws IllegalArgumentException
+     *             if two decoders are for the same {@link PGN}
+     */
+    public SignalDatabase(Collection<SignalDecoder> decoders) {
+        int signals = 0;
+
+        mDecoders = new SignalDecoder[PGN.COUNT];
+        for (SignalDecoder decoder : decoders) {
+            int i = PGN.index(decoder.getPgn());
+
+            if (mDecoders[i] != null) {
+                throw new IllegalArgumentException("Two decoders for PGN "
+                        + decoder.getPgn());
+            }
+            mDecoders[i] = decoder;
+            signals += decoder.size();
+        }
+
+        mList = Collections.unmodifiableList(new ArrayList<SignalDecoder>(
+                decoders));
+        mSignals = signals;
+    }
+
+    /**
+     * @param pgn
+     *            {@code int} representation of a {@link PGN}
+     * @return its {@link SignalDecoder}, or {@code null} if there is none
+     */
+    public SignalDecoder getDecoder(int pgn) {
+        return PGN.isValid(pgn) ? mDecoders[PGN.index(pgn)] : null;
+    }
+
+    /**
+     * @param pgn
+     *            a {@link PGN}
+     * @return its {@link SignalDecoder}, or {@code null} if there is none
+     */
+    public SignalDecoder getDecoder(PGN pgn) {
+        return mDecoders[PGN.index(pgn.asInt())];
+    }
+
+    /**
+     * Decode the scaled value of each signal in a {@link Message}.
+     * 
+     * @param message
+     *            the {@link Message}
+     * @param values
+     *            where to put the values, at least as long as the
+     *            {@link SignalDecoder#size()} of its {@link PGN}
+     * @return the {@link SignalDecoder} used, or {@code null} if there is
+     *         none for the {@link Message}'s {@link PGN}
+     */
+    public SignalDecoder decode(Message message, double values[]) {
+        SignalDecoder decoder = getDecoder(message.getPgn());
+
+        if (decoder != null) {
+            decoder.decode(message, values);
+        }
+        return decoder;
+    }
+
+    /**
+     * @return every {@link SignalDecoder}
+     */
+    public List<SignalDecoder> getDecoders() {
+        return mList;
+    }
+
+    /**
+     * @return how many {@link PGN}s have a {@link SignalDecoder}
+     */
+    public int size() {
+        return mList.size();
+    }
+
+    /**
+     * @return how many signals there are, over all {@link PGN}s
+     */
+    public int getSignalCount() {
+        return mSignals;
+    }
+
+    /**
+     * Write the binary form of this {@link SignalDatabase}.
+     * 
+     * @param os
+     *            where to write it, not closed
+     * @param tag
+     *            stored with it, to tell whether it is out of date when read
+     *            back, e.g. the modification time of the source
+     * @throws IOException
+     *             if writing fails
+     */
+    public void writeTo(OutputStream os, long tag) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                os));
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(tag);
+        out.writeInt(mList.size());
+        for (SignalDecoder decoder : mList) {
+            SPN spns[] = decoder.getSpns();
+
+            out.writeInt(decoder.getPgn());
+            out.writeShort(spns.length);
+            for (SPN spn : spns) {
+                int flags = 0;
+
+                if (spn.isBigEndian()) {
+                    flags |= FLAG_BIG_ENDIAN;
+                }
+                if (spn.isSigned()) {
+                    flags |= FLAG_SIGNED;
+                }
+                if (spn.getUnit() != null) {
+                    flags |= FLAG_UNIT;
+                }
+
+                out.writeInt(spn.getNumber());
+                out.writeUTF(spn.getName() == null ? "" : spn.getName());
+                out.writeByte(spn.getStartBit());
+                out.writeByte(spn.getLength());
+                out.writeByte(flags);
+                out.writeDouble(spn.getScale());
+                out.writeDouble(spn.getOffset());
+                if (spn.getUnit() != null) {
+                    out.writeUTF(spn.getUnit());
+                }
+                out.writeLong(spn.getNotAvailable());
+                out.writeLong(spn.getError());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Read the binary form of a {@link SignalDatabase}.
+     * 
+     * @param is
+     *            where to read it from, not closed
+     * @param tag
+     *            what it must have been written with
+     * @return the {@link SignalDatabase}, or {@code null} if it is not in the
+     *         binary form, is of another version, or has another tag
+     * @throws IOException
+     *             if reading fails
+     */
+    public static SignalDatabase readFrom(InputStream is, long tag)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        List<SignalDecoder> decoders;
+        int count;
+
+        if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readLong() != tag) {
+            return null;
+        }
+
+        count = in.readInt();
+        decoders = new ArrayList<SignalDecoder>(count);
+        for (int i = 0; i < count; i++) {
+            int pgn = in.readInt();
+            SPN spns[] = new SPN[in.readUnsignedShort()];
+
+            for (int j = 0; j < spns.length; j++) {
+                int number = in.readInt();
+                String name = in.readUTF();
+                int startBit = in.readUnsignedByte();
+                int length = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                double scale = in.readDouble();
+                double offset = in.readDouble();
+                String unit = (flags & FLAG_UNIT) != 0 ? in.readUTF() : null;
+
+                spns[j] = new SPN(number, name, pgn, startBit, length,
+                        (flags & FLAG_BIG_ENDIAN) != 0 ? ByteOrder.BIG_ENDIAN
+                                : ByteOrder.LITTLE_ENDIAN,
+                        (flags & FLAG_SIGNED) != 0, scale, offset, unit,
+                        in.readLong(), in.readLong());
+            }
+            decoders.add(SignalDecoder.compile(spns));
+        }
+
+        return new SignalDatabase(decoders);
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * {@link SPN}s of one {@link PGN} compiled into flat tables, so decoding all
+ * of them is one loop over primitive arrays which does not allocate.
+ * <p>
+ * Signals are decoded into arrays given by the caller, in the order the
+ * {@link SPN}s were compiled in. Scaled values of signals which are not
+ * available, in error, or past the end of the data are {@link Double#NaN}.
+ * <p>
+ * A {@link SignalDecoder} is immutable, and can be shared between threads.
+ * 
+ * <pre>
+ * SignalDecoder eec1 = SignalDecoder.compile(SPN.ENGINE_SPEED, ...);
+ * double values[] = new double[eec1.size()];
+ * 
+ * eec1.decode(message, values);
+ * </pre>
+ * 
+ * @see SPN
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class SignalDecoder {
+
+    /**
+     * Raw value of a signal which is not available, or past the end of the
+     * data
+     */
+    public static final long NOT_AVAILABLE = Long.MIN_VALUE;
+
+    /**
+     * Raw value of a signal in error
+     */
+    public static final long ERROR = Long.MIN_VALUE + 1;
+
+    private static final long NONE = SPN.NONE;
+
+    private final int mPgn;
+    private final SPN mSpns[];
+
+    /*
+     * One entry per signal
+     */
+    private final int mFirst[];
+    private final int mBytes[];
+    private final boolean mBigEndian[];
+    private final int mShift[];
+    private final long mMask[];
+    private final int mSignShift[];
+    private final long mNotAvailable[];
+    private final long mError[];
+    private final double mScale[];
+    private final double mOffset[];
+
+    private SignalDecoder(SPN spns[]) {
+        int n = spns.length;
+
+        mPgn = spns[0].getPgn();
+        mSpns = spns;
+        mFirst = new int[n];
+        mBytes = new int[n];
+        mBigEndian = new boolean[n];
+        mShift = new int[n];
+        mMask = new long[n];
+        mSignShift = new int[n];
+        mNotAvailable = new long[n];
+        mError = new long[n];
+        mScale = new double[n];
+        mOffset = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            SPN spn = spns[i];
+            int length = spn.getLength();
+
+            if (spn.getPgn() != mPgn) {
+                throw new IllegalArgumentException(spn + " is not in PGN "
+                        + mPgn);
+            }
+
+            mFirst[i] = spn.firstByte();
+            mBytes[i] = spn.lastByte() - spn.firstByte() + 1;
+            mBigEndian[i] = spn.isBigEndian();
+            if (mBigEndian[i]) {
+                // The bytes are loaded most significant first, so the
+                // signal ends (start bit in its byte + 1 - length) bits
+                // above the bottom of the last byte loaded
+                mShift[i] = (mBytes[i] - 1) * 8 + spn.getStartBit() % 8 + 1
+                        - length;
+            } else {
+                mShift[i] = spn.getStartBit() % 8;
+            }
+            mMask[i] = (1L << length) - 1;
+            mSignShift[i] = spn.isSigned() ? Long.SIZE - length : 0;
+            mNotAvailable[i] = spn.isSigned() ? NONE : spn.getNotAvailable();
+            mError[i] = spn.isSigned() ? NONE : spn.getError();
+            mScale[i] = spn.getScale();
+            mOffset[i] = spn.getOffset();
+        }
+    }
+
+    /**
+     * Compile {@link SPN}s into a {@link SignalDecoder}.
+     * 
+     * @param spns
+     *            the {@link SPN}s, all of one {@link PGN}
+     * @return the {@link SignalDecoder}
+     * @throws IllegalArgumentException
+     *             if there are no {@link SPN}s, or they are of different
+     *             {@link PGN}s
+     */
+    public static SignalDecoder compile(SPN... spns) {
+        if (spns.length == 0) {
+            throw new IllegalArgumentException("No SPNs to compile");
+        }
+
+        return new SignalDecoder(spns.clone());
+    }
+
+    /**
+     * Compile {@link SPN}s into a {@link SignalDecoder}.
+     * 
+     * @param spns
+     *            the {@link SPN}s, all of one {@link PGN}
+     * @return the {@link SignalDecoder}
+     * @throws IllegalArgumentException
+     *             if there are no {@link SPN}s, or they are of different
+     *             {@link PGN}s
+     */
+    public static SignalDecoder compile(Collection<SPN> spns) {
+        return compile(spns.toArray(new SPN[spns.size()]));
+    }
+
+    /**
+     * Decode the raw value of each signal. Unsigned values are
+     * {@link #NOT_AVAILABLE} or {@link #ERROR} when their thresholds are
+     * reached.
+     * 
+     * @param data
+     *            data of a {@link Message} of this decoder's {@link PGN}
+     * @param length
+     *            how many bytes of {@code data} are valid
+     * @param raw
+     *            where to put the values, at least {@link #size()} long
+     */
+    public void decodeRaw(byte data[], int length, long raw[]) {
+        int n = mSpns.length;
+
+        for (int i = 0; i < n; i++) {
+            raw[i] = decodeRaw(i, data, length);
+        }
+    }
+
+    /**
+     * Decode the scaled value of each signal.
+     * 
+     * @param data
+     *            data of a {@link Message} of this decoder's {@link PGN}
+     * @param length
+     *            how many bytes of {@code data} are valid
+     * @param values
+     *            where to put the values, at least {@link #size()} long
+     */
+    public void decode(byte data[], int length, double values[]) {
+        int n = mSpns.length;
+
+        for (int i = 0; i < n; i++) {
+            values[i] = decode(i, data, length);
+        }
+    }
+
+    /**
+     * Decode the scaled value of each signal in a {@link Message}.
+     * 
+     * @param message
+     *            a {@link Message} of this decoder's {@link PGN}
+     * @param values
+     *            where to put the values, at least {@link #size()} long
+     */
+    public void decode(Message message, double values[]) {
+        byte data[] = message.getData();
+
+        decode(data, data.length, values);
+    }
+
+    /**
+     * Decode the scaled value of each signal in a {@link RawMessage}.
+     * 
+     * @param message
+     *            a {@link RawMessage} of this decoder's {@link PGN}
+     * @param values
+     *            where to put the values, at least {@link #size()} long
+     */
+    public void decode(RawMessage message, double values[]) {
+        decode(message.getData(), message.getLength(), values);
+    }
+
+    /**
+     * Decode the raw value of one signal.
+     * 
+     * @param i
+     *            index of the signal, in the order compiled
+     * @param data
+     *            data of a {@link Message} of this decoder's {@link PGN}
+     * @param length
+     *            how many bytes of {@code data} are valid
+     * @return the value, {@link #NOT_AVAILABLE} or {@link #ERROR}
+     */
+    public long decodeRaw(int i, byte data[], int length) {
+        int first = mFirst[i];
+        int last = first + mBytes[i] - 1;
+        long v = 0;
+
+        if (last >= length) {
+            return NOT_AVAILABLE;
+        }
+
+        if (mBigEndian[i]) {
+            for (int b = first; b <= last; b++) {
+                v = (v << 8) | (data[b] & 0xFF);
+            }
+        } else {
+            for (int b = last; b >= first; b--) {
+                v = (v << 8) | (data[b] & 0xFF);
+            }
+        }
+        v = (v >>> mShift[i]) & mMask[i];
+
+        if (mSignShift[i] != 0) {
+            return (v << mSignShift[i]) >> mSignShift[i];
+        }
+        if (mNotAvailable[i] != NONE && v >= mNotAvailable[i]) {
+            return NOT_AVAILABLE;
+        }
+        if (mError[i] != NONE && v >= mError[i]) {
+            return ERROR;
+        }
+        return v;
+    }
+
+    /**
+     * Decode the scaled value of one signal.
+     * 
+     * @param i
+     *            index of the signal, in the order compiled
+     * @param data
+     *            data of a {@link Message} of this decoder's {@link PGN}
+     * @param length
+     *            how many bytes of {@code data} are valid
+     * @return the value, {@link Double#NaN} if not available or in error
+     */
+    public double decode(int i, byte data[], int length) {
+        long v = decodeRaw(i, data, length);
+
+        if (v == NOT_AVAILABLE || v == ERROR) {
+            return Double.NaN;
+        }
+        return v * mScale[i] + mOffset[i];
+    }
+
+    /**
+     * @return {@code int} representation of the {@link PGN} decoded
+     */
+    public int getPgn() {
+        return mPgn;
+    }
+
+    /**
+     * @return how many signals are decoded
+     */
+    public int size() {
+        return mSpns.length;
+    }
+
+    /**
+     * @return the {@link SPN}s, in the order they are decoded
+     */
+    public SPN[] getSpns() {
+        return mSpns.clone();
+    }
+
+    /**
+     * @param spn
+     *            an {@link SPN}
+     * @return the index {@code spn} is decoded at, or -1 if it is not
+     */
+    public int indexOf(SPN spn) {
+        return Arrays.asList(mSpns).indexOf(spn);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Receives the data of {@link ExtendedTransfer}s as they are reassembled.
+ * Called on the thread reading the network, so writing to the channel should
+ * be quick.
+ *
+ * @see Bus#setExtendedTransportReassembly(int, TransferConsumer)
+ * @author Alex Layton <alex@layton.in>
+ */
+public interface TransferConsumer {
+
+    /**
+     * Called when an {@link ExtendedTransfer} starts. Its data is written to
+     * the returned channel in order, as packets arrive, and the channel is
+     * closed when the transfer ends. For a file, return the channel of a
+     * {@link java.io.FileOutputStream}.
+     *
+     * @param transfer
+     *            the {@link ExtendedTransfer} starting
+     * @return the channel to write the data to, or {@code null} to ignore
+     *         this transfer
+     * @throws IOException
+     *             if the channel cannot be opened, the transfer is ignored
+     */
+    WritableByteChannel open(ExtendedTransfer transfer) throws IOException;
+
+    /**
+     * Called after an {@link ExtendedTransfer} ends and its channel is
+     * closed, or after {@link #open(ExtendedTransfer)} returned {@code null}
+     * or threw for it.
+     *
+     * @param transfer
+     *            the {@link ExtendedTransfer} which ended
+     * @param complete
+     *            {@code true} if all its data was written, {@code false} if
+     *            it was aborted, timed out, ignored or could not be written
+     */
+    void closed(ExtendedTransfer transfer, boolean complete);
+}
@@ -0,0 +1,425 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import java.util.Arrays;
+
+/**
+ * Reassembles multi-packet {@link Message}s sent with the ISO 11783-3
+ * Transport Protocol, both broadcast (BAM) and connection mode (CMDT).
+ * <p>
+ * Each session is tracked by its source and destination address, and given a
+ * buffer of {@link #MAX_SIZE} bytes when the {@link TransportReassembler} is
+ * created, so reassembling does not allocate. When the last packet of a
+ * session arrives, one {@link Message} with the real {@link PGN} and all the
+ * data is made. A session which goes longer than its timeout between packets
+ * is dropped.
+ * <p>
+ * Times are taken from the {@link Message}s, so reassembling buffered data
+ * behaves the same as live data.
+ *
+ * @see Bus#setTransportReassembly(int)
+ * @author Alex Layton <alex@layton.in>
+ */
+public final class TransportReassembler {
+
+    /**
+     * {@link PGN} of TP.CM, the connection management packets
+     */
+    public static final int TP_CM = 0x00EC00;
+
+    /**
+     * {@link PGN} of TP.DT, the data packets
+     */
+    public static final int TP_DT = 0x00EB00;
+
+    /**
+     * Most bytes one session can carry
+     */
+    public static final int MAX_SIZE = 255 * 7;
+
+    /**
+     * Timeout between packets of a BAM session (T1), in &micro;s
+     */
+    public static final long BAM_TIMEOUT = 750000;
+
+    /**
+     * Timeout between packets of a CMDT session (T2 and T3), in &micro;s
+     */
+    public static final long CMDT_TIMEOUT = 1250000;
+
+    /**
+     * Default number of sessions tracked at once
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 16;
+
+    /*
+     * Control bytes of TP.CM
+     */
+    static final int CM_RTS = 16;
+    static final int CM_CTS = 17;
+    static final int CM_EOMA = 19;
+    static final int CM_BAM = 32;
+    static final int CM_ABORT = 255;
+
+    private static final int BYTES_PER_PACKET = 7;
+    private static final short GLOBAL_ADDR = 0xFF;
+
+    private final Session mSessions[];
+
+    /*
+     * Metrics, only written by the thread reassembling
+     */
+    private volatile int mActive;
+    private volatile long mCompleted;
+    private volatile long mTimedOut;
+    private volatile long mAborted;
+    private volatile long mRejected;
+    private volatile long mLastLatency;
+    private volatile long mMaxLatency;
+    private volatile long mTotalLatency;
+
+    /**
+     * @param maxSessions
+     *            how many sessions to track at once, each takes
+     *            {@link #MAX_SIZE} bytes
+     */
+    public TransportReassembler(int maxSessions) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("maxSessions must be positive, "
+                    + "given " + maxSessions);
+        }
+
+        mSessions = new Session[maxSessions];
+        for (int i = 0; i < maxSessions; i++) {
+            mSessions[i] = new Session();
+        }
+    }
+
+    /**
+     * Take in a received {@link Message}. Only TP.CM and TP.DT
+     * {@link Message}s are looked at. Must only be called from one thread.
+     *
+     * @param message
+     *            the received {@link Message}
+     * @return the reassembled {@link Message} if {@code message} completed a
+     *         session, otherwise {@code null}
+     */
+    public Message receive(Message message) {
+        switch (message.getPgn().asInt()) {
+        case TP_CM:
+            connectionManagement(message);
+            return null;
+
+        case TP_DT:
+            return dataTransfer(message);
+
+        default:
+            return null;
+        }
+    }
+
+    private void connectionManagement(Message message) {
+        byte data[] = message.getData();
+        short src = message.getSrcAddr();
+        short dest = message.getDestAddr();
+        long now = message.getTimeStamp();
+        Session session;
+
+        if (data.length < 8) {
+            return;
+        }
+
+        expire(now);
+
+        switch (data[0] & 0xFF) {
+        case CM_BAM:
+        case CM_RTS:
+            if ((data[0] & 0xFF) == CM_BAM) {
+                // Broadcast, whatever the destination says
+                dest = GLOBAL_ADDR;
+            }
+            session = find(src, dest);
+            if (session != null) {
+                // A new session replaces the old one
+                end(session);
+                mAborted++;
+            }
+            session = free();
+            if (session == null) {
+                mRejected++;
+                return;
+            }
+            if (!session.start(src, dest, data, now)) {
+                // Bad size or PGN, ignore it
+                session.mActive = false;
+                return;
+            }
+            mActive++;
+            break;
+
+        case CM_ABORT:
+            // Either end can abort
+            session = find(src, dest);
+            if (session == null) {
+                session = find(dest, src);
+            }
+            if (session != null && session.mPgn == pgn(data)) {
+                end(session);
+                mAborted++;
+            }
+            break;
+
+        default:
+            // CTS and EoMA only matter to the two ends
+            break;
+        }
+    }
+
+    private Message dataTransfer(Message message) {
+        byte data[] = message.getData();
+        long now = message.getTimeStamp();
+        Session session;
+        Message whole;
+
+        if (data.length < 1) {
+            return null;
+        }
+
+        session = find(message.getSrcAddr(), message.getDestAddr());
+        if (session == null) {
+            return null;
+        }
+        if (now - session.mLast > session.mTimeout) {
+            end(session);
+            mTimedOut++;
+            return null;
+        }
+        if (!session.packet(data, now)) {
+            return null;
+        }
+
+        whole = new Message(message.getId(), session.mDest, session.mSrc,
+                PGN.valueOf(session.mPgn), Arrays.copyOf(session.mBuf,
+                        session.mSize), now, PGN.valueOf(session.mPgn)
+                        .getDefaultPriority(), false);
+
+        mLastLatency = now - session.mStart;
+        mMaxLatency = Math.max(mMaxLatency, mLastLatency);
+        mTotalLatency += mLastLatency;
+        mCompleted++;
+        end(session);
+
+        return whole;
+    }
+
+    /**
+     * Drop sessions which have gone too long without a packet.
+     */
+    private void expire(long now) {
+        for (Session session : mSessions) {
+            if (session.mActive && now - session.mLast > session.mTimeout) {
+                end(session);
+                mTimedOut++;
+            }
+        }
+    }
+
+    private Session find(short src, short dest) {
+        for (Session session : mSessions) {
+            if (session.mActive && session.mSrc == src
+                    && session.mDest == dest) {
+                return session;
+            }
+        }
+
+        return null;
+    }
+
+    private Session free() {
+        for (Session session : mSessions) {
+            if (!session.mActive) {
+                return session;
+            }
+        }
+
+        return null;
+    }
+
+    private void end(Session session) {
+        session.mActive = false;
+        mActive--;
+    }
+
+    private static int pgn(byte data[]) {
+        return (data[5] & 0xFF) | (data[6] & 0xFF) << 8 | (data[7] & 0xFF)
+                << 16;
+    }
+
+    /**
+     * @return how many sessions are being reassembled
+     */
+    public int getSessionCount() {
+        return mActive;
+    }
+
+    /**
+     * @return how many sessions can be reassembled at once
+     */
+    public int getMaxSessions() {
+        return mSessions.length;
+    }
+
+    /**
+     * @return how many sessions were reassembled
+     */
+    public long getCompletedCount() {
+        return mCompleted;
+    }
+
+    /**
+     * @return how many sessions were dropped for going too long between
+     *         packets
+     */
+    public long getTimedOutCount() {
+        return mTimedOut;
+    }
+
+    /**
+     * @return how many sessions were aborted, or replaced by a new one
+     *         between the same addresses
+     */
+    public long getAbortedCount() {
+        return mAborted;
+    }
+
+    /**
+     * @return how many sessions were ignored because all were in use
+     */
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    /**
+     * @return time from the start of the last reassembled session to its
+     *         last packet, in &micro;s
+     */
+    public long getLastLatency() {
+        return mLastLatency;
+    }
+
+    /**
+     * @return longest time from the start of a reassembled session to its
+     *         last packet, in &micro;s
+     */
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    /**
+     * @return mean time from the start of reassembled sessions to their last
+     *         packet, in &micro;s, or 0 before any are reassembled
+     */
+    public long getMeanLatency() {
+        long completed = mCompleted;
+
+        return completed == 0 ? 0 : mTotalLatency / completed;
+    }
+
+    /**
+     * One session and its preallocated buffer.
+     */
+    private static final class Session {
+
+        final byte mBuf[] = new byte[MAX_SIZE];
+
+        /**
+         * Which packets have arrived, by sequence number - 1
+         */
+        final long mReceived[] = new long[4];
+
+        boolean mActive;
+        short mSrc;
+        short mDest;
+        int mPgn;
+        int mSize;
+        int mPackets;
+        int mCount;
+        long mTimeout;
+        long mStart;
+        long mLast;
+
+        /**
+         * Set up from an RTS or BAM.
+         *
+         * @return {@code false} if the announced transfer is not valid
+         */
+        boolean start(short src, short dest, byte data[], long now) {
+            mActive = true;
+            mSrc = src;
+            mDest = dest;
+            mPgn = pgn(data);
+            mSize = (data[1] & 0xFF) | (data[2] & 0xFF) << 8;
+            mPackets = data[3] & 0xFF;
+            mCount = 0;
+            mTimeout = dest == GLOBAL_ADDR ? BAM_TIMEOUT : CMDT_TIMEOUT;
+            mStart = mLast = now;
+            Arrays.fill(mReceived, 0);
+
+            return PGN.isValid(mPgn) && mSize > 0 && mSize <= MAX_SIZE
+                    && mPackets == (mSize + BYTES_PER_PACKET - 1)
+                            / BYTES_PER_PACKET;
+        }
+
+        /**
+         * Copy in a TP.DT packet. Repeated packets, as asked for by a CTS,
+         * overwrite the earlier copy.
+         *
+         * @return {@code true} if every packet has now arrived
+         */
+        boolean packet(byte data[], long now) {
+            int seq = data[0] & 0xFF;
+            int off, len;
+
+            if (seq < 1 || seq > mPackets) {
+                return false;
+            }
+            mLast = now;
+
+            off = (seq - 1) * BYTES_PER_PACKET;
+            len = Math.min(Math.min(BYTES_PER_PACKET, mSize - off),
+                    data.length - 1);
+            System.arraycopy(data, 1, mBuf, off, len);
+
+            long bit = 1L << ((seq - 1) & 63);
+            if ((mReceived[(seq - 1) >> 6] & bit) == 0) {
+                mReceived[(seq - 1) >> 6] |= bit;
+                mCount++;
+            }
+
+            return mCount == mPackets;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 /*
- * Author: Alex Layton <awlayton@purdue.edu>
+ * Author: Alex Layton <alex@layton.in>
  * 
- * Copyright (c) 2013 Purdue University
+ * Copyright (c) 2014 Purdue University
  * 
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -24,6 +24,27 @@
 
 package org.isoblue.isobus;
 
-public class NAME {
-
+/**
+ * How a socket reading from a {@link Bus}'s ring buffer waits for the next
+ * {@link Message}.
+ *
+ * @see Bus#setRingDispatch(int, WaitStrategy)
+ * @author Alex Layton <alex@layton.in>
+ */
+public enum WaitStrategy {
+    /**
+     * Sleep until woken by the thread publishing {@link Message}s. Uses no CPU
+     * while waiting, but costs the publisher a signal while anyone waits.
+     */
+    BLOCKING,
+    /**
+     * Spin briefly, then {@link Thread#yield()} between checks. Lower latency
+     * than {@link #BLOCKING}, but keeps a core busy while waiting.
+     */
+    YIELDING,
+    /**
+     * Spin without giving up the CPU. Lowest latency, and a whole core per
+     * waiting reader.
+     */
+    BUSY_SPIN,
 }
@@ -0,0 +1,183 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DBCParserTest {
+
+    private static final String DBC = "VERSION \"\"\n"
+            + "\n"
+            + "CM_ \"A comment\n"
+            + "BO_ 1 NotAMessage: 8 Vector__XXX\n"
+            + "which goes onto another line\";\n"
+            + "\n"
+            + "BO_ 2364540158 EEC1: 8 Vector__XXX\n"
+            + " SG_ EngineTorqueMode : 0|4@1+ (1,0) [0|15] \"\" Vector__XXX\n"
+            + " SG_ EngineSpeed : 24|16@1+ (0.125,0) [0|8031.875] \"rpm\""
+            + " Vector__XXX\n"
+            + "\n"
+            + "BO_ 2566848766 PropB: 8 Vector__XXX\n"
+            + " SG_ Mux M : 0|8@1+ (1,0) [0|255] \"\" Vector__XXX\n"
+            + " SG_ MuxedA m0 : 8|8@1+ (1,0) [0|255] \"\" Vector__XXX\n"
+            + " SG_ Pressure : 23|16@0+ (0.5,0) [0|32767.5] \"kPa\""
+            + " Vector__XXX\n"
+            + " SG_ Temperature : 32|8@1- (1,-40) [-168|87] \"degC\""
+            + " Vector__XXX\n"
+            + "\n"
+            + "BO_ 256 Standard: 8 Vector__XXX\n"
+            + " SG_ Ignored : 0|8@1+ (1,0) [0|255] \"\" Vector__XXX\n"
+            + "\n"
+            + "BA_ \"SPN\" SG_ 2364540158 EngineSpeed 190;\n"
+            + "BA_ \"SPN\" SG_ 2364540158 EngineTorqueMode 899;\n";
+
+    private SignalDatabase mDb;
+
+    @Before
+    public void setUp() throws IOException {
+        mDb = DBCParser.parse(new StringReader(DBC));
+    }
+
+    @Test
+    public void skipsStandardIdentifiers() {
+        assertEquals(2, mDb.size());
+        assertNotNull(mDb.getDecoder(0xF004));
+        assertNotNull(mDb.getDecoder(0xFF00));
+    }
+
+    @Test
+    public void parsesIntelSignal() {
+        SignalDecoder decoder = mDb.getDecoder(0xF004);
+        SPN speed = spn(decoder, "EngineSpeed");
+        byte data[] = { 0x03, 0, 0, 0x40, 0x1F, 0, 0, 0 };
+
+        assertEquals(0xF004, speed.getPgn());
+        assertEquals(24, speed.getStartBit());
+        assertEquals(16, speed.getLength());
+        assertFalse(speed.isBigEndian());
+        assertFalse(speed.isSigned());
+        assertEquals(0.125, speed.getScale(), 0);
+        assertEquals("rpm", speed.getUnit());
+        assertEquals(1000.0, decoder.decode(decoder.indexOf(speed), data,
+                data.length), 0);
+    }
+
+    @Test
+    public void parsesMotorolaSignal() {
+        SignalDecoder decoder = mDb.getDecoder(0xFF00);
+        SPN pressure = spn(decoder, "Pressure");
+        byte data[] = { 0, 0, 0x01, 0x02, 0, 0, 0, 0 };
+
+        assertTrue(pressure.isBigEndian());
+        assertEquals(23, pressure.getStartBit());
+        assertEquals("kPa", pressure.getUnit());
+        assertEquals(129.0, decoder.decode(decoder.indexOf(pressure), data,
+                data.length), 0);
+    }
+
+    @Test
+    public void parsesSignedSignal() {
+        SignalDecoder decoder = mDb.getDecoder(0xFF00);
+        SPN temperature = spn(decoder, "Temperature");
+        byte data[] = { 0, 0, 0, 0, (byte) 0xF6, 0, 0, 0 };
+
+        assertTrue(temperature.isSigned());
+        assertEquals(SPN.NONE, temperature.getNotAvailable());
+        assertEquals(-50.0, decoder.decode(decoder.indexOf(temperature),
+                data, data.length), 0);
+    }
+
+    @Test
+    public void skipsMultiplexedSignals() {
+        SignalDecoder decoder = mDb.getDecoder(0xFF00);
+
+        assertNotNull(spn(decoder, "Mux"));
+        assertNull(find(decoder, "MuxedA"));
+        assertEquals(3, decoder.size());
+    }
+
+    @Test
+    public void takesSpnNumbers() {
+        SignalDecoder decoder = mDb.getDecoder(0xF004);
+
+        assertEquals(190, spn(decoder, "EngineSpeed").getNumber());
+        assertEquals(899, spn(decoder, "EngineTorqueMode").getNumber());
+        assertEquals(0, spn(mDb.getDecoder(0xFF00), "Pressure").getNumber());
+    }
+
+    @Test
+    public void keepsFirstMessageOfPgn() throws IOException {
+        SignalDatabase db = DBCParser.parse(new StringReader(
+                "BO_ 2364540158 EEC1: 8 Vector__XXX\n"
+                        + " SG_ First : 0|8@1+ (1,0) [0|255] \"\" X\n"
+                        + "BO_ 2364539904 EEC1_2: 8 Vector__XXX\n"
+                        + " SG_ Second : 0|8@1+ (1,0) [0|255] \"\" X\n"));
+
+        assertEquals(1, db.size());
+        assertNotNull(find(db.getDecoder(0xF004), "First"));
+        assertNull(find(db.getDecoder(0xF004), "Second"));
+    }
+
+    @Test
+    public void reportsMalformedLine() {
+        try {
+            DBCParser.parse(new StringReader(
+                    "BO_ 2364540158 EEC1: 8 Vector__XXX\n"
+                            + " SG_ Broken : x|8@1+ (1,0) [0|255] \"\" X\n"));
+            fail("Parsed a malformed signal");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("DBC line 2 "));
+            assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+    }
+
+    private static SPN find(SignalDecoder decoder, String name) {
+        for (SPN spn : decoder.getSpns()) {
+            if (name.equals(spn.getName())) {
+                return spn;
+            }
+        }
+
+        return null;
+    }
+
+    private static SPN spn(SignalDecoder decoder, String name) {
+        SPN spn = find(decoder, name);
+
+        assertNotNull("No signal " + name, spn);
+        return spn;
+    }
+}
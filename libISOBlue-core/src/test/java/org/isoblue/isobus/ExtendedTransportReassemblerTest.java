@@ -0,0 +1,230 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtendedTransportReassemblerTest {
+
+    private static final short SRC = 0x20;
+    private static final short DEST = 0x80;
+    private static final int PGN_DATA = 0xD700;
+    private static final int SIZE = 1800;
+
+    /**
+     * {@link TransferConsumer} which keeps what is written to it
+     */
+    private static final class Consumer implements TransferConsumer {
+
+        IOException mOpenFailure;
+        boolean mIgnore;
+        final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        final List<Boolean> mClosed = new ArrayList<Boolean>();
+
+        @Override
+        public WritableByteChannel open(ExtendedTransfer transfer)
+                throws IOException {
+            if (mOpenFailure != null) {
+                throw mOpenFailure;
+            }
+            if (mIgnore) {
+                return null;
+            }
+
+            return new WritableByteChannel() {
+                private boolean mOpen = true;
+
+                @Override
+                public int write(ByteBuffer src) {
+                    int n = src.remaining();
+
+                    while (src.hasRemaining()) {
+                        mData.write(src.get());
+                    }
+                    return n;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return mOpen;
+                }
+
+                @Override
+                public void close() {
+                    mOpen = false;
+                }
+            };
+        }
+
+        @Override
+        public void closed(ExtendedTransfer transfer, boolean complete) {
+            mClosed.add(complete);
+        }
+    }
+
+    private Consumer mConsumer;
+    private ExtendedTransportReassembler mReassembler;
+
+    @Before
+    public void setUp() {
+        mConsumer = new Consumer();
+        mReassembler = new ExtendedTransportReassembler(1, mConsumer);
+    }
+
+    private static byte expected(int i) {
+        return (byte) (i * 31);
+    }
+
+    private void cm(int control, int b1, int b2, int b3, int b4, long now) {
+        byte data[] = { (byte) control, (byte) b1, (byte) b2, (byte) b3,
+                (byte) b4, (byte) PGN_DATA, (byte) (PGN_DATA >> 8),
+                (byte) (PGN_DATA >> 16) };
+
+        mReassembler.receive(new Message(0, DEST, SRC, PGN
+                .valueOf(ExtendedTransportReassembler.ETP_CM), data, now));
+    }
+
+    private void rts(long now) {
+        cm(ExtendedTransportReassembler.CM_RTS, SIZE, SIZE >> 8, 0, 0, now);
+    }
+
+    private void dpo(int packets, int offset, long now) {
+        cm(ExtendedTransportReassembler.CM_DPO, packets, offset,
+                offset >> 8, offset >> 16, now);
+    }
+
+    private void dt(int offset, int seq, long now) {
+        byte data[] = new byte[8];
+        int off = (offset + seq - 1) * 7;
+
+        data[0] = (byte) seq;
+        for (int i = 0; i < 7; i++) {
+            data[1 + i] = off + i < SIZE ? expected(off + i) : (byte) 0xFF;
+        }
+
+        mReassembler.receive(new Message(0, DEST, SRC, PGN
+                .valueOf(ExtendedTransportReassembler.ETP_DT), data, now));
+    }
+
+    @Test
+    public void reassemblesWindows() {
+        int packets = (SIZE + 6) / 7;
+        byte expected[] = new byte[SIZE];
+
+        rts(0);
+        for (int offset = 0; offset < packets; offset += 255) {
+            int window = Math.min(255, packets - offset);
+
+            dpo(window, offset, 0);
+            for (int seq = 1; seq <= window; seq++) {
+                dt(offset, seq, 0);
+            }
+        }
+
+        for (int i = 0; i < SIZE; i++) {
+            expected[i] = expected(i);
+        }
+        assertArrayEquals(expected, mConsumer.mData.toByteArray());
+        assertEquals(1, mReassembler.getCompletedCount());
+        assertEquals(SIZE, mReassembler.getBytesTransferred());
+        assertEquals(0, mReassembler.getSessionCount());
+        assertEquals(1, mConsumer.mClosed.size());
+        assertEquals(true, mConsumer.mClosed.get(0));
+    }
+
+    @Test
+    public void abortsFromEitherEnd() {
+        rts(0);
+        dpo(2, 0, 0);
+        dt(0, 1, 0);
+        mReassembler.receive(new Message(0, SRC, DEST, PGN
+                .valueOf(ExtendedTransportReassembler.ETP_CM), new byte[] {
+                (byte) ExtendedTransportReassembler.CM_ABORT, 0, 0, 0, 0,
+                (byte) PGN_DATA, (byte) (PGN_DATA >> 8),
+                (byte) (PGN_DATA >> 16) }, 0));
+
+        assertEquals(1, mReassembler.getFailedCount());
+        assertEquals(0, mReassembler.getSessionCount());
+        assertEquals(false, mConsumer.mClosed.get(0));
+    }
+
+    @Test
+    public void timesOut() {
+        rts(0);
+        dpo(2, 0, 0);
+        dt(0, 1, 0);
+        dt(0, 2, ExtendedTransportReassembler.TIMEOUT + 1);
+
+        assertEquals(0, mConsumer.mData.size());
+        assertEquals(1, mReassembler.getFailedCount());
+        assertEquals(false, mConsumer.mClosed.get(0));
+    }
+
+    @Test
+    public void rejectsWhenFull() {
+        rts(0);
+        mReassembler.receive(new Message(0, DEST, (short) (SRC + 1), PGN
+                .valueOf(ExtendedTransportReassembler.ETP_CM), new byte[] {
+                (byte) ExtendedTransportReassembler.CM_RTS, 1, 0, 0, 0,
+                (byte) PGN_DATA, (byte) (PGN_DATA >> 8),
+                (byte) (PGN_DATA >> 16) }, 0));
+
+        assertEquals(1, mReassembler.getSessionCount());
+        assertEquals(1, mReassembler.getRejectedCount());
+    }
+
+    @Test
+    public void countsFailureToOpen() {
+        mConsumer.mOpenFailure = new IOException("No space");
+        rts(0);
+
+        assertEquals(0, mReassembler.getSessionCount());
+        assertEquals(1, mReassembler.getFailedCount());
+        assertEquals(1, mConsumer.mClosed.size());
+        assertEquals(false, mConsumer.mClosed.get(0));
+    }
+
+    @Test
+    public void countsIgnoredTransfer() {
+        mConsumer.mIgnore = true;
+        rts(0);
+
+        assertEquals(0, mReassembler.getSessionCount());
+        assertEquals(1, mReassembler.getRejectedCount());
+        assertEquals(1, mConsumer.mClosed.size());
+        assertEquals(false, mConsumer.mClosed.get(0));
+    }
+}
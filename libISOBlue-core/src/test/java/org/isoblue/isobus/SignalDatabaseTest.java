@@ -0,0 +1,130 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SignalDatabaseTest {
+
+    private static final long TAG = 0x0123456789ABCDEFL;
+
+    private static SignalDatabase database() {
+        SPN pressure = new SPN(0, "Pressure", 0xFF00, 23, 16,
+                ByteOrder.BIG_ENDIAN, false, 0.5, 0, "kPa",
+                SPN.notAvailable(16), SPN.error(16));
+        SPN temperature = new SPN(1234, "Temperature", 0xFF00, 32, 8,
+                ByteOrder.LITTLE_ENDIAN, true, 1, -40, null, SPN.NONE,
+                SPN.NONE);
+
+        return new SignalDatabase(Arrays.asList(
+                SignalDecoder.compile(SPN.ENGINE_SPEED),
+                SignalDecoder.compile(pressure, temperature)));
+    }
+
+    private static byte[] write(SignalDatabase db, long tag)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        db.writeTo(out, tag);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void roundTrips() throws IOException {
+        SignalDatabase db = database();
+        SignalDatabase read = SignalDatabase.readFrom(
+                new ByteArrayInputStream(write(db, TAG)), TAG);
+
+        assertNotNull(read);
+        assertEquals(db.size(), read.size());
+        assertEquals(db.getSignalCount(), read.getSignalCount());
+        for (SignalDecoder decoder : db.getDecoders()) {
+            SignalDecoder other = read.getDecoder(decoder.getPgn());
+            SPN spns[] = decoder.getSpns();
+            SPN others[] = other.getSpns();
+
+            assertEquals(spns.length, others.length);
+            for (int i = 0; i < spns.length; i++) {
+                assertSpnEquals(spns[i], others[i]);
+            }
+        }
+    }
+
+    @Test
+    public void decodesTheSameAfterRoundTrip() throws IOException {
+        SignalDatabase db = database();
+        SignalDatabase read = SignalDatabase.readFrom(
+                new ByteArrayInputStream(write(db, TAG)), TAG);
+        byte data[] = { 0, 0, 0x01, 0x02, (byte) 0xF6, 0, 0, 0 };
+        double expected[] = new double[2];
+        double values[] = new double[2];
+
+        db.getDecoder(0xFF00).decode(data, data.length, expected);
+        read.getDecoder(0xFF00).decode(data, data.length, values);
+        assertEquals(expected[0], values[0], 0);
+        assertEquals(expected[1], values[1], 0);
+    }
+
+    @Test
+    public void ignoresOtherTag() throws IOException {
+        byte bytes[] = write(database(), TAG);
+
+        assertNull(SignalDatabase.readFrom(new ByteArrayInputStream(bytes),
+                TAG + 1));
+    }
+
+    @Test
+    public void ignoresOtherData() throws IOException {
+        byte bytes[] = new byte[64];
+
+        assertNull(SignalDatabase.readFrom(new ByteArrayInputStream(bytes),
+                TAG));
+    }
+
+    private static void assertSpnEquals(SPN expected, SPN actual) {
+        assertEquals(expected.getNumber(), actual.getNumber());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getPgn(), actual.getPgn());
+        assertEquals(expected.getStartBit(), actual.getStartBit());
+        assertEquals(expected.getLength(), actual.getLength());
+        assertEquals(expected.getByteOrder(), actual.getByteOrder());
+        assertEquals(expected.isSigned(), actual.isSigned());
+        assertEquals(expected.getScale(), actual.getScale(), 0);
+        assertEquals(expected.getOffset(), actual.getOffset(), 0);
+        assertEquals(expected.getUnit(), actual.getUnit());
+        assertEquals(expected.getNotAvailable(), actual.getNotAvailable());
+        assertEquals(expected.getError(), actual.getError());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isobus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransportReassemblerTest {
+
+    private static final short SRC = 0x20;
+    private static final short DEST = 0x80;
+    private static final short GLOBAL = 0xFF;
+    private static final int PGN_DATA = 0xFEE3;
+    private static final byte DATA[] = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+
+    private TransportReassembler mReassembler;
+
+    @Before
+    public void setUp() {
+        mReassembler = new TransportReassembler(1);
+    }
+
+    private static Message cm(short src, short dest, int control, long now) {
+        byte data[] = { (byte) control, (byte) DATA.length, 0, 2,
+                (byte) 0xFF, (byte) PGN_DATA, (byte) (PGN_DATA >> 8),
+                (byte) (PGN_DATA >> 16) };
+
+        return new Message(0, dest, src, PGN
+                .valueOf(TransportReassembler.TP_CM), data, now);
+    }
+
+    private static Message dt(short src, short dest, int seq, long now) {
+        byte data[] = new byte[8];
+        int off = (seq - 1) * 7;
+
+        data[0] = (byte) seq;
+        for (int i = 0; i < 7; i++) {
+            data[1 + i] = off + i < DATA.length ? DATA[off + i] : (byte) 0xFF;
+        }
+
+        return new Message(0, dest, src, PGN
+                .valueOf(TransportReassembler.TP_DT), data, now);
+    }
+
+    @Test
+    public void reassemblesBam() {
+        Message whole;
+
+        assertNull(mReassembler.receive(cm(SRC, GLOBAL,
+                TransportReassembler.CM_BAM, 0)));
+        assertNull(mReassembler.receive(dt(SRC, GLOBAL, 1, 50000)));
+        whole = mReassembler.receive(dt(SRC, GLOBAL, 2, 100000));
+
+        assertNotNull(whole);
+        assertEquals(PGN_DATA, whole.getPgn().asInt());
+        assertEquals(SRC, whole.getSrcAddr());
+        assertEquals(GLOBAL, whole.getDestAddr());
+        assertArrayEquals(DATA, whole.getData());
+        assertEquals(1, mReassembler.getCompletedCount());
+        assertEquals(100000, mReassembler.getLastLatency());
+        assertEquals(0, mReassembler.getSessionCount());
+    }
+
+    @Test
+    public void reassemblesPacketsOutOfOrder() {
+        mReassembler.receive(cm(SRC, DEST, TransportReassembler.CM_RTS, 0));
+        assertNull(mReassembler.receive(dt(SRC, DEST, 2, 1000)));
+        assertArrayEquals(DATA, mReassembler.receive(dt(SRC, DEST, 1, 2000))
+                .getData());
+    }
+
+    @Test
+    public void timesOut() {
+        mReassembler.receive(cm(SRC, GLOBAL, TransportReassembler.CM_BAM, 0));
+        mReassembler.receive(dt(SRC, GLOBAL, 1, 0));
+
+        assertNull(mReassembler.receive(dt(SRC, GLOBAL, 2,
+                TransportReassembler.BAM_TIMEOUT + 1)));
+        assertEquals(1, mReassembler.getTimedOutCount());
+        assertEquals(0, mReassembler.getSessionCount());
+    }
+
+    @Test
+    public void abortsFromEitherEnd() {
+        mReassembler.receive(cm(SRC, DEST, TransportReassembler.CM_RTS, 0));
+        mReassembler.receive(cm(DEST, SRC, TransportReassembler.CM_ABORT, 0));
+
+        assertEquals(1, mReassembler.getAbortedCount());
+        assertNull(mReassembler.receive(dt(SRC, DEST, 1, 0)));
+        assertNull(mReassembler.receive(dt(SRC, DEST, 2, 0)));
+        assertEquals(0, mReassembler.getCompletedCount());
+    }
+
+    @Test
+    public void rejectsWhenFull() {
+        mReassembler.receive(cm(SRC, GLOBAL, TransportReassembler.CM_BAM, 0));
+        mReassembler.receive(cm((short) (SRC + 1), GLOBAL,
+                TransportReassembler.CM_BAM, 0));
+
+        assertEquals(1, mReassembler.getSessionCount());
+        assertEquals(1, mReassembler.getRejectedCount());
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Set;
 
 import org.isoblue.isoblue.ISOBlueDevice;
 import org.isoblue.isobus.ISOBUSSocket;
+import org.isoblue.isobus.MessageListener;
 import org.isoblue.isobus.PGN;
 
 import android.bluetooth.BluetoothAdapter;
@@ -45,8 +46,8 @@ public class BluetoothService {
     private final BluetoothAdapter mAdapter;
     private final Handler mHandler;
     private ConnectThread mConnectThread;
-    private ConnectedThread mEngConnectedThread, mImpConnectedThread;
-    private ConnectedThread mBufEngConnectedThread, mBufImpConnectedThread;
+    private Connection mEngConnection, mImpConnection;
+    private Connection mBufEngConnection, mBufImpConnection;
     private int mState;
 
     private boolean mPast;
@@ -107,13 +108,13 @@ public class BluetoothService {
         }
 
         // Cancel any thread currently running a connection
-        if (mEngConnectedThread != null) {
-            mEngConnectedThread.cancel();
-            mEngConnectedThread = null;
+        if (mEngConnection != null) {
+            mEngConnection.cancel();
+            mEngConnection = null;
         }
-        if (mImpConnectedThread != null) {
-            mImpConnectedThread.cancel();
-            mImpConnectedThread = null;
+        if (mImpConnection != null) {
+            mImpConnection.cancel();
+            mImpConnection = null;
         }
 
         setState(STATE_LISTEN);
@@ -141,13 +142,13 @@ public class BluetoothService {
         }
 
         // Cancel any thread currently running a connection
-        if (mEngConnectedThread != null) {
-            mEngConnectedThread.cancel();
-            mEngConnectedThread = null;
+        if (mEngConnection != null) {
+            mEngConnection.cancel();
+            mEngConnection = null;
         }
-        if (mImpConnectedThread != null) {
-            mImpConnectedThread.cancel();
-            mImpConnectedThread = null;
+        if (mImpConnection != null) {
+            mImpConnection.cancel();
+            mImpConnection = null;
         }
 
         mPast = past;
@@ -165,7 +166,7 @@ public class BluetoothService {
     }
 
     /**
-     * Start the ConnectedThread to begin managing a Bluetooth connection
+     * Start the Connections to begin managing a Bluetooth connection
      * 
      * @param engSocket
      * @param impSocket
@@ -184,29 +185,25 @@ public class BluetoothService {
         }
 
         // Cancel any thread currently running a connection
-        if (mEngConnectedThread != null) {
-            mEngConnectedThread.cancel();
-            mEngConnectedThread = null;
+        if (mEngConnection != null) {
+            mEngConnection.cancel();
+            mEngConnection = null;
         }
-        if (mImpConnectedThread != null) {
-            mImpConnectedThread.cancel();
-            mImpConnectedThread = null;
+        if (mImpConnection != null) {
+            mImpConnection.cancel();
+            mImpConnection = null;
         }
 
-        // Start the thread to manage the connection and perform transmissions
-        mEngConnectedThread = new ConnectedThread(engSocket,
+        // Listen to the sockets and perform transmissions
+        mEngConnection = new Connection(engSocket,
                 ISOBlueDemo.MESSAGE_ARG1_NEW);
-        mEngConnectedThread.start();
-        mImpConnectedThread = new ConnectedThread(impSocket,
+        mImpConnection = new Connection(impSocket,
                 ISOBlueDemo.MESSAGE_ARG1_NEW);
-        mImpConnectedThread.start();
         if (mPast) {
-            mBufEngConnectedThread = new ConnectedThread(bufEngSocket,
+            mBufEngConnection = new Connection(bufEngSocket,
                     ISOBlueDemo.MESSAGE_ARG1_BUF);
-            mBufEngConnectedThread.start();
-            mBufImpConnectedThread = new ConnectedThread(bufImpSocket,
+            mBufImpConnection = new Connection(bufImpSocket,
                     ISOBlueDemo.MESSAGE_ARG1_BUF);
-            mBufImpConnectedThread.start();
         }
 
         // Send the name of the connected device back to the UI Activity
@@ -228,28 +225,28 @@ public class BluetoothService {
             mConnectThread = null;
         }
 
-        if (mEngConnectedThread != null) {
-            mEngConnectedThread.cancel();
-            mEngConnectedThread = null;
+        if (mEngConnection != null) {
+            mEngConnection.cancel();
+            mEngConnection = null;
         }
         setState(STATE_NONE);
     }
 
     /**
-     * Write to the ConnectedThread in an unsynchronized manner
+     * Write to the Connection in an unsynchronized manner
      * 
      * @param out
      *            The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * @see Connection#write(org.isoblue.isobus.Message)
      */
     public void write(org.isoblue.isobus.Message out) {
         // Create temporary object
-        ConnectedThread r;
-        // Synchronize a copy of the ConnectedThread
+        Connection r;
+        // Synchronize a copy of the Connection
         synchronized (this) {
             if (mState != STATE_CONNECTED)
                 return;
-            r = mEngConnectedThread;
+            r = mEngConnection;
         }
         // Perform the write unsynchronized
         r.write(out);
@@ -359,53 +356,52 @@ public class BluetoothService {
     }
 
     /**
-     * This thread runs during a connection with a remote device. It handles all
-     * incoming and outgoing transmissions.
+     * This listener runs during a connection with a remote device. It handles
+     * all incoming and outgoing transmissions. Incoming messages are passed on
+     * by the ISOBlue's read thread, so no thread is needed per socket.
      */
-    private class ConnectedThread extends Thread {
+    private class Connection implements MessageListener {
         private final ISOBUSSocket mmSocket;
         private final int mmMessageArg;
+        private volatile boolean mmCancelled;
 
-        public ConnectedThread(ISOBUSSocket mmSocket2, int messageArg) {
-            Log.d(TAG, "create ConnectedThread");
-            mmSocket = mmSocket2;
+        public Connection(ISOBUSSocket socket, int messageArg) {
+            Log.d(TAG, "create Connection");
+            mmSocket = socket;
             mmMessageArg = messageArg;
+
+            mmSocket.setListener(this);
         }
 
-        public void run() {
-            Log.i(TAG, "BEGIN mConnectedThread");
-            org.isoblue.isobus.Message buffer;
-
-            // Keep listening to the InputStream while connected
-            while (true) {
-                try {
-                    // Read from the InputStream
-                    buffer = mmSocket.read();
-
-                    // Send the obtained bytes to the UI Activity
-                    switch (mmSocket.getBus().getType()) {
-                    case ENGINE:
-                        mHandler.obtainMessage(ISOBlueDemo.MESSAGE_READ_ENG,
-                                mmMessageArg, -1, buffer).sendToTarget();
-                        break;
-
-                    case IMPLEMENT:
-                        mHandler.obtainMessage(ISOBlueDemo.MESSAGE_READ_IMP,
-                                mmMessageArg, -1, buffer).sendToTarget();
-                        break;
-                    }
-
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "disconnected", e);
-                    connectionLost();
-                    // Start the service over to restart listening mode
-                    BluetoothService.this.start();
-                    break;
-                } catch (IOException e) {
-                    Log.e(TAG, "buffered data stopped", e);
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+        @Override
+        public void onMessage(ISOBUSSocket socket,
+                org.isoblue.isobus.Message message) {
+            // Send the obtained message to the UI Activity
+            switch (socket.getBus().getType()) {
+            case ENGINE:
+                mHandler.obtainMessage(ISOBlueDemo.MESSAGE_READ_ENG,
+                        mmMessageArg, -1, message).sendToTarget();
+                break;
+
+            case IMPLEMENT:
+                mHandler.obtainMessage(ISOBlueDemo.MESSAGE_READ_IMP,
+                        mmMessageArg, -1, message).sendToTarget();
+                break;
+            }
+        }
+
+        @Override
+        public void onEnd(ISOBUSSocket socket) {
+            if (mmCancelled) {
+                // We closed it ourselves
+                return;
+            }
+
+            if (mmMessageArg == ISOBlueDemo.MESSAGE_ARG1_BUF) {
+                Log.i(TAG, "buffered data stopped");
+            } else {
+                Log.e(TAG, "disconnected");
+                connectionLost();
             }
         }
 
@@ -424,6 +420,7 @@ public class BluetoothService {
         }
 
         public void cancel() {
+            mmCancelled = true;
             try {
                 mmSocket.close();
             } catch (Exception e) {
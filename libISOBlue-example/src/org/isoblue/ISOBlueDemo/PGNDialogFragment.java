@@ -58,8 +58,8 @@ public class PGNDialogFragment extends DialogFragment {
 
         boolean checked[] = new boolean[mPGNVals.length()];
         for (int i = 0; i < mPGNVals.length(); i++) {
-            checked[i] = mSelectedPGNs.contains(new PGN(mPGNVals.getInteger(i,
-                    -1)));
+            checked[i] = mSelectedPGNs.contains(PGN.valueOf(mPGNVals.getInteger(
+                    i, -1)));
         }
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
@@ -74,7 +74,7 @@ public class PGNDialogFragment extends DialogFragment {
                             @Override
                             public void onClick(DialogInterface dialog,
                                     int which, boolean isChecked) {
-                                PGN val = new PGN(mPGNVals
+                                PGN val = PGN.valueOf(mPGNVals
                                         .getInteger(which, -1));
                                 if (isChecked) {
                                     // If the user checked the item, add it to
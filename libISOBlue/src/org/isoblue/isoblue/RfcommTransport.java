@@ -0,0 +1,173 @@
+/*
+ * Author: Alex Layton <alex@layton.in>
+ * 
+ * Copyright (c) 2014 Purdue University
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.isoblue.isoblue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.UUID;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+/**
+ * {@link ISOBlueTransport} over Bluetooth RFCOMM, as used by
+ * {@link ISOBlueDevice}.
+ *
+ * @author Alex Layton <alex@layton.in>
+ */
+public class RfcommTransport implements ISOBlueTransport {
+
+    private static final UUID MY_UUID = UUID
+            .fromString("00000000-0000-0000-0000-00000000abcd");
+    private static final byte[] MY_PIN = { '0', '0', '0', '0' };
+
+    private final BluetoothDevice mDevice;
+    private volatile BluetoothSocket mSocket;
+
+    /**
+     * Socket {@link #connect()} is waiting on, so {@link #close()} can abort
+     * it without taking the lock
+     */
+    private volatile BluetoothSocket mConnecting;
+
+    /**
+     * Counts calls to {@link #close()}, so {@link #connect()} can tell it
+     * was closed while connecting
+     */
+    private volatile int mCloses;
+
+    public RfcommTransport(BluetoothDevice device) {
+        mDevice = device;
+
+        try {
+            device.getClass().getMethod("setPin", byte[].class)
+                    .invoke(device, MY_PIN);
+        } catch (IllegalArgumentException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        } catch (InvocationTargetException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        } catch (NoSuchMethodException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#connect()
+     */
+    @Override
+    public synchronized void connect() throws IOException {
+        int closes = mCloses;
+        BluetoothSocket socket = mSocket;
+
+        mSocket = null;
+        if (socket != null) {
+            socket.close();
+        }
+
+        socket = mDevice.createRfcommSocketToServiceRecord(MY_UUID);
+        mConnecting = socket;
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        } finally {
+            mConnecting = null;
+        }
+        mSocket = socket;
+
+        if (mCloses != closes) {
+            close();
+            throw new IOException("Closed while connecting");
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#getInputStream()
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket().getInputStream();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.isoblue.isoblue.ISOBlueTransport#getOutputStream()
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket().getOutputStream();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        BluetoothSocket connecting, socket;
+
+        mCloses++;
+        connecting = mConnecting;
+        socket = mSocket;
+        mSocket = null;
+        if (connecting != null) {
+            connecting.close();
+        }
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private BluetoothSocket socket() throws IOException {
+        BluetoothSocket socket = mSocket;
+
+        if (socket == null) {
+            throw new IOException("Not connected to " + mDevice);
+        }
+        return socket;
+    }
+
+    /**
+     * @return the {@link BluetoothDevice} of the ISOBlue
+     */
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+}